@@ -0,0 +1,255 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Batch valuation command line tool
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator;
+
+import com.axiom.valuator.model.CachedData;
+import com.axiom.valuator.model.UpstreamClient;
+import com.axiom.valuator.services.CompanyCSVReader;
+import com.axiom.valuator.services.PortfolioImportService;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Valuates company files without HTTP server (nightly revaluation jobs).
+ * Reads NDJSON (one Company Data JSON per line) or CSV (.csv extension) files,
+ * valuates companies on a thread pool using shared caches and writes compact
+ * numeric results as NDJSON or CSV. Progress and throughput are reported to stderr.
+ * <pre>
+ * java com.axiom.valuator.BatchValuator [-t threads] [-o output] [--csv] [--offline] files...
+ * </pre>
+ */
+public class BatchValuator {
+
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int IN_FLIGHT_PER_THREAD = 4;
+    public static final long PROGRESS_PERIOD_SECONDS = 5;
+    public static final String[] RESULT_FIELDS = {
+        "row", "name", "ebitda", "multiples", "dcf", "realOptions", "exitYear", "exitValue", "presentValue", "unavailable", "error" };
+
+    public static final String USAGE =
+        "Usage: BatchValuator [-t threads] [-o output] [--csv] [--offline] files (.ndjson or .csv)";
+
+    private final int threads;
+    private final boolean csvOutput;
+    private final Writer output;
+    private final AtomicLong valuated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private long startTime;
+
+
+    /**
+     * Batch valuator constructor
+     * @param threads worker threads
+     * @param csvOutput if true writes CSV, otherwise NDJSON
+     * @param output results writer
+     */
+    public BatchValuator(int threads, boolean csvOutput, Writer output) {
+        this.threads = Math.max(1, threads);
+        this.csvOutput = csvOutput;
+        this.output = output;
+    }
+
+
+    /**
+     * Valuates all companies of input files
+     * @param files NDJSON or CSV company files
+     * @throws IOException if files can't be read or results written
+     * @throws InterruptedException if interrupted while waiting for workers
+     */
+    public void run(List<Path> files) throws IOException, InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "batch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "batch-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int maxInFlight = threads * IN_FLIGHT_PER_THREAD;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+
+        startTime = System.nanoTime();
+        if (csvOutput) writeLine(String.join(",", RESULT_FIELDS));
+        progress.scheduleAtFixedRate(this::reportProgress, PROGRESS_PERIOD_SECONDS, PROGRESS_PERIOD_SECONDS, TimeUnit.SECONDS);
+        try {
+            for (Path file : files) {
+                boolean csvInput = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    if (csvInput) submitCSV(reader, workers, inFlight);
+                    else submitNDJSON(reader, workers, inFlight);
+                }
+            }
+            inFlight.acquire(maxInFlight);   // wait for rows in flight
+        } finally {
+            progress.shutdownNow();
+            workers.shutdown();
+        }
+        synchronized (output) {
+            output.flush();
+        }
+        reportProgress();
+    }
+
+
+    private void submitCSV(BufferedReader reader, ExecutorService workers, Semaphore inFlight)
+            throws IOException, InterruptedException {
+        CompanyCSVReader csv = new CompanyCSVReader(reader);
+        while (true) {
+            JSONObject row;
+            try {
+                row = csv.next();
+            } catch (IllegalArgumentException e) {
+                writeResult(new JSONObject().put("row", csv.getRowNumber()).put("error", e.getMessage()));
+                continue;
+            }
+            if (row == null) break;
+            submit(csv.getRowNumber(), row, workers, inFlight);
+        }
+    }
+
+
+    private void submitNDJSON(BufferedReader reader, ExecutorService workers, Semaphore inFlight)
+            throws IOException, InterruptedException {
+        long rowNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            rowNumber++;
+            if (line.isBlank()) continue;
+            try {
+                submit(rowNumber, new JSONObject(line), workers, inFlight);
+            } catch (JSONException e) {
+                writeResult(new JSONObject().put("row", rowNumber).put("error", e.getMessage()));
+            }
+        }
+    }
+
+
+    private void submit(long rowNumber, JSONObject companyJSON, ExecutorService workers, Semaphore inFlight)
+            throws InterruptedException {
+        inFlight.acquire();    // backpressure: bounded number of rows in memory
+        workers.execute(() -> {
+            try {
+                writeResult(PortfolioImportService.valuateCompany(rowNumber, companyJSON));
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+
+    /**
+     * Writes result as NDJSON line or CSV row and counts it
+     * @param result valuation result or error
+     */
+    private void writeResult(JSONObject result) {
+        if (result.has("error")) failed.incrementAndGet();
+        else valuated.incrementAndGet();
+        if (!csvOutput) {
+            writeLine(result.toString());
+            return;
+        }
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < RESULT_FIELDS.length; i++) {
+            if (i > 0) row.append(',');
+            Object value = result.opt(RESULT_FIELDS[i]);
+            if (value instanceof String) row.append('"').append(((String) value).replace("\"", "\"\"")).append('"');
+            else if (value instanceof JSONArray) row.append(joinNames((JSONArray) value));
+            else if (value != null) row.append(value);
+        }
+        writeLine(row.toString());
+    }
+
+
+    private static String joinNames(JSONArray names) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < names.length(); i++) {
+            if (i > 0) joined.append(';');
+            joined.append(names.optString(i));
+        }
+        return joined.toString();
+    }
+
+
+    private void writeLine(String line) {
+        synchronized (output) {
+            try {
+                output.write(line);
+                output.write('\n');
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+
+    private void reportProgress() {
+        double seconds = Math.max(1e-3, (System.nanoTime() - startTime) / 1e9);
+        long done = valuated.get() + failed.get();
+        System.err.printf(Locale.ROOT, "Valuated %d companies (%d failed) in %.1f s, %.1f companies/s%n",
+            done, failed.get(), seconds, done / seconds);
+    }
+
+
+    /**
+     * Command line entry point
+     * @param args options and input files
+     * @throws Exception if files can't be processed
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = DEFAULT_THREADS;
+        boolean csvOutput = false;
+        boolean offline = false;
+        Path outputPath = null;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-t": threads = Integer.parseInt(args[++i]); break;
+                case "-o": outputPath = Paths.get(args[++i]); break;
+                case "--csv": csvOutput = true; break;
+                case "--offline": offline = true; break;
+                default: files.add(Paths.get(args[i]));
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        UpstreamClient.setOffline(offline);
+        CachedData.ensureInitialized();
+        try (Writer output = outputPath == null
+                ? new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)))
+                : Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
+            new BatchValuator(threads, csvOutput, output).run(files);
+        }
+    }
+
+}
@@ -1,20 +1,94 @@
 package com.axiom.valuator;
 
 
+import com.axiom.valuator.model.CachedData;
+import com.axiom.valuator.model.CountryDataRefresh;
+import com.axiom.valuator.services.ExitYearSweepService;
+import com.axiom.valuator.services.GoalSeekService;
+import com.axiom.valuator.services.HistoryService;
+import com.axiom.valuator.services.PeerService;
+import com.axiom.valuator.services.PortfolioImportService;
+import com.axiom.valuator.services.StartupWarmup;
+import com.axiom.valuator.services.StaticAssetsService;
+import com.axiom.valuator.services.TraceService;
 import com.axiom.valuator.services.ValuationService;
+import com.axiom.valuator.services.ValuationStreamService;
 import spark.Spark;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
 public class ServerApplication {
 
+    public static final int SERVER_PORT = Integer.getInteger("valuator.port", 80);
+    public static final String TRAIN_MODE = "--train";             // Warm up and exit (AppCDS archive dump)
+    public static final String SKIP_WARMUP = "--skip-warmup";      // Open port without warm-up
+    public static final String CDS_ARCHIVE_OPTION = "-XX:SharedArchiveFile";
+
+
+    /**
+     * Starts server: opens cache, warms up valuation path, then loads static assets
+     * and opens the port. In train mode server is started on ephemeral port,
+     * requested once and stopped, so JVM started with -XX:ArchiveClassesAtExit
+     * dumps class data sharing archive of all classes used in serving.
+     * @param args optional --train or --skip-warmup
+     * @throws IOException if static assets can't be loaded
+     */
+    public static void main(String[] args) throws IOException {
+
+        List<String> options = Arrays.asList(args);
+        boolean trainMode = options.contains(TRAIN_MODE);
+        long jvmMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+
+        // Port must be set before first route is mapped, mapping routes starts the server
+        Spark.port(trainMode ? 0 : SERVER_PORT);
+
+        long startTime = System.nanoTime();
+        CachedData.ensureInitialized();
+        long cacheMillis = elapsedMillis(startTime);
 
-    public static void main(String[] args) {
+        startTime = System.nanoTime();
+        int warmedUp = options.contains(SKIP_WARMUP) ? 0 : StartupWarmup.run(StartupWarmup.DEFAULT_ITERATIONS);
+        long warmupMillis = elapsedMillis(startTime);
 
-        Spark.port(80);
-        Spark.staticFileLocation("/main/resources/public");
-        Spark.init();
+        startTime = System.nanoTime();
+        StaticAssetsService.register("/main/resources/public");
         Spark.post("/valuate", new ValuationService());
+        Spark.post("/valuate/stream", new ValuationStreamService());
+        Spark.post("/portfolio", new PortfolioImportService());
+        Spark.post("/sweep", new ExitYearSweepService());
+        Spark.post("/goalseek", new GoalSeekService());
+        Spark.get("/history", new HistoryService());
+        Spark.get("/history/:id", new HistoryService());
+        Spark.get("/admin/traces", new TraceService());
+        Spark.get("/peer/:map/:key", new PeerService());
         Spark.get("/shutdown", (request, response) -> { Spark.stop(); return "Server stopped"; } );
+        Spark.awaitInitialization();
+        long serverMillis = elapsedMillis(startTime);
+
+        boolean classDataSharing = ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
+            .anyMatch(argument -> argument.startsWith(CDS_ARCHIVE_OPTION));
+        System.out.println("Startup: JVM " + jvmMillis + " ms, cache " + cacheMillis + " ms, warm-up "
+            + warmupMillis + " ms (" + warmedUp + " valuations), assets and server "
+            + serverMillis + " ms, total " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms"
+            + (classDataSharing ? " [AppCDS archive]" : ""));
+
+        // Keep all countries warm in background (few bulk World Bank requests)
+        if (!trainMode) CountryDataRefresh.schedule();
+
+        if (trainMode) {
+            StartupWarmup.requestServer(Spark.port());
+            Spark.stop();
+            Spark.awaitStop();
+            System.exit(0);
+        }
+    }
+
 
+    private static long elapsedMillis(long startTime) {
+        return (System.nanoTime() - startTime) / 1_000_000;
     }
 
 
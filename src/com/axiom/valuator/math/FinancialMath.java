@@ -7,12 +7,17 @@
 //=======================================================================================
 package com.axiom.valuator.math;
 
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
+
 
 /**
  * Financial Mathematics
  */
 public class FinancialMath {
 
+    public static final double MAX_LATTICE_EXPONENT = 700.0;     // exp(700) is close to Double.MAX_VALUE
+
     /**
      * Calculates compound average growth rate - CAGR (%)
      * @param beginningValue beginning value greater than zero
@@ -125,4 +130,182 @@ public class FinancialMath {
         return Math.round(coefficient * 10000) / 100.0;
     }
 
+
+    /**
+     * Calculates median of values
+     * @param values array of values
+     * @return median or NaN if array is empty
+     */
+    public static double getMedian(double[] values) {
+        return getPercentile(values, 0.5);
+    }
+
+
+    /**
+     * Calculates percentile of values with linear interpolation between closest ranks
+     * @param values array of values
+     * @param percentile percentile in range 0..1
+     * @return percentile value or NaN if array is empty
+     */
+    public static double getPercentile(double[] values, double percentile) {
+        if (values.length == 0) return Double.NaN;
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        double rank = percentile * (sorted.length - 1);
+        int lower = (int) Math.floor(rank);
+        int upper = (int) Math.ceil(rank);
+        return sorted[lower] + (sorted[upper] - sorted[lower]) * (rank - lower);
+    }
+
+
+    /**
+     * Calculates trimmed mean discarding lowest and highest values
+     * @param values array of values
+     * @param trimFraction fraction of values to discard from each side (0..0.5)
+     * @return trimmed mean or NaN if array is empty
+     */
+    public static double getTrimmedMean(double[] values, double trimFraction) {
+        if (values.length == 0) return Double.NaN;
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int trim = (int) Math.floor(sorted.length * trimFraction);
+        if (trim * 2 >= sorted.length) return getMedian(sorted);
+        double sum = 0;
+        for (int i = trim; i < sorted.length - trim; i++) sum += sorted[i];
+        return sum / (sorted.length - trim * 2);
+    }
+
+
+    /**
+     * Estimates annual volatility from 52 week high and low prices (Parkinson estimator)
+     * @param high 52 week high price
+     * @param low 52 week low price
+     * @return annual volatility or NaN if prices are not positive
+     */
+    public static double getRangeVolatility(double high, double low) {
+        if (!(high > 0 && low > 0 && high >= low)) return Double.NaN;
+        return Math.log(high / low) / Math.sqrt(4.0 * Math.log(2.0));
+    }
+
+
+    /**
+     * Values asset with real options by Cox-Ross-Rubinstein binomial lattice: at maturity asset
+     * can be kept or expanded (value scaled by 1 + expansion at fixed cost), at every node up to
+     * maturity it can be abandoned for salvage value. Early expansion is never better than
+     * holding expand option at non-negative rate (like call option without dividends), so
+     * backward induction needs no node values and runs over single primitive array:
+     * memory is O(steps), time is O(steps^2) without allocations.
+     * @param value present value of underlying asset, greater than zero
+     * @param volatility annual volatility of underlying asset value
+     * @param riskFreeRate annual risk-free rate, negative rate is taken as zero
+     * @param years time to maturity in years
+     * @param steps number of lattice steps, reduced if lattice nodes would overflow double
+     * @param expansion expansion scale (0.5 means +50% of asset value)
+     * @param expansionCost cost of expansion
+     * @param salvageValue value received on abandonment
+     * @return present value of asset with options
+     */
+    public static double getRealOptionsValue(double value, double volatility, double riskFreeRate, double years,
+                                             int steps, double expansion, double expansionCost, double salvageValue) {
+        // keep extreme nodes value * u^(+-steps) within double range
+        int maxSteps = (int) Math.min(Integer.MAX_VALUE, Math.pow(MAX_LATTICE_EXPONENT / volatility, 2) / years);
+        steps = Math.max(1, Math.min(steps, maxSteps));
+        double dt = years / steps;
+        double up = Math.exp(volatility * Math.sqrt(dt));
+        double down = 1.0 / up;
+        double growth = Math.exp(Math.log1p(Math.max(0, riskFreeRate)) * dt);
+        // risk-neutral probability, out of 0..1 only for coarse lattice with low volatility
+        double probability = Math.min(1.0, Math.max(0.0, (growth - down) / (up - down)));
+        double upWeight = probability / growth;
+        double downWeight = (1.0 - probability) / growth;
+        double scale = 1.0 + expansion;
+
+        // node j at maturity has asset value value * u^j * d^(steps-j), index 0 is the lowest node
+        double[] values = new double[steps + 1];
+        double node = value * Math.pow(down, steps);
+        double upSquared = up * up;
+        for (int j = 0; j <= steps; j++) {
+            double payoff = node;
+            double expanded = node * scale - expansionCost;
+            if (expanded > payoff) payoff = expanded;
+            if (salvageValue > payoff) payoff = salvageValue;
+            values[j] = payoff;
+            node *= upSquared;
+        }
+        // plain comparison instead of Math.max (no NaN and -0.0 handling) keeps the loop tight
+        for (int i = steps - 1; i >= 0; i--) {
+            for (int j = 0; j <= i; j++) {
+                double hold = downWeight * values[j] + upWeight * values[j + 1];
+                values[j] = salvageValue > hold ? salvageValue : hold;
+            }
+        }
+        return values[0];
+    }
+
+
+    /**
+     * Finds root of function within bracket by Brent's method: inverse quadratic
+     * interpolation and secant steps with bisection fallback, so it converges
+     * as fast as secant method on smooth functions and never leaves the bracket
+     * @param function continuous function
+     * @param low lower bound of bracket
+     * @param high upper bound of bracket
+     * @param tolerance root tolerance
+     * @param maxIterations maximum number of function evaluations
+     * @return root or NaN if function has the same sign at both bounds, is not defined
+     * at evaluated point or doesn't converge within maximum number of evaluations
+     */
+    public static double findRoot(DoubleUnaryOperator function, double low, double high,
+                                  double tolerance, int maxIterations) {
+        double a = low, b = high;
+        double fa = function.applyAsDouble(a), fb = function.applyAsDouble(b);
+        if (fa == 0) return a;
+        if (fb == 0) return b;
+        if (Double.isNaN(fa) || Double.isNaN(fb) || Math.signum(fa) == Math.signum(fb)) return Double.NaN;
+        double c = b, fc = fb, d = 0, e = 0;
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            if (Math.signum(fb) == Math.signum(fc)) {           // keep root between b and c
+                c = a; fc = fa;
+                d = e = b - a;
+            }
+            if (Math.abs(fc) < Math.abs(fb)) {                  // b is the best estimate
+                a = b; b = c; c = a;
+                fa = fb; fb = fc; fc = fa;
+            }
+            double tolerance1 = 2 * Math.ulp(1.0) * Math.abs(b) + 0.5 * tolerance;
+            double middle = 0.5 * (c - b);
+            if (Math.abs(middle) <= tolerance1 || fb == 0) return b;
+            if (Math.abs(e) >= tolerance1 && Math.abs(fa) > Math.abs(fb)) {
+                double s = fb / fa, p, q;
+                if (a == c) {                                   // secant step
+                    p = 2 * middle * s;
+                    q = 1 - s;
+                } else {                                        // inverse quadratic interpolation
+                    double r = fb / fc;
+                    q = fa / fc;
+                    p = s * (2 * middle * q * (q - r) - (b - a) * (r - 1));
+                    q = (q - 1) * (r - 1) * (s - 1);
+                }
+                if (p > 0) q = -q;
+                p = Math.abs(p);
+                if (2 * p < Math.min(3 * middle * q - Math.abs(tolerance1 * q), Math.abs(e * q))) {
+                    e = d;
+                    d = p / q;
+                } else {                                        // interpolation failed, bisect
+                    d = middle;
+                    e = d;
+                }
+            } else {
+                d = middle;
+                e = d;
+            }
+            a = b;
+            fa = fb;
+            b += Math.abs(d) > tolerance1 ? d : Math.copySign(tolerance1, middle);
+            fb = function.applyAsDouble(b);
+            if (Double.isNaN(fb)) return Double.NaN;
+        }
+        return Double.NaN;                                      // not converged
+    }
+
 }
@@ -0,0 +1,96 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Cache storage backend
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Key-value storage behind CachedData organized in named maps (countries, companies).
+ * Implementations: local MapDB file (default), in-memory and Redis-protocol server
+ * shared by several nodes. Backend is selected by "valuator.cache" system property
+ * or VALUATOR_CACHE environment variable: mapdb, memory or redis://host:port
+ */
+public interface CacheBackend {
+
+    String PROPERTY = "valuator.cache";
+    String ENVIRONMENT_VARIABLE = "VALUATOR_CACHE";
+    String MAPDB = "mapdb";
+    String MEMORY = "memory";
+    String REDIS_SCHEME = "redis://";
+
+    /**
+     * Returns value stored in map
+     * @param map map name
+     * @param key key
+     * @return value or null if there is no value
+     */
+    String get(String map, String key);
+
+    /**
+     * Stores value in map
+     * @param map map name
+     * @param key key
+     * @param value value
+     */
+    void put(String map, String key, String value);
+
+    /**
+     * Stores several values in map as one batch (single commit or round trip)
+     * @param map map name
+     * @param entries keys and values
+     */
+    default void putAll(String map, Map<String, String> entries) {
+        entries.forEach((key, value) -> put(map, key, value));
+    }
+
+    /**
+     * Checks if map contains key
+     * @param map map name
+     * @param key key
+     * @return true if map contains key
+     */
+    boolean contains(String map, String key);
+
+    /**
+     * Iterates over all map entries
+     * @param map map name
+     * @param action action applied to key and value
+     */
+    void forEach(String map, BiConsumer<String, String> action);
+
+    /**
+     * Closes backend storage or connections
+     */
+    void close();
+
+
+    /**
+     * Creates backend by configuration string
+     * @param config mapdb, memory or redis://host:port (null means mapdb)
+     * @param mapdbPath MapDB file path
+     * @return cache backend
+     */
+    static CacheBackend create(String config, String mapdbPath) {
+        if (config == null || config.isBlank() || config.equalsIgnoreCase(MAPDB)) return new MapDBCacheBackend(mapdbPath);
+        if (config.equalsIgnoreCase(MEMORY)) return new MemoryCacheBackend();
+        if (config.startsWith(REDIS_SCHEME)) return new RedisCacheBackend(config);
+        throw new IllegalArgumentException("Unknown cache backend: " + config);
+    }
+
+
+    /**
+     * Creates backend configured by system property or environment variable
+     * @param mapdbPath MapDB file path used by default
+     * @return cache backend
+     */
+    static CacheBackend fromEnvironment(String mapdbPath) {
+        return create(System.getProperty(PROPERTY, System.getenv(ENVIRONMENT_VARIABLE)), mapdbPath);
+    }
+
+}
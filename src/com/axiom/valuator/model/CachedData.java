@@ -8,12 +8,10 @@
 package com.axiom.valuator.model;
 
 import org.json.JSONObject;
-import org.mapdb.DB;
-import org.mapdb.DBMaker;
-import org.mapdb.HTreeMap;
 
 import java.time.LocalDate;
 import java.time.Period;
+import java.util.Map;
 
 
 public class CachedData {
@@ -24,34 +22,59 @@ public class CachedData {
     private static final String DB_PATH = "cache/cached_data.db";
     private static final String DB_COUNTRIES = "countries";
     private static final String DB_COMPANIES = "companies";
+    private static final String DB_COMPANY_HISTORY = "companyHistory";
+    private static final String DB_COMPANY_QUARTERS = "companyQuarters";   // ticker -> quarters of its snapshots
     public static final String COMPANY_DATE_FIELD = "LatestQuarter";
     public static final String COUNTRY_DATE_FIELD = "lastYear";
 
-    private static boolean initialized = false;
-    private static DB cacheDB;
-    private static HTreeMap<String, String> companiesCache;
-    private static HTreeMap<String, String> countriesCache;
+    private static volatile boolean initialized = false;
+    private static CacheBackend backend;
 
 
-    private static void initialize() {
-        cacheDB = DBMaker.fileDB(DB_PATH).transactionEnable().make();
-        companiesCache = (HTreeMap<String, String>) cacheDB.hashMap(DB_COMPANIES).createOrOpen();
-        countriesCache = (HTreeMap<String, String>) cacheDB.hashMap(DB_COUNTRIES).createOrOpen();
+    private static synchronized void initialize() {
+        if (initialized) return;
+        if (backend == null) backend = CacheBackend.fromEnvironment(DB_PATH);
+        backend.forEach(DB_COMPANIES, SectorMultiplesIndex::update);
+        backend.forEach(DB_COMPANY_HISTORY, (key, value) -> StockHistory.update(key));
+        backend.forEach(DB_COMPANIES, (key, value) -> {             // overviews cached before snapshots were kept
+            String quarter = StockHistory.getQuarter(new JSONObject(value));
+            if (quarter != null && StockHistory.add(key, quarter)) putSnapshot(key, quarter, value);
+        });
         initialized = true;
     }
 
 
+    /**
+     * Sets cache storage backend instead of configured one, must be called before first cache access
+     * @param cacheBackend cache backend
+     */
+    public static synchronized void setBackend(CacheBackend cacheBackend) {
+        if (initialized) throw new IllegalStateException("Cache is already initialized");
+        backend = cacheBackend;
+    }
+
+
+    /**
+     * Opens cache storage and builds sector multiples index if not done yet
+     */
+    public static void ensureInitialized() {
+        if (!initialized) initialize();
+    }
+
+
     public static boolean containsCompany(String key) {
         if (!initialized) initialize();
-        return companiesCache.containsKey(key);
+        return backend.contains(DB_COMPANIES, key);
     }
 
 
     public static String getCompany(String key) {
         if (!initialized) initialize();
-        if (!companiesCache.containsKey(key)) return null;
-
-        String jsonString = companiesCache.get(key);
+        String jsonString;
+        try (Trace.Span span = Trace.span("CachedData.getCompany")) {
+            jsonString = backend.get(DB_COMPANIES, key);
+            span.tag("hit", jsonString != null);
+        }
         if (jsonString==null) return null;
         JSONObject json = new JSONObject(jsonString);
         if (!json.has(COMPANY_DATE_FIELD)) return null;
@@ -66,24 +89,79 @@ public class CachedData {
     }
 
 
-    public static void putCompany(String key, String value) {
+    public static synchronized void putCompany(String key, String value) {
+        if (!initialized) initialize();
+        try (Trace.Span span = Trace.span("CachedData.putCompany")) {
+            backend.put(DB_COMPANIES, key, value);
+            String quarter = StockHistory.getQuarter(new JSONObject(value));
+            span.tag("quarter", quarter);
+            if (quarter != null) putSnapshot(key, quarter, value);
+        }
+        SectorMultiplesIndex.update(key, value);
+    }
+
+
+    /**
+     * Keeps stock overview received from owning node as snapshot of its quarter,
+     * overview itself stays with the owner
+     * @param key stock ticker
+     * @param value overview JSON string
+     */
+    public static synchronized void putCompanySnapshot(String key, String value) {
         if (!initialized) initialize();
-        companiesCache.put(key, value);
-        cacheDB.commit();
+        String quarter = StockHistory.getQuarter(new JSONObject(value));
+        if (quarter != null) putSnapshot(key, quarter, value);
+    }
+
+
+    /**
+     * Returns stock overview as it was cached for the latest quarter reported on or
+     * before date, snapshots never expire
+     * @param key stock ticker
+     * @param asOf point in time
+     * @return overview JSON string or null if there is no snapshot that old
+     */
+    public static String getCompanySnapshot(String key, LocalDate asOf) {
+        if (!initialized) initialize();
+        try (Trace.Span span = Trace.span("CachedData.getCompanySnapshot")) {
+            StockHistory.addAll(key, backend.get(DB_COMPANY_QUARTERS, key));     // snapshots cached by other nodes
+            String quarter = StockHistory.getQuarter(key, asOf);
+            span.tag("quarter", quarter);
+            if (quarter == null) return null;
+            return backend.get(DB_COMPANY_HISTORY, StockHistory.getKey(key, quarter));
+        }
+    }
+
+
+    /**
+     * Keeps overview as snapshot of its quarter, later overview of the same quarter replaces it.
+     * Quarters of ticker are also kept in cache, so nodes sharing cache find each other's snapshots
+     * @param key stock ticker
+     * @param quarter latest reported quarter of overview
+     * @param value overview JSON string
+     */
+    private static void putSnapshot(String key, String quarter, String value) {
+        backend.put(DB_COMPANY_HISTORY, StockHistory.getKey(key, quarter), value);
+        StockHistory.addAll(key, backend.get(DB_COMPANY_QUARTERS, key));
+        if (StockHistory.add(key, quarter) || !backend.contains(DB_COMPANY_QUARTERS, key)) {
+            backend.put(DB_COMPANY_QUARTERS, key, StockHistory.getQuarters(key));
+        }
     }
 
 
     public static boolean containsCountry(String key) {
         if (!initialized) initialize();
-        return countriesCache.containsKey(key);
+        return backend.contains(DB_COUNTRIES, key);
     }
 
 
     public static String getCountry(String key) {
         if (!initialized) initialize();
-        if (!countriesCache.containsKey(key)) return null;
-
-        String jsonString = countriesCache.get(key);
+        String jsonString;
+        try (Trace.Span span = Trace.span("CachedData.getCountry")) {
+            jsonString = backend.get(DB_COUNTRIES, key);
+            span.tag("hit", jsonString != null);
+        }
         if (jsonString==null) return null;
         JSONObject json = new JSONObject(jsonString);
         int latestYear = json.getInt(COUNTRY_DATE_FIELD);
@@ -93,14 +171,29 @@ public class CachedData {
         int monthsDifference = period.getYears() * 12 + period.getMonths();
         if (monthsDifference >= COUNTRY_DATA_EXPIRATION_PERIOD) return null;
 
-        return countriesCache.get(key);
+        return jsonString;
+    }
+
+
+    public static synchronized void putCountry(String key, String value) {
+        if (!initialized) initialize();
+        try (Trace.Span span = Trace.span("CachedData.putCountry")) {
+            span.tag("key", key);
+            backend.put(DB_COUNTRIES, key, value);
+        }
     }
 
 
-    public static void putCountry(String key, String value) {
+    /**
+     * Stores several countries in one batch commit
+     * @param entries country cache keys and values
+     */
+    public static synchronized void putCountries(Map<String, String> entries) {
         if (!initialized) initialize();
-        countriesCache.put(key, value);
-        cacheDB.commit();
+        try (Trace.Span span = Trace.span("CachedData.putCountries")) {
+            span.tag("count", entries.size());
+            backend.putAll(DB_COUNTRIES, entries);
+        }
     }
 
 }
@@ -0,0 +1,259 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Request cancellation
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Cancellation token of request: services cancel it when client disconnects,
+ * valuation pipeline checks it between stages and upstream calls abort their
+ * HTTP exchanges and backoff sleeps through cancel listeners. Token may carry
+ * request deadline: upstream calls and cache operations wait no longer than
+ * remaining time and valuation methods not finished by deadline are skipped.
+ * Current token is kept in thread local, tasks handed to other threads are
+ * wrapped to carry it. Work without token (warm-up, batch valuation) is never
+ * cancelled and has no deadline.
+ */
+public class Cancellation {
+
+    private static final ThreadLocal<Cancellation> current = new ThreadLocal<>();
+
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+    private final List<Runnable> listeners = new ArrayList<>();
+    private volatile String reason;
+    private volatile boolean hasDeadline = false;
+    private volatile long deadlineNanos;
+
+
+    /**
+     * Starts cancellable request on current thread
+     * @return request cancellation token
+     */
+    public static Cancellation begin() {
+        Cancellation token = new Cancellation();
+        current.set(token);
+        return token;
+    }
+
+
+    /**
+     * Ends cancellable request on current thread
+     */
+    public static void end() {
+        current.remove();
+    }
+
+
+    /**
+     * Returns token of current thread
+     * @return cancellation token or null if current work can't be cancelled
+     */
+    public static Cancellation current() {
+        return current.get();
+    }
+
+
+    /**
+     * Throws if current work is cancelled
+     * @throws CancellationException if current token is cancelled
+     */
+    public static void check() {
+        Cancellation token = current.get();
+        if (token != null && token.isCancelled()) throw new CancellationException(token.reason);
+    }
+
+
+    /**
+     * Returns time left to current deadline
+     * @param limitMillis wait limit used without deadline
+     * @return limit or remaining time if it is shorter, 0 if deadline is exceeded
+     */
+    public static long remainingMillis(long limitMillis) {
+        Cancellation token = current.get();
+        if (token == null || !token.hasDeadline) return limitMillis;
+        long remaining = TimeUnit.NANOSECONDS.toMillis(token.deadlineNanos - System.nanoTime());
+        return Math.max(0, Math.min(limitMillis, remaining));
+    }
+
+
+    /**
+     * Throws if current deadline is exceeded
+     * @throws DeadlineExceededException if current deadline is exceeded
+     */
+    public static void checkDeadline() {
+        if (remainingMillis(Long.MAX_VALUE) == 0) throw new DeadlineExceededException();
+    }
+
+
+    /**
+     * Sleeps unless current work is cancelled
+     * @param millis sleep time
+     * @return true if slept whole time, false if cancelled or interrupted
+     */
+    public static boolean sleep(long millis) {
+        Cancellation token = current.get();
+        try {
+            if (token == null) {
+                Thread.sleep(millis);
+                return true;
+            }
+            return !token.cancelled.await(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+
+    /**
+     * Runs task with given token as current
+     * @param token cancellation token, null if task can't be cancelled
+     * @param task task
+     */
+    public static void run(Cancellation token, Runnable task) {
+        Cancellation previous = current.get();
+        current.set(token);
+        try {
+            task.run();
+        } finally {
+            current.set(previous);
+        }
+    }
+
+
+    /**
+     * Wraps task to carry current token to another thread
+     * @param task task
+     * @return wrapped task
+     */
+    public static Runnable wrap(Runnable task) {
+        Cancellation token = current.get();
+        if (token == null) return task;
+        return () -> run(token, task);
+    }
+
+
+    /**
+     * Wraps supplier to carry current token to another thread
+     * @param task supplier
+     * @param <T> result type
+     * @return wrapped supplier
+     */
+    public static <T> Supplier<T> wrap(Supplier<T> task) {
+        Cancellation token = current.get();
+        if (token == null) return task;
+        return () -> {
+            Cancellation previous = current.get();
+            current.set(token);
+            try {
+                return task.get();
+            } finally {
+                current.set(previous);
+            }
+        };
+    }
+
+
+    /**
+     * Cancels work, runs cancel listeners once
+     * @param reason cancellation reason
+     */
+    public void cancel(String reason) {
+        List<Runnable> toRun;
+        synchronized (listeners) {
+            if (isCancelled()) return;
+            this.reason = reason;
+            cancelled.countDown();
+            toRun = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        for (Runnable listener : toRun) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                RequestLog.error("Cancel listener failed", e);
+            }
+        }
+    }
+
+
+    /**
+     * Sets deadline of work
+     * @param budgetMillis time budget from now
+     * @return this token
+     */
+    public Cancellation setDeadline(long budgetMillis) {
+        deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        hasDeadline = true;
+        return this;
+    }
+
+
+    /**
+     * Extends deadline of work shared by several requests to the latest deadline
+     * of waiting requests, removes it if some waiting request has no deadline
+     * @param waiter token of waiting request or null
+     * @param first true if it is the first waiting request
+     */
+    synchronized void shareDeadline(Cancellation waiter, boolean first) {
+        boolean waiterHasDeadline = waiter != null && waiter.hasDeadline;
+        if (first) {
+            if (waiterHasDeadline) deadlineNanos = waiter.deadlineNanos;
+            hasDeadline = waiterHasDeadline;
+        } else if (hasDeadline) {
+            if (!waiterHasDeadline) hasDeadline = false;
+            else if (waiter.deadlineNanos - deadlineNanos > 0) deadlineNanos = waiter.deadlineNanos;
+        }
+    }
+
+
+    public boolean isCancelled() {
+        return cancelled.getCount() == 0;
+    }
+
+
+    public String getReason() {
+        return reason;
+    }
+
+
+    /**
+     * Registers cancel listener, if already cancelled runs it immediately
+     * @param listener cancel listener
+     * @return action that removes listener
+     */
+    public Runnable onCancel(Runnable listener) {
+        synchronized (listeners) {
+            if (!isCancelled()) {
+                listeners.add(listener);
+                return () -> { synchronized (listeners) { listeners.remove(listener); } };
+            }
+        }
+        listener.run();
+        return () -> {};
+    }
+
+
+    /**
+     * Work was not finished within request deadline, unlike cancellation
+     * only the stage that ran out of time is skipped
+     */
+    public static class DeadlineExceededException extends CancellationException {
+        private static final long serialVersionUID = 1L;
+
+        public DeadlineExceededException() {
+            super("Deadline exceeded");
+        }
+    }
+
+}
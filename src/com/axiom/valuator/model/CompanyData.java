@@ -11,7 +11,8 @@ import com.axiom.valuator.math.FinancialMath;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.text.NumberFormat;
+import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Locale;
 
@@ -24,6 +25,10 @@ import java.util.Locale;
  */
 public class CompanyData {
 
+    public static final int MAX_COMPARABLE_STOCKS = 20;        // Maximum tickers in peer group
+    public static final String TICKERS_SEPARATOR = "[,;\\s]+";  // Peer group tickers separator
+    public static final int VALUE_COLUMN_WIDTH = 20;           // Text report value column width
+
     private final String name;                  // Company legal entity name
     private final Locale country;               // Company head office location country
     private final int dataFirstYear;            // Data beginning year
@@ -35,6 +40,10 @@ public class CompanyData {
     private double cash;                        // Cash and cash equivalents
     private double marketShare;                 // Market share
     private String comparableStock;             // Comparable stock ticker
+    private String sector;                      // Sector for sector comparables (optional)
+    private String industry;                    // Industry for sector comparables (optional)
+    private LocalDate multiplesAsOf;            // Peer multiples point in time (optional, null is latest)
+    private String peerAggregation;             // Peer multiples aggregation: median, trimmedMean (optional)
     private int ventureExitYear;                // Venture forecasted exit year
     private double ventureRate;                 // Venture interest rate
 
@@ -58,6 +67,9 @@ public class CompanyData {
         this.debtRate = 0;
         this.marketShare = 0;
         this.comparableStock = "";
+        this.sector = "";
+        this.industry = "";
+        this.peerAggregation = "";
         this.ventureExitYear = dataFirstYear;
         this.ventureRate = 0;
     }
@@ -80,7 +92,12 @@ public class CompanyData {
         this.debt = json.getDouble("debt");
         this.debtRate = json.getDouble("debtRate");
         this.marketShare = json.getDouble("marketShare");
-        this.comparableStock = json.getString("comparableStock");
+        this.comparableStock = json.optString("comparableStock", "");
+        this.sector = json.optString("sector", "");
+        this.industry = json.optString("industry", "");
+        String asOf = json.optString("multiplesAsOf", "");
+        this.multiplesAsOf = asOf.isEmpty() ? null : LocalDate.parse(asOf);
+        this.peerAggregation = json.optString("peerAggregation", "");
         this.ventureExitYear = json.getInt("ventureExitYear");
         this.ventureRate = json.getDouble("ventureRate");
     }
@@ -181,7 +198,7 @@ public class CompanyData {
 
     /**
      * Sets comparable public company stock ticker/symbol
-     * @param ticker symbol of comparable public company
+     * @param ticker symbol of comparable public company or comma separated peer group tickers
      * @return this company data object
      */
     public CompanyData setComparableStock(String ticker) {
@@ -189,6 +206,39 @@ public class CompanyData {
         return this;
     }
 
+    /**
+     * Sets sector and industry to value company against sector multiples index
+     * @param sector sector name (as in Alpha Vantage overview)
+     * @param industry industry name or empty string for the whole sector
+     * @return this company data object
+     */
+    public CompanyData setSector(String sector, String industry) {
+        this.sector = sector;
+        this.industry = industry;
+        return this;
+    }
+
+    /**
+     * Sets point in time of peer group multiples: comparable multiples use stock data
+     * snapshots of the latest quarters reported on or before this date
+     * @param asOf point in time or null for the latest stock data
+     * @return this company data object
+     */
+    public CompanyData setMultiplesAsOf(LocalDate asOf) {
+        this.multiplesAsOf = asOf;
+        return this;
+    }
+
+    /**
+     * Sets how comparable multiples of peer group are aggregated
+     * @param aggregation median or trimmedMean, empty string for default (median)
+     * @return this company data object
+     */
+    public CompanyData setPeerAggregation(String aggregation) {
+        this.peerAggregation = aggregation == null ? "" : aggregation;
+        return this;
+    }
+
     public String getName() { return name; }
     public Locale getCountry() { return country; }
     public int getDataFirstYear() { return dataFirstYear; }
@@ -202,9 +252,26 @@ public class CompanyData {
     public double getCashAndEquivalents() { return cash; }
     public double getMarketShare() { return marketShare; }
     public String getComparableStock() { return comparableStock; }
+    public String getSector() { return sector; }
+    public String getIndustry() { return industry; }
+    public LocalDate getMultiplesAsOf() { return multiplesAsOf; }
+    public String getPeerAggregation() { return peerAggregation; }
     public int getVentureExitYear() { return ventureExitYear; }
     public double getVentureRate() { return ventureRate; }
 
+    /**
+     * Returns peer group of comparable public companies tickers
+     * @return distinct tickers (up to MAX_COMPARABLE_STOCKS) listed in comparable stock field
+     */
+    public String[] getComparableStocks() {
+        if (comparableStock == null || comparableStock.isBlank()) return new String[0];
+        return Arrays.stream(comparableStock.trim().split(TICKERS_SEPARATOR))
+            .filter(ticker -> !ticker.isEmpty())
+            .distinct()
+            .limit(MAX_COMPARABLE_STOCKS)
+            .toArray(String[]::new);
+    }
+
     /**
      * Serializes this company data object to JSON
      * @return serialized JSONObject
@@ -224,6 +291,10 @@ public class CompanyData {
         map.put("cash", cash);
         map.put("marketShare", marketShare);
         map.put("comparableStock", comparableStock);
+        map.put("sector", sector);
+        map.put("industry", industry);
+        if (multiplesAsOf != null) map.put("multiplesAsOf", multiplesAsOf.toString());
+        if (!peerAggregation.isEmpty()) map.put("peerAggregation", peerAggregation);
         map.put("ventureExitYear", ventureExitYear);
         map.put("ventureRate", ventureRate);
         return new JSONObject(map);
@@ -236,19 +307,21 @@ public class CompanyData {
      * @return formatted string
      */
     private String generateStringOfValues(String header, double[] values, boolean money) {
-        NumberFormat currencyFormatter = NumberFormat.getCurrencyInstance(country);
-        currencyFormatter.setMaximumFractionDigits(0);
-        StringBuilder sbFormat = new StringBuilder(header + "\t");
-        int length = values.length;
-        Object[] valuesObj = new String[length];
-        for (int i=0; i<length; i++) {
-            sbFormat.append("| %20s ");
-            if (money)
-                valuesObj[i] = currencyFormatter.format(values[i]);
-            else valuesObj[i] = Long.toString(Math.round(values[i]));
+        MoneyFormatter currencyFormatter = MoneyFormatter.getInstance(country);
+        StringBuilder sb = new StringBuilder(header.length() + 2 + values.length * 24);
+        sb.append(header).append('\t');
+        for (double value : values) {
+            sb.append("| ");
+            int start = sb.length();
+            if (money) currencyFormatter.format(value, sb);
+            else sb.append(Math.round(value));
+            for (int padding = VALUE_COLUMN_WIDTH - (sb.length() - start); padding > 0; padding--) {
+                sb.insert(start, ' ');
+            }
+            sb.append(' ');
         }
-        sbFormat.append("\n");
-        return String.format(sbFormat.toString(), valuesObj);
+        sb.append("\n");
+        return sb.toString();
     }
 
 
@@ -258,8 +331,7 @@ public class CompanyData {
      */
     @Override
     public String toString() {
-        NumberFormat currencyFormatter = NumberFormat.getCurrencyInstance(country);
-        currencyFormatter.setMaximumFractionDigits(0);
+        MoneyFormatter currencyFormatter = MoneyFormatter.getInstance(country);
         StringBuilder sb = new StringBuilder();
 
         int revenueLen = revenue != null ? revenue.length : 0;         // Revenue array length
@@ -302,8 +374,7 @@ public class CompanyData {
     public String toHTML() {
         StringBuilder sb = new StringBuilder();
 
-        NumberFormat currencyFormatter = NumberFormat.getCurrencyInstance(country);
-        currencyFormatter.setMaximumFractionDigits(0);
+        MoneyFormatter currencyFormatter = MoneyFormatter.getInstance(country);
 
         int revenueLen = revenue != null ? revenue.length : 0;         // Revenue array length
         int ebitdaLen = ebitda != null ? ebitda.length : 0;            // EBITDA array length
@@ -324,7 +395,7 @@ public class CompanyData {
         sb.append("<tr>").append("<td class=\"text-start\">Revenue</td>");
         for (int i=0; i<len; i++) {
             sb.append("<td class=\"text-end\">");
-            sb.append((i<revenueLen) ? currencyFormatter.format(revenue[i]) : 0);
+            if (i<revenueLen) currencyFormatter.format(revenue[i], sb); else sb.append(0);
             sb.append("</td>");
         }
         sb.append("<tr>");
@@ -332,7 +403,7 @@ public class CompanyData {
         sb.append("<tr>").append("<td class=\"text-start\">EBITDA</td>");
         for (int i=0; i<len; i++) {
             sb.append("<td class=\"text-end\">");
-            sb.append((i<ebitdaLen) ? currencyFormatter.format(ebitda[i]) : 0);
+            if (i<ebitdaLen) currencyFormatter.format(ebitda[i], sb); else sb.append(0);
             sb.append("</td>");
         }
         sb.append("<tr>");
@@ -340,7 +411,7 @@ public class CompanyData {
         sb.append("<tr>").append("<td class=\"text-start\">Cash Flow</td>");
         for (int i=0; i<len; i++) {
             sb.append("<td class=\"text-end\">");
-            sb.append((i<fcfLen) ? currencyFormatter.format(freeCashFlow[i]) : 0);
+            if (i<fcfLen) currencyFormatter.format(freeCashFlow[i], sb); else sb.append(0);
             sb.append("</td>");
         }
         sb.append("<tr>");
@@ -352,21 +423,24 @@ public class CompanyData {
 
         sb.append("<tr style=\"height: 30px;\">");
         sb.append("<td class=\"text-start\">").append("Equity Invested").append("</td>");
-        sb.append("<td class=\"text-end\">").append(currencyFormatter.format(equity)).append("</td>");
+        sb.append("<td class=\"text-end\">");
+        currencyFormatter.format(equity, sb).append("</td>");
         sb.append("<td class=\"text-start\">").append("Equity Rate").append("</td>");
         sb.append("<td class=\"text-end\">").append(FinancialMath.toPercent(equityRate)).append("%</td>");
         sb.append("</tr>");
 
         sb.append("<tr>");
         sb.append("<td class=\"text-start\">").append("Debt Borrowed").append("</td>");
-        sb.append("<td class=\"text-end\">").append(currencyFormatter.format(debt)).append("</td>");
+        sb.append("<td class=\"text-end\">");
+        currencyFormatter.format(debt, sb).append("</td>");
         sb.append("<td class=\"text-start\">").append("Debt Rate").append("</td>");
         sb.append("<td class=\"text-end\">").append(FinancialMath.toPercent(debtRate)).append("%</td>");
         sb.append("</tr>");
 
         sb.append("<tr>");
         sb.append("<td class=\"text-start\">").append("Cash & Equivalents").append("</td>");
-        sb.append("<td class=\"text-end\">").append(currencyFormatter.format(cash)).append("</td>");
+        sb.append("<td class=\"text-end\">");
+        currencyFormatter.format(cash, sb).append("</td>");
         sb.append("<td class=\"text-start\">").append("Market Share").append("</td>");
         sb.append("<td class=\"text-end\">").append(FinancialMath.toPercent(marketShare)).append("%</td>");
         sb.append("</tr>");
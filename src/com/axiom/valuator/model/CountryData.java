@@ -11,18 +11,17 @@ import com.axiom.valuator.math.FinancialMath;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.text.NumberFormat;
 import java.time.Year;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.axiom.valuator.math.FinancialMath.toPercent;
-import static java.net.HttpURLConnection.HTTP_OK;
-import static java.net.http.HttpClient.newHttpClient;
 
 /**
  * Fetches and stores country GDP values by years, GDP growth (%),
@@ -43,14 +42,24 @@ public class CountryData {
     public static final int MINIMUM_YEARS_OF_HISTORY = 3;           // Minimum years of history
     public static final int DEFAULT_YEARS_OF_HISTORY = 5;           // Default years of history
     public static final int MAXIMUM_YEARS_OF_HISTORY = 10;          // Maximum years of history
+    public static final long FALLBACK_DEADLINE_MS = 2000;           // World Bank wait before fallback
 
     //-----------------------------------------------------------------------------------------------------
     public static final String ERROR_WRONG_URL = "Can't fetch data from ";
     public static final String ERROR_WRONG_LOCALE = "Locale can not be null";
+    public static final String ERROR_NO_FALLBACK = "World Bank is not available and no fallback data for ";
+
+    //-----------------------------------------------------------------------------------------------------
+    private static final ExecutorService worldBankFetcher = Executors.newFixedThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "world-bank-fetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final SingleFlight<JSONObject> pendingFetches = new SingleFlight<>(worldBankFetcher);
 
     //-----------------------------------------------------------------------------------------------------
     private String WB_API;                             // Tailored World Bank API URL for specific country
-    private final NumberFormat currencyFormatter;     // Currency formatter
+    private final MoneyFormatter currencyFormatter;   // Currency formatter (shared, thread-safe)
 
     private Locale country;                           // Country, currency and language
     private int yearsOfHistory;                       // How many years of GDP & Inflation values to store
@@ -63,6 +72,8 @@ public class CountryData {
     private double corporateTax;                      // Corporate Tax Level
     private double interestRate;                      // Central Bank Interest Rate
     private double marketReturnRate;                  // Average Market Return Rate
+    private boolean fallback;                         // GDP and inflation are from offline snapshot
+    private boolean worldAverage;                     // Fallback is world average, country is not in snapshot
 
     //-----------------------------------------------------------------------------------------------------
 
@@ -80,38 +91,41 @@ public class CountryData {
         else if (howManyYears > MAXIMUM_YEARS_OF_HISTORY) howManyYears = MAXIMUM_YEARS_OF_HISTORY;
 
         String countryCode = countryLocale.getCountry();
-        boolean alreadyCached = false;
+        String cacheKey = countryCode + ":" + howManyYears;
 
-        // Check cache
-        if (CachedData.containsCountry(countryCode)) {
-            String cachedString = CachedData.getCountry(countryCode);
+        // Check local macro data store first, then cache
+        boolean alreadyCached = loadFromStore(MacroDataStore.getDefault(), countryLocale, howManyYears);
+        if (alreadyCached) Trace.tag("source", "store");
+        if (!alreadyCached && CachedData.containsCountry(cacheKey)) {
+            String cachedString = CachedData.getCountry(cacheKey);
             if (cachedString != null) {
                 JSONObject obj = new JSONObject(cachedString);
                 fromJSON(obj);
                 alreadyCached = true;
+                Trace.tag("source", "cache");
+            }
+        }
+
+        // Check value replicated from owning node (multi-node deployment)
+        if (!alreadyCached) {
+            String replica = PeerCache.getReplica(PeerCache.COUNTRIES, cacheKey);
+            if (replica != null) {
+                fromJSON(new JSONObject(replica));
+                alreadyCached = true;
+                Trace.tag("source", "peer");
             }
         }
 
+        // Fetch from owning node or World Bank, fall back to offline snapshot if it is slow or down
         if (!alreadyCached) {
-            country = countryLocale;
-            yearsOfHistory = howManyYears;
-            WB_API = WB_URL.replace("{CODE}", country.getCountry());
-            lastYear = Year.now().getValue() - 1;
-            firstYear = lastYear - (yearsOfHistory - 1);
-            gdpValues = new double[yearsOfHistory];
-            inflationValues = new double[yearsOfHistory];
-            averageGDPGrowthRate = fetchRealGDPData(firstYear, lastYear, gdpValues);
-            averageInflationRate = fetchInflationData(firstYear, lastYear, inflationValues);
-            corporateTax = fetchCorporateTaxRate(country);
-            interestRate = fetchCentralBankInterestRate(country);
-            marketReturnRate = fetchMarketReturnRate(country);
-            JSONObject obj = toJSONObject();
-            CachedData.putCountry(countryCode, obj.toString());
+            JSONObject fetched = fetchWithDeadline(countryLocale, howManyYears, cacheKey);
+            if (fetched != null) fromJSON(fetched);
+            else loadFallback(countryLocale, howManyYears);
+            Trace.tag("source", fetched != null ? "worldbank" : "fallback");
         }
 
         // initialize currency formatter
-        currencyFormatter = NumberFormat.getCurrencyInstance(country);
-        currencyFormatter.setMaximumFractionDigits(0);
+        currencyFormatter = MoneyFormatter.getInstance(country);
     }
 
 
@@ -124,6 +138,170 @@ public class CountryData {
     }
 
 
+    /**
+     * Constructor that fetches GDP and inflation data from World Bank API
+     * (runs on background fetcher thread, result is cached)
+     * @param countryLocale country
+     * @param howManyYears how many years of history to load
+     * @param worldBankAPI World Bank API URL of the country
+     */
+    private CountryData(Locale countryLocale, int howManyYears, String worldBankAPI) {
+        country = countryLocale;
+        yearsOfHistory = howManyYears;
+        WB_API = worldBankAPI;
+        lastYear = Year.now().getValue() - 1;
+        firstYear = lastYear - (yearsOfHistory - 1);
+        gdpValues = new double[yearsOfHistory];
+        inflationValues = new double[yearsOfHistory];
+        averageGDPGrowthRate = fetchRealGDPData(firstYear, lastYear, gdpValues);
+        averageInflationRate = fetchInflationData(firstYear, lastYear, inflationValues);
+        corporateTax = fetchCorporateTaxRate(country);
+        interestRate = fetchCentralBankInterestRate(country);
+        marketReturnRate = fetchMarketReturnRate(country);
+        currencyFormatter = MoneyFormatter.getInstance(country);
+    }
+
+
+    /**
+     * Constructor from World Bank series, doesn't touch cache or network
+     * @param countryLocale country
+     * @param latestYear last year of window
+     * @param gdp GDP values by years (NaN if missing)
+     * @param inflation inflation values by years in percent (NaN if missing)
+     */
+    private CountryData(Locale countryLocale, int latestYear, double[] gdp, double[] inflation) {
+        setSeries(countryLocale, latestYear, gdp, inflation);
+        currencyFormatter = MoneyFormatter.getInstance(country);
+    }
+
+
+    /**
+     * Copy constructor used for what-if scenarios, doesn't touch cache or network
+     * @param source country data to copy
+     */
+    private CountryData(CountryData source) {
+        WB_API = source.WB_API;
+        country = source.country;
+        yearsOfHistory = source.yearsOfHistory;
+        firstYear = source.firstYear;
+        lastYear = source.lastYear;
+        gdpValues = source.gdpValues;
+        inflationValues = source.inflationValues;
+        averageGDPGrowthRate = source.averageGDPGrowthRate;
+        averageInflationRate = source.averageInflationRate;
+        corporateTax = source.corporateTax;
+        interestRate = source.interestRate;
+        marketReturnRate = source.marketReturnRate;
+        fallback = source.fallback;
+        worldAverage = source.worldAverage;
+        currencyFormatter = MoneyFormatter.getInstance(country);
+    }
+
+
+    /**
+     * Returns copy of country data with different average GDP growth rate
+     * @param growthRate average GDP growth rate
+     * @return country data copy
+     */
+    public CountryData withAverageGDPGrowthRate(double growthRate) {
+        CountryData copy = new CountryData(this);
+        copy.averageGDPGrowthRate = growthRate;
+        return copy;
+    }
+
+
+    /**
+     * Checks if country data can be loaded without World Bank requests
+     * @param countryLocale country
+     * @param howManyYears how many years of history to load
+     * @return true if country is in macro data store, in cache and not expired or replicated from owner
+     */
+    public static boolean isAvailableLocally(Locale countryLocale, int howManyYears) {
+        if (countryLocale == null) return false;
+        if (howManyYears < MINIMUM_YEARS_OF_HISTORY) howManyYears = MINIMUM_YEARS_OF_HISTORY;
+        else if (howManyYears > MAXIMUM_YEARS_OF_HISTORY) howManyYears = MAXIMUM_YEARS_OF_HISTORY;
+        MacroDataStore store = MacroDataStore.getDefault();
+        if (store != null && store.getLatestYear(WB_REAL_GDP, countryLocale.getISO3Country(),
+            Year.now().getValue() - 1) >= 0) return true;
+        String cacheKey = countryLocale.getCountry() + ":" + howManyYears;
+        return CachedData.getCountry(cacheKey) != null || PeerCache.getReplica(PeerCache.COUNTRIES, cacheKey) != null;
+    }
+
+
+    /**
+     * Fetches country data from World Bank on background thread and waits for it
+     * no longer than FALLBACK_DEADLINE_MS or request deadline. Concurrent requests
+     * of the same country share one fetch, late result is still cached for the next
+     * requests. In multi-node deployment country owned by other node is asked from
+     * the owner first, World Bank is requested if owner is down or has no data.
+     * If request is cancelled it stops waiting, fetch is cancelled when no other
+     * request waits for it.
+     * @param countryLocale country
+     * @param howManyYears how many years of history to load
+     * @param cacheKey country cache key
+     * @return country data JSON or null if World Bank failed or is too slow
+     * @throws java.util.concurrent.CancellationException if request is cancelled
+     */
+    private static JSONObject fetchWithDeadline(Locale countryLocale, int howManyYears, String cacheKey) {
+        if (UpstreamClient.isOffline()) return null;
+        CompletableFuture<JSONObject> fetch = pendingFetches.join(cacheKey, Trace.wrap(() -> {
+            String peerEntry = PeerCache.get(PeerCache.COUNTRIES, cacheKey);
+            if (peerEntry != null) return new JSONObject(peerEntry);
+            try (Trace.Span span = Trace.span("WorldBank fetch")) {
+                span.tag("key", cacheKey);
+                String worldBankAPI = WB_URL.replace("{CODE}", countryLocale.getCountry());
+                JSONObject obj = new CountryData(countryLocale, howManyYears, worldBankAPI).toJSONObject();
+                CachedData.putCountry(cacheKey, obj.toString());
+                return obj;
+            }
+        }));
+        try {
+            return fetch.get(Cancellation.remainingMillis(FALLBACK_DEADLINE_MS), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            RequestLog.warn("World Bank is slow, using fallback data for " + cacheKey);
+            return null;
+        } catch (ExecutionException e) {
+            RequestLog.warn("World Bank failed, using fallback data for " + cacheKey + ": " + e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+
+    /**
+     * Loads average GDP growth and inflation from bundled offline snapshot,
+     * yearly values are reconstructed from averages (GDP as index, base 100)
+     * @param countryLocale country
+     * @param howManyYears how many years of history to load
+     */
+    private void loadFallback(Locale countryLocale, int howManyYears) {
+        MacroFallbackData.Entry entry = MacroFallbackData.get(countryLocale);
+        if (entry == null) throw new IllegalArgumentException(ERROR_NO_FALLBACK + countryLocale.getCountry());
+        country = countryLocale;
+        yearsOfHistory = howManyYears;
+        WB_API = WB_URL.replace("{CODE}", country.getCountry());
+        lastYear = entry.lastYear;
+        firstYear = lastYear - (yearsOfHistory - 1);
+        gdpValues = new double[yearsOfHistory];
+        inflationValues = new double[yearsOfHistory];
+        for (int i = 0; i < yearsOfHistory; i++) {
+            gdpValues[i] = 100.0 * Math.pow(1.0 + entry.gdpGrowth, i);
+            inflationValues[i] = entry.inflation;
+        }
+        averageGDPGrowthRate = entry.gdpGrowth;
+        averageInflationRate = entry.inflation;
+        corporateTax = fetchCorporateTaxRate(country);
+        interestRate = fetchCentralBankInterestRate(country);
+        marketReturnRate = fetchMarketReturnRate(country);
+        fallback = true;
+        worldAverage = entry.iso3.equals(MacroFallbackData.WORLD_CODE)
+            && !countryLocale.getISO3Country().equals(MacroFallbackData.WORLD_CODE);
+        if (worldAverage) RequestLog.warn("No fallback data for " + countryLocale.getCountry() + ", using world average");
+    }
+
+
     /**
      * Fetches GDP data from World Bank for YEARS_OF_HISTORY period
      * @param firstYear first year to fetch data
@@ -148,10 +326,83 @@ public class CountryData {
             double value = gdpEntry.isNull(WB_VALUE_FIELD) ? 0.0d : gdpEntry.getDouble(WB_VALUE_FIELD);
             values[index] = value;
         }
+        return getGrowthRate(values);
+    }
+
+
+    /**
+     * Slices GDP and inflation window from local macro data store without network calls
+     * @param store macro data store or null if not available
+     * @param countryLocale country
+     * @param howManyYears how many years of history to load
+     * @return true if data is loaded from store, false if country is not in store
+     */
+    private boolean loadFromStore(MacroDataStore store, Locale countryLocale, int howManyYears) {
+        if (store == null) return false;
+        String iso3 = countryLocale.getISO3Country();
+        int latestYear = store.getLatestYear(WB_REAL_GDP, iso3, Year.now().getValue() - 1);
+        if (latestYear < 0) return false;
+
+        int fromYear = latestYear - (howManyYears - 1);
+        double[] gdp = new double[howManyYears];
+        double[] inflation = new double[howManyYears];
+        if (!store.slice(WB_REAL_GDP, iso3, fromYear, gdp)) return false;
+        if (!store.slice(WB_INFLATION, iso3, fromYear, inflation)) return false;
+        setSeries(countryLocale, latestYear, gdp, inflation);
+        return true;
+    }
+
+
+    /**
+     * Sets GDP and inflation window from World Bank series, rates from static data
+     * @param countryLocale country
+     * @param latestYear last year of window
+     * @param gdp GDP values by years (NaN if missing)
+     * @param inflation inflation values by years in percent (NaN if missing)
+     */
+    private void setSeries(Locale countryLocale, int latestYear, double[] gdp, double[] inflation) {
+        for (int i = 0; i < gdp.length; i++) {
+            if (Double.isNaN(gdp[i])) gdp[i] = 0.0d;
+            inflation[i] = Double.isNaN(inflation[i]) ? 0.0d : inflation[i] / 100.0;
+        }
+        country = countryLocale;
+        yearsOfHistory = gdp.length;
+        WB_API = WB_URL.replace("{CODE}", country.getCountry());
+        lastYear = latestYear;
+        firstYear = latestYear - (yearsOfHistory - 1);
+        gdpValues = gdp;
+        inflationValues = inflation;
+        averageGDPGrowthRate = getGrowthRate(gdpValues);
+        averageInflationRate = getValuesAverage(inflationValues);
+        corporateTax = fetchCorporateTaxRate(country);
+        interestRate = fetchCentralBankInterestRate(country);
+        marketReturnRate = fetchMarketReturnRate(country);
+    }
+
+
+    /**
+     * Builds country cache entry from World Bank series without network calls
+     * (used by bulk refresh of all countries)
+     * @param countryLocale country
+     * @param latestYear last year of window
+     * @param gdp GDP values by years (NaN if missing)
+     * @param inflation inflation values by years in percent (NaN if missing)
+     * @return country data JSON string as stored in cache
+     */
+    static String toCacheEntry(Locale countryLocale, int latestYear, double[] gdp, double[] inflation) {
+        return new CountryData(countryLocale, latestYear, gdp, inflation).toJSONObject().toString();
+    }
+
+
+    /**
+     * Calculates compound growth rate between first and last values
+     * @param values array of values by years
+     * @return compound average growth rate
+     */
+    private double getGrowthRate(double[] values) {
         int periods = values.length - 1;
         double startValue = values[0];
         double endValue = values[periods];
-
         return FinancialMath.getCAGR(startValue, endValue, periods);
     }
 
@@ -254,6 +505,8 @@ public class CountryData {
     public double getCorporateTax() { return corporateTax; }
     public double getRiskFreeRate() { return interestRate; }
     public double getMarketReturn() { return marketReturnRate; }
+    public boolean isFallback() { return fallback; }
+    public boolean isWorldAverage() { return worldAverage; }
 
 
     /**
@@ -272,24 +525,13 @@ public class CountryData {
 
 
     /**
-     * Sends HTTP request
+     * Sends HTTP request through World Bank upstream client
+     * (timeouts, retries, hedging and circuit breaker)
      * @param URL required URL
-     * @return response body
+     * @return response body or null if request failed
      */
     private String sendRequest(String URL) {
-        HttpClient client = newHttpClient();
-        HttpRequest request = HttpRequest.newBuilder()
-            .uri(URI.create(URL))
-            .GET().build();
-        try {
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            int statusCode = response.statusCode();
-            if (statusCode != HTTP_OK) throw new IOException("Status code " + statusCode + " for URL=" + URL);
-            return response.body();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+        return UpstreamClient.WORLD_BANK.get(URL);
     }
 
 
@@ -302,6 +544,17 @@ public class CountryData {
         return currencyFormatter.format(moneyValue);
     }
 
+
+    /**
+     * Appends double value in locale currency format to the buffer
+     * @param moneyValue money value
+     * @param buffer output buffer
+     * @return output buffer
+     */
+    public StringBuilder formatMoney(double moneyValue, StringBuilder buffer) {
+        return currencyFormatter.format(moneyValue, buffer);
+    }
+
     @Override
     public String toString() {
         Locale region = CountryData.getCountryByCode("US");
@@ -325,14 +578,14 @@ public class CountryData {
     }
 
 
-    private JSONObject toJSONObject() {
+    public JSONObject toJSONObject() {
         return new JSONObject()
             .put("country", country.getCountry())
             .put("yearsOfHistory", yearsOfHistory)
             .put("firstYear", firstYear)
             .put("lastYear", lastYear)
-            .put("gdpValues", gdpValues)
-            .put("inflationValues", inflationValues)
+            .put("gdpValues", new JSONArray(gdpValues))
+            .put("inflationValues", new JSONArray(inflationValues))
             .put("averageGDPGrowthRate", averageGDPGrowthRate)
             .put("averageInflationRate", averageInflationRate)
             .put("corporateTax", corporateTax)
@@ -0,0 +1,284 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Bulk country data refresh
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Year;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps country cache of all countries warm in a handful of World Bank requests:
+ * each indicator is fetched for all countries at once (country/all) in large pages,
+ * pages after the first one are fetched concurrently and parsed row by row as they
+ * arrive. Cache entries of all countries are written in one batch commit, nothing
+ * is written if any page failed. Runs at server start and then periodically
+ * ("valuator.countryRefresh.hours", 0 disables), or standalone:
+ * java com.axiom.valuator.model.CountryDataRefresh
+ */
+public class CountryDataRefresh {
+
+    public static final String WB_ALL_URL = CountryData.WB_URL.replace("{CODE}", "all");
+    public static final String WB_PER_PAGE = "&per_page=";          // Page size argument
+    public static final String WB_PAGE = "&page=";                  // Page number argument
+    public static final String WB_PAGES_FIELD = "pages";            // Number of pages in response header
+    public static final String WB_COUNTRY_FIELD = "country";        // Row country object (id is ISO Alpha-2)
+    public static final int PAGE_SIZE = 2000;                       // Rows per page (~270 economies by year)
+    public static final int PAGE_FETCH_THREADS = 4;
+    public static final String INTERVAL_PROPERTY = "valuator.countryRefresh.hours";
+    public static final long INTERVAL_HOURS = Long.getLong(INTERVAL_PROPERTY, 24);
+
+    public static final String ERROR_WORLD_BANK = "World Bank error response: ";
+
+    private static final ExecutorService pageFetcher = Executors.newFixedThreadPool(PAGE_FETCH_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "world-bank-bulk-fetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static volatile ScheduledExecutorService scheduler;
+
+
+    /**
+     * Refreshes default history window of all countries
+     * @return number of countries written to cache, 0 if World Bank failed
+     */
+    public static int run() {
+        return refresh(CountryData.DEFAULT_YEARS_OF_HISTORY);
+    }
+
+
+    /**
+     * Fetches GDP and inflation of all countries and writes their cache entries in one batch.
+     * Window ends at the latest year having GDP value, one year earlier if last year
+     * is not yet published for the country (same as macro data store)
+     * @param howManyYears how many years of history to store
+     * @return number of countries written to cache, 0 if World Bank failed
+     */
+    public static int refresh(int howManyYears) {
+        if (UpstreamClient.isOffline()) return 0;
+        howManyYears = Math.max(CountryData.MINIMUM_YEARS_OF_HISTORY, Math.min(CountryData.MAXIMUM_YEARS_OF_HISTORY, howManyYears));
+        int lastYear = Year.now().getValue() - 1;
+        int fromYear = lastYear - howManyYears;
+        int years = howManyYears + 1;
+
+        CompletableFuture<Map<String, double[]>> gdpFetch = fetchIndicator(CountryData.WB_REAL_GDP, fromYear, years);
+        CompletableFuture<Map<String, double[]>> inflationFetch = fetchIndicator(CountryData.WB_INFLATION, fromYear, years);
+        Map<String, double[]> gdp = gdpFetch.join();
+        Map<String, double[]> inflation = inflationFetch.join();
+        if (gdp == null || inflation == null) return 0;
+
+        Map<String, Locale> countries = getCountryLocales();
+        Map<String, String> entries = new HashMap<>();
+        for (Map.Entry<String, double[]> series : gdp.entrySet()) {
+            Locale country = countries.get(series.getKey());
+            if (country == null) continue;                      // aggregate (region, income group)
+            double[] gdpValues = series.getValue();
+            int offset = Double.isNaN(gdpValues[years - 1]) ? 0 : 1;
+            if (Double.isNaN(gdpValues[offset + howManyYears - 1])) continue;
+            double[] inflationValues = inflation.get(series.getKey());
+            double[] inflationWindow = new double[howManyYears];
+            if (inflationValues == null) Arrays.fill(inflationWindow, Double.NaN);
+            else System.arraycopy(inflationValues, offset, inflationWindow, 0, howManyYears);
+            String entry = CountryData.toCacheEntry(country, fromYear + offset + howManyYears - 1,
+                Arrays.copyOfRange(gdpValues, offset, offset + howManyYears), inflationWindow);
+            entries.put(series.getKey() + ":" + howManyYears, entry);
+        }
+        CachedData.putCountries(entries);
+        return entries.size();
+    }
+
+
+    /**
+     * Starts periodic refresh on background thread, first run is immediate
+     */
+    public static synchronized void schedule() {
+        if (scheduler != null || INTERVAL_HOURS <= 0) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "country-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if (run() == 0 && !UpstreamClient.isOffline()) RequestLog.warn("Country data refresh failed");
+            } catch (RuntimeException e) {
+                RequestLog.error("Country data refresh failed", e);
+            }
+        }, 0, INTERVAL_HOURS, TimeUnit.HOURS);
+    }
+
+
+    /**
+     * Fetches indicator of all countries: first page tells number of pages,
+     * the rest are fetched concurrently
+     * @param indicator World Bank indicator code
+     * @param fromYear first year
+     * @param years number of years
+     * @return future of values by ISO Alpha-2 code and year (NaN if missing), null if some page failed
+     */
+    private static CompletableFuture<Map<String, double[]>> fetchIndicator(String indicator, int fromYear, int years) {
+        return CompletableFuture.supplyAsync(() -> fetchPage(indicator, fromYear, years, 1), pageFetcher)
+            .thenCompose(first -> {
+                if (first == null) return CompletableFuture.completedFuture(null);
+                List<CompletableFuture<Page>> pages = new ArrayList<>();
+                pages.add(CompletableFuture.completedFuture(first));
+                for (int page = 2; page <= first.pages; page++) {
+                    int number = page;
+                    pages.add(CompletableFuture.supplyAsync(() -> fetchPage(indicator, fromYear, years, number), pageFetcher));
+                }
+                return CompletableFuture.allOf(pages.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+                    Map<String, double[]> values = new HashMap<>();
+                    for (CompletableFuture<Page> page : pages) {
+                        Page result = page.join();
+                        if (result == null) return null;
+                        result.mergeInto(values);
+                    }
+                    return values;
+                });
+            })
+            .exceptionally(error -> {
+                RequestLog.error("World Bank bulk fetch failed: " + indicator,
+                    error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                return null;
+            });
+    }
+
+
+    private static Page fetchPage(String indicator, int fromYear, int years, int page) {
+        String url = WB_ALL_URL + indicator + CountryData.WB_YEARS_RANGE + fromYear + ":" + (fromYear + years - 1)
+            + CountryData.WB_FORMAT + WB_PER_PAGE + PAGE_SIZE + WB_PAGE + page;
+        return UpstreamClient.WORLD_BANK.get(url, body -> parsePage(body, fromYear, years));
+    }
+
+
+    /**
+     * Parses World Bank response [{header}, [{row}, ...]] one row at a time
+     * @param body response body stream
+     * @param fromYear first year
+     * @param years number of years
+     * @return page values
+     * @throws IOException if response is malformed or is World Bank error message
+     */
+    private static Page parsePage(InputStream body, int fromYear, int years) throws IOException {
+        try {
+            JSONTokener tokener = new JSONTokener(new InputStreamReader(body, StandardCharsets.UTF_8));
+            if (tokener.nextClean() != '[') throw tokener.syntaxError("Array expected");
+            Object header = tokener.nextValue();
+            if (!(header instanceof JSONObject) || !((JSONObject) header).has(WB_PAGES_FIELD)) {
+                throw new IOException(ERROR_WORLD_BANK + header);
+            }
+            Page page = new Page(((JSONObject) header).getInt(WB_PAGES_FIELD), fromYear, years);
+            if (tokener.nextClean() != ',' || tokener.nextClean() != '[') return page;   // no rows (null)
+            char next = tokener.nextClean();
+            if (next == ']') return page;
+            tokener.back();
+            do {
+                Object row = tokener.nextValue();
+                if (row instanceof JSONObject) page.add((JSONObject) row);
+                next = tokener.nextClean();
+            } while (next == ',');
+            if (next != ']') throw tokener.syntaxError("Expected , or ]");
+            return page;
+        } catch (JSONException | NumberFormatException e) {
+            throw new IOException("Malformed World Bank response", e);
+        }
+    }
+
+
+    /**
+     * Returns locales by ISO Alpha-2 country code (first available locale of country,
+     * same as CountryData.getCountryByCode), obsolete codes without ISO3 code are skipped
+     * @return locales by country code
+     */
+    private static Map<String, Locale> getCountryLocales() {
+        Map<String, Locale> locales = new HashMap<>();
+        for (Locale locale : Locale.getAvailableLocales()) {
+            if (locale.getCountry().length() != 2 || locales.containsKey(locale.getCountry())) continue;
+            try {
+                locale.getISO3Country();
+                locales.put(locale.getCountry(), locale);
+            } catch (MissingResourceException e) {
+                locales.put(locale.getCountry(), null);
+            }
+        }
+        return locales;
+    }
+
+
+    /**
+     * Indicator values of one response page
+     */
+    private static class Page {
+        final int pages;
+        final int fromYear;
+        final int years;
+        final Map<String, double[]> values = new HashMap<>();
+
+        Page(int pages, int fromYear, int years) {
+            this.pages = pages;
+            this.fromYear = fromYear;
+            this.years = years;
+        }
+
+        void add(JSONObject row) {
+            JSONObject country = row.optJSONObject(WB_COUNTRY_FIELD);
+            if (country == null || row.isNull(CountryData.WB_VALUE_FIELD)) return;
+            int index = Integer.parseInt(row.getString(CountryData.WB_DATE_FIELD)) - fromYear;
+            if (index < 0 || index >= years) return;
+            values.computeIfAbsent(country.getString("id"), code -> {
+                double[] series = new double[years];
+                Arrays.fill(series, Double.NaN);
+                return series;
+            })[index] = row.getDouble(CountryData.WB_VALUE_FIELD);
+        }
+
+        void mergeInto(Map<String, double[]> target) {
+            for (Map.Entry<String, double[]> series : values.entrySet()) {
+                double[] merged = target.putIfAbsent(series.getKey(), series.getValue());
+                if (merged == null) continue;
+                for (int i = 0; i < years; i++) {
+                    if (!Double.isNaN(series.getValue()[i])) merged[i] = series.getValue()[i];
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Standalone refresh entry point
+     * @param args optional number of years of history
+     */
+    public static void main(String[] args) {
+        int howManyYears = args.length > 0 ? Integer.parseInt(args[0]) : CountryData.DEFAULT_YEARS_OF_HISTORY;
+        long startTime = System.nanoTime();
+        int count = refresh(howManyYears);
+        System.out.println("Country data refreshed: " + count + " countries in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+        System.exit(count > 0 ? 0 : 1);
+    }
+
+}
@@ -0,0 +1,60 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Exit year sweep results
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Valuations of company for every candidate exit year of forecast
+ */
+public class ExitYearSweep {
+
+    public final int[] years;                      // Candidate exit years
+    public final double[] ebitdaValues;            // EBITDA multiple valuations
+    public final double[] multiplesValues;         // Comparable multiples valuations
+    public final double[] dcfValues;               // Discounted cash flow valuations
+    public final double[] realOptionsValues;       // Real options valuations of venture-stage years, NaN otherwise
+    public final double[] exitValues;              // Blended exit values
+    public final double[] presentValues;           // Present values of blended exit values
+
+    ExitYearSweep(int[] years, double[] ebitdaValues, double[] multiplesValues,
+                  double[] dcfValues, double[] realOptionsValues, double[] exitValues, double[] presentValues) {
+        this.years = years;
+        this.ebitdaValues = ebitdaValues;
+        this.multiplesValues = multiplesValues;
+        this.dcfValues = dcfValues;
+        this.realOptionsValues = realOptionsValues;
+        this.exitValues = exitValues;
+        this.presentValues = presentValues;
+    }
+
+
+    /**
+     * Serializes sweep to JSON, non-finite values are written as null
+     * @return serialized JSONObject
+     */
+    public JSONObject toJson() {
+        return new JSONObject()
+            .put("years", new JSONArray(years))
+            .put("ebitda", toJSONArray(ebitdaValues))
+            .put("multiples", toJSONArray(multiplesValues))
+            .put("dcf", toJSONArray(dcfValues))
+            .put("realOptions", toJSONArray(realOptionsValues))
+            .put("exitValues", toJSONArray(exitValues))
+            .put("presentValues", toJSONArray(presentValues));
+    }
+
+
+    private static JSONArray toJSONArray(double[] values) {
+        JSONArray array = new JSONArray();
+        for (double value : values) array.put(Double.isFinite(value) ? value : JSONObject.NULL);
+        return array;
+    }
+
+}
@@ -0,0 +1,347 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Goal seek
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import com.axiom.valuator.math.FinancialMath;
+import org.json.JSONObject;
+
+import java.time.Year;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Solves for value of one input that makes blended exit value or present value equal
+ * to target. Continuous inputs are solved by scan of input domain for sign change
+ * brackets (valuation may be discontinuous, e.g. where WACC meets GDP growth and DCF
+ * drops out of blended value) and bracketed root finder (Brent's method) in bracket
+ * nearest to base input, exit year by scan of forecast years. Every evaluation runs
+ * scenario engine sharing pre-fetched country and peers data of the base engine,
+ * so solving takes milliseconds and makes no network calls.
+ */
+public class GoalSeek {
+
+    public static final double INPUT_TOLERANCE = 1e-6;
+    public static final int MAX_ITERATIONS = 100;
+    public static final int SCAN_STEPS = 32;
+    public static final double VALUE_TOLERANCE = 1e-4;     // relative to target value
+
+    /**
+     * Free input: growth adjusts revenue, EBITDA and FCF of forecast years (current year
+     * and later) by (1 + growth)^n, n counted from first forecast year, actual years are kept
+     */
+    public enum Variable {
+        GROWTH("growth", "Growth adjustment", -0.9, 3.0),
+        DEBT_RATE("debtRate", "Debt rate", 0.0, 1.0),
+        MARKET_SHARE("marketShare", "Market share", 0.0, 1.0),
+        EXIT_YEAR("exitYear", "Exit year", Double.NaN, Double.NaN);
+
+        public final String code;
+        public final String label;
+        public final double min;
+        public final double max;
+
+        Variable(String code, String label, double min, double max) {
+            this.code = code;
+            this.label = label;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * @param code variable code
+         * @return variable or null if code is unknown
+         */
+        public static Variable parse(String code) {
+            for (Variable variable : values()) if (variable.code.equals(code)) return variable;
+            return null;
+        }
+    }
+
+
+    /**
+     * Valuation result to hit
+     */
+    public enum Target {
+        EXIT_VALUE("exitValue"),
+        PRESENT_VALUE("presentValue");
+
+        public final String code;
+
+        Target(String code) {
+            this.code = code;
+        }
+
+        /**
+         * @param code target code
+         * @return target or null if code is unknown
+         */
+        public static Target parse(String code) {
+            for (Target target : values()) if (target.code.equals(code)) return target;
+            return null;
+        }
+    }
+
+
+    /**
+     * Solved input value and valuation it gives
+     */
+    public static class Result {
+        public final Variable variable;
+        public final Target target;
+        public final double targetValue;
+        public final double baseInput;
+        public final double baseValue;
+        public final double input;          // solved input, closest input if target is not reachable
+        public final double value;          // valuation at solved input
+        public final boolean reached;
+        public final int evaluations;
+
+        Result(Variable variable, Target target, double targetValue, double baseInput, double baseValue,
+               double input, double value, boolean reached, int evaluations) {
+            this.variable = variable;
+            this.target = target;
+            this.targetValue = targetValue;
+            this.baseInput = baseInput;
+            this.baseValue = baseValue;
+            this.input = input;
+            this.value = value;
+            this.reached = reached;
+            this.evaluations = evaluations;
+        }
+
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject()
+                .put("variable", variable.code)
+                .put("target", target.code)
+                .put("targetValue", targetValue)
+                .put("reached", reached)
+                .put("evaluations", evaluations);
+            putFinite(json, "baseInput", baseInput);
+            putFinite(json, "baseValue", baseValue);
+            putFinite(json, "input", input);
+            putFinite(json, "value", value);
+            return json;
+        }
+
+        private static void putFinite(JSONObject json, String key, double value) {
+            if (Double.isFinite(value)) json.put(key, value);
+        }
+    }
+
+
+    private final ValuatorEngine base;
+    private final CompanyData company;
+    private final CountryData countryData;
+    private final int exitYear;
+    private int evaluations;
+
+
+    GoalSeek(ValuatorEngine base, CompanyData company, CountryData countryData, int exitYear) {
+        this.base = base;
+        this.company = company;
+        this.countryData = countryData;
+        this.exitYear = exitYear;
+    }
+
+
+    /**
+     * Solves for input value that hits target valuation
+     * @param variable free input
+     * @param target exit value or present value
+     * @param targetValue valuation to hit
+     * @return solved input, or closest evaluated input within domain if target is not reachable
+     */
+    public synchronized Result solve(Variable variable, Target target, double targetValue) {
+        evaluations = 0;
+        double baseInput = getBaseInput(variable);
+        double baseValue = evaluate(variable, target, baseInput);
+        if (variable == Variable.EXIT_YEAR) return solveExitYear(target, targetValue, baseInput, baseValue);
+
+        // scan domain including base input, NaN points don't bound brackets
+        double[] inputs = getScanInputs(variable, baseInput);
+        double[] values = new double[inputs.length];
+        double bestInput = baseInput;
+        double bestValue = baseValue;
+        for (int i = 0; i < inputs.length; i++) {
+            values[i] = inputs[i] == baseInput ? baseValue : evaluate(variable, target, inputs[i]);
+            if (isCloser(values[i], bestValue, targetValue)) {
+                bestInput = inputs[i];
+                bestValue = values[i];
+            }
+        }
+        if (isReached(bestValue, targetValue)) {
+            return new Result(variable, target, targetValue, baseInput, baseValue, bestInput, bestValue, true, evaluations);
+        }
+
+        // try sign change brackets nearest to base input first, root at discontinuity misses tolerance
+        for (int i : getBracketsByDistance(inputs, values, targetValue, baseInput)) {
+            double input = FinancialMath.findRoot(x -> evaluate(variable, target, x) - targetValue,
+                inputs[i], inputs[i + 1], INPUT_TOLERANCE, MAX_ITERATIONS);
+            if (Double.isNaN(input)) continue;
+            double value = evaluate(variable, target, input);
+            if (isReached(value, targetValue)) {
+                return new Result(variable, target, targetValue, baseInput, baseValue, input, value, true, evaluations);
+            }
+            if (isCloser(value, bestValue, targetValue)) {
+                bestInput = input;
+                bestValue = value;
+            }
+        }
+
+        // target is out of reach within input domain: report the closest evaluated input
+        return new Result(variable, target, targetValue, baseInput, baseValue, bestInput, bestValue, false, evaluations);
+    }
+
+
+    /**
+     * @param variable continuous input
+     * @param baseInput base input value
+     * @return evenly spaced inputs over domain with base input inserted in order
+     */
+    private static double[] getScanInputs(Variable variable, double baseInput) {
+        double step = (variable.max - variable.min) / SCAN_STEPS;
+        boolean insertBase = baseInput > variable.min && baseInput < variable.max;
+        double[] inputs = new double[SCAN_STEPS + 1 + (insertBase ? 1 : 0)];
+        int count = 0;
+        for (int i = 0; i <= SCAN_STEPS; i++) {
+            double input = i == SCAN_STEPS ? variable.max : variable.min + i * step;
+            if (insertBase && baseInput <= input) {
+                if (baseInput < input) inputs[count++] = baseInput;
+                insertBase = false;
+            }
+            inputs[count++] = input;
+        }
+        return count == inputs.length ? inputs : Arrays.copyOf(inputs, count);
+    }
+
+
+    /**
+     * @param inputs scanned inputs in ascending order
+     * @param values valuations at scanned inputs
+     * @param targetValue valuation to hit
+     * @param baseInput base input value
+     * @return start indexes of sign change brackets ordered by distance to base input
+     */
+    private static List<Integer> getBracketsByDistance(double[] inputs, double[] values,
+                                                       double targetValue, double baseInput) {
+        List<Integer> brackets = new ArrayList<>();
+        for (int i = 0; i + 1 < inputs.length; i++) {
+            double low = values[i] - targetValue;
+            double high = values[i + 1] - targetValue;
+            if (Double.isNaN(low) || Double.isNaN(high) || Math.signum(low) == Math.signum(high)) continue;
+            brackets.add(i);
+        }
+        brackets.sort(Comparator.comparingDouble(i ->
+            Math.max(0, Math.max(inputs[i] - baseInput, baseInput - inputs[i + 1]))));
+        return brackets;
+    }
+
+
+    private static boolean isReached(double value, double targetValue) {
+        return Math.abs(value - targetValue) <= VALUE_TOLERANCE * Math.max(1.0, Math.abs(targetValue));
+    }
+
+
+    private static boolean isCloser(double value, double bestValue, double targetValue) {
+        if (Double.isNaN(value)) return false;
+        return Double.isNaN(bestValue) || Math.abs(value - targetValue) < Math.abs(bestValue - targetValue);
+    }
+
+
+    /**
+     * Finds earliest forecast year with valuation reaching target
+     */
+    private Result solveExitYear(Target target, double targetValue, double baseInput, double baseValue) {
+        int firstYear = Math.max(company.getDataFirstYear(), Year.now().getValue());
+        int lastYear = company.getDataFirstYear() + company.getFreeCashFlow().length - 1;
+        int bestYear = (int) baseInput;
+        double bestValue = baseValue;
+        for (int year = firstYear; year <= lastYear; year++) {
+            double value = year == baseInput ? baseValue : evaluate(Variable.EXIT_YEAR, target, year);
+            if (value >= targetValue) {
+                return new Result(Variable.EXIT_YEAR, target, targetValue, baseInput, baseValue, year, value, true, evaluations);
+            }
+            if (Double.isNaN(bestValue) || value > bestValue) {
+                bestYear = year;
+                bestValue = value;
+            }
+        }
+        return new Result(Variable.EXIT_YEAR, target, targetValue, baseInput, baseValue, bestYear, bestValue, false, evaluations);
+    }
+
+
+    private double getBaseInput(Variable variable) {
+        switch (variable) {
+            case DEBT_RATE: return company.getDebtRate();
+            case MARKET_SHARE: return company.getMarketShare();
+            case EXIT_YEAR: return exitYear;
+            default: return 0;
+        }
+    }
+
+
+    /**
+     * Evaluates target valuation with input set to given value
+     * @param variable free input
+     * @param target exit value or present value
+     * @param input input value
+     * @return blended exit value or its present value
+     * @throws java.util.concurrent.CancellationException if request is cancelled or deadline exceeded
+     */
+    private double evaluate(Variable variable, Target target, double input) {
+        Cancellation.check();
+        Cancellation.checkDeadline();
+        evaluations++;
+        CompanyData scenario = new CompanyData(company.toJson());
+        int scenarioExitYear = exitYear;
+        switch (variable) {
+            case GROWTH:
+                int firstYear = company.getDataFirstYear();
+                scenario.setRevenue(adjustGrowth(company.getRevenue(), firstYear, input));
+                scenario.setEBITDA(adjustGrowth(company.getEBITDA(), firstYear, input));
+                scenario.setFreeCashFlow(adjustGrowth(company.getFreeCashFlow(), firstYear, input));
+                break;
+            case DEBT_RATE:
+                scenario.setDebt(company.getDebt(), input);
+                break;
+            case MARKET_SHARE:
+                scenario.setMarketShare(input);
+                break;
+            case EXIT_YEAR:
+                scenarioExitYear = (int) input;
+                break;
+        }
+        double exitValue = new ValuatorEngine(base, scenario, countryData, 1.0, scenarioExitYear).valuateExitValue();
+        if (target == Target.EXIT_VALUE) return exitValue;
+        int yearsToExit = scenarioExitYear - Year.now().getValue();
+        return yearsToExit >= 1 ? FinancialMath.getPresentValue(exitValue, company.getVentureRate(), yearsToExit) : exitValue;
+    }
+
+
+    /**
+     * Scales forecast years (current year and later) by (1 + growth)^n, n = 1 for first
+     * forecast year, actual years are left as reported
+     * @param values yearly values starting from first year
+     * @param firstYear year of first value
+     * @param growth growth adjustment
+     * @return adjusted copy of values
+     */
+    private static double[] adjustGrowth(double[] values, int firstYear, double growth) {
+        if (values == null) return null;
+        double[] adjusted = values.clone();
+        int lastActualYear = Year.now().getValue() - 1;
+        for (int i = 0; i < adjusted.length; i++) {
+            int periods = firstYear + i - lastActualYear;
+            if (periods >= 1) adjusted[i] *= Math.pow(1.0 + growth, periods);
+        }
+        return adjusted;
+    }
+
+}
@@ -0,0 +1,299 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Local macroeconomic time-series store
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Full World Bank indicator histories for all countries kept in compact
+ * memory-mapped columnar file. Each indicator is a column block of
+ * [country][year] doubles (NaN if value is missing), so any year window
+ * of any country is a contiguous slice read without network calls.
+ *
+ * File is built offline from World Bank bulk CSV dumps:
+ * java com.axiom.valuator.model.MacroDataStore API_NY.GDP.MKTP.KD.csv API_NY.GDP.DEFL.KD.ZG.csv
+ */
+public class MacroDataStore {
+
+    public static final String STORE_PATH = "cache/macro_data.bin";
+    public static final int MAGIC = 0x4D414352;                      // "MACR"
+    public static final int VERSION = 1;
+    public static final int CODE_BYTES = 32;                        // Indicator code field size
+    public static final int COUNTRY_BYTES = 4;                      // ISO3 country code field size
+
+    public static final String ERROR_WRONG_FORMAT = "Not a macro data store file ";
+    public static final String ERROR_NO_HEADER = "World Bank CSV header not found in ";
+
+    private static final String WB_CSV_HEADER = "\"Country Name\"";
+    private static final int WB_CSV_CODE_COLUMN = 1;
+    private static final int WB_CSV_INDICATOR_COLUMN = 3;
+    private static final int WB_CSV_FIRST_YEAR_COLUMN = 4;
+
+    private static volatile MacroDataStore defaultStore;
+    private static volatile boolean defaultStoreChecked = false;
+
+    private final int firstYear;                                    // First year of all series
+    private final int years;                                        // Number of years in series
+    private final String[] indicators;                              // Indicator codes
+    private final Map<String, Integer> countryIndex;                // ISO3 code to column row index
+    private final DoubleBuffer values;                              // Mapped values
+
+    //-----------------------------------------------------------------------------------------------------
+
+
+    /**
+     * Opens and memory maps store file
+     * @param path store file path
+     * @throws IOException if file can't be read or has wrong format
+     */
+    public MacroDataStore(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                throw new IOException(ERROR_WRONG_FORMAT + path);
+            firstYear = buffer.getInt();
+            years = buffer.getInt();
+            int countries = buffer.getInt();
+            indicators = new String[buffer.getInt()];
+            for (int i = 0; i < indicators.length; i++) indicators[i] = readCode(buffer, CODE_BYTES);
+            countryIndex = new HashMap<>(countries * 2);
+            for (int i = 0; i < countries; i++) countryIndex.put(readCode(buffer, COUNTRY_BYTES), i);
+            values = buffer.slice().asDoubleBuffer();
+        }
+    }
+
+
+    /**
+     * Returns store at default path opened once or null if there is no store file
+     * @return macro data store or null
+     */
+    public static MacroDataStore getDefault() {
+        if (!defaultStoreChecked) {
+            synchronized (MacroDataStore.class) {
+                if (!defaultStoreChecked) {
+                    Path path = Paths.get(STORE_PATH);
+                    if (Files.exists(path)) {
+                        try {
+                            defaultStore = new MacroDataStore(path);
+                        } catch (IOException e) {
+                            RequestLog.error("Macro data store is not available " + STORE_PATH, e);
+                        }
+                    }
+                    defaultStoreChecked = true;
+                }
+            }
+        }
+        return defaultStore;
+    }
+
+
+    public int getFirstYear() { return firstYear; }
+    public int getLastYear() { return firstYear + years - 1; }
+    public boolean containsCountry(String iso3) { return countryIndex.containsKey(iso3); }
+    public Set<String> getCountries() { return Collections.unmodifiableSet(countryIndex.keySet()); }
+
+
+    /**
+     * Copies indicator values of the country for the years window
+     * @param indicator World Bank indicator code
+     * @param iso3 ISO3166 Alpha-3 country code
+     * @param fromYear first year of window
+     * @param output output array, its length is the number of years in window
+     * @return true if country and indicator are in store, false otherwise
+     */
+    public boolean slice(String indicator, String iso3, int fromYear, double[] output) {
+        int offset = getOffset(indicator, iso3);
+        if (offset < 0) return false;
+        for (int i = 0; i < output.length; i++) {
+            int yearIndex = fromYear - firstYear + i;
+            output[i] = (yearIndex >= 0 && yearIndex < years) ? values.get(offset + yearIndex) : Double.NaN;
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns latest year having indicator value for the country
+     * @param indicator World Bank indicator code
+     * @param iso3 ISO3166 Alpha-3 country code
+     * @param notAfter latest acceptable year
+     * @return latest year with value or -1 if there is no values
+     */
+    public int getLatestYear(String indicator, String iso3, int notAfter) {
+        int offset = getOffset(indicator, iso3);
+        if (offset < 0) return -1;
+        for (int yearIndex = Math.min(notAfter - firstYear, years - 1); yearIndex >= 0; yearIndex--) {
+            if (!Double.isNaN(values.get(offset + yearIndex))) return firstYear + yearIndex;
+        }
+        return -1;
+    }
+
+
+    private int getOffset(String indicator, String iso3) {
+        Integer country = countryIndex.get(iso3);
+        if (country == null) return -1;
+        for (int i = 0; i < indicators.length; i++) {
+            if (indicators[i].equals(indicator)) return (i * countryIndex.size() + country) * years;
+        }
+        return -1;
+    }
+
+
+    //-----------------------------------------------------------------------------------------------------
+
+
+    /**
+     * Imports World Bank bulk CSV dumps (one file per indicator) into store file
+     * @param csvFiles World Bank bulk CSV files
+     * @param target store file path
+     * @throws IOException if files can't be read or written
+     */
+    public static void importWorldBankCSV(List<Path> csvFiles, Path target) throws IOException {
+        Map<String, Map<String, double[]>> series = new LinkedHashMap<>();   // indicator -> country -> values
+        Map<String, Integer> seriesFirstYear = new HashMap<>();               // indicator -> first year
+        int minYear = Integer.MAX_VALUE, maxYear = Integer.MIN_VALUE;
+
+        for (Path csv : csvFiles) {
+            try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+                String line;
+                List<String> header = null;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith(WB_CSV_HEADER)) { header = splitCSV(line); break; }
+                }
+                if (header == null) throw new IOException(ERROR_NO_HEADER + csv);
+                int csvFirstYear = Integer.parseInt(header.get(WB_CSV_FIRST_YEAR_COLUMN));
+                int csvYears = 0;
+                while (WB_CSV_FIRST_YEAR_COLUMN + csvYears < header.size()
+                    && !header.get(WB_CSV_FIRST_YEAR_COLUMN + csvYears).isEmpty()) csvYears++;
+                minYear = Math.min(minYear, csvFirstYear);
+                maxYear = Math.max(maxYear, csvFirstYear + csvYears - 1);
+
+                while ((line = reader.readLine()) != null) {
+                    List<String> row = splitCSV(line);
+                    if (row.size() <= WB_CSV_FIRST_YEAR_COLUMN) continue;
+                    double[] rowValues = new double[csvYears];
+                    for (int i = 0; i < csvYears; i++) {
+                        int column = WB_CSV_FIRST_YEAR_COLUMN + i;
+                        String cell = column < row.size() ? row.get(column) : "";
+                        rowValues[i] = cell.isEmpty() ? Double.NaN : Double.parseDouble(cell);
+                    }
+                    String indicator = row.get(WB_CSV_INDICATOR_COLUMN);
+                    seriesFirstYear.put(indicator, csvFirstYear);
+                    series.computeIfAbsent(indicator, k -> new LinkedHashMap<>())
+                          .put(row.get(WB_CSV_CODE_COLUMN), rowValues);
+                }
+            }
+        }
+
+        // Align all series to common years range and countries list
+        List<String> countries = new ArrayList<>();
+        for (Map<String, double[]> byCountry : series.values()) {
+            for (String iso3 : byCountry.keySet()) {
+                if (!countries.contains(iso3)) countries.add(iso3);
+            }
+        }
+        int years = maxYear - minYear + 1;
+        int headerSize = 6 * Integer.BYTES + series.size() * CODE_BYTES + countries.size() * COUNTRY_BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize + series.size() * countries.size() * years * Double.BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(minYear).putInt(years)
+              .putInt(countries.size()).putInt(series.size());
+        for (String indicator : series.keySet()) writeCode(buffer, indicator, CODE_BYTES);
+        for (String iso3 : countries) writeCode(buffer, iso3, COUNTRY_BYTES);
+
+        double[] column = new double[years];
+        for (Map.Entry<String, Map<String, double[]>> indicator : series.entrySet()) {
+            int offset = seriesFirstYear.get(indicator.getKey()) - minYear;
+            for (String iso3 : countries) {
+                Arrays.fill(column, Double.NaN);
+                double[] rowValues = indicator.getValue().get(iso3);
+                if (rowValues != null) System.arraycopy(rowValues, 0, column, offset, rowValues.length);
+                for (double value : column) buffer.putDouble(value);
+            }
+        }
+        buffer.flip();
+
+        if (target.getParent() != null) Files.createDirectories(target.getParent());
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+
+    /**
+     * Splits World Bank CSV line to unquoted fields
+     * @param line CSV line
+     * @return list of fields
+     */
+    private static List<String> splitCSV(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') { field.append(c); i++; }
+                else quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else field.append(c);
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+
+    private static String readCode(ByteBuffer buffer, int size) {
+        byte[] bytes = new byte[size];
+        buffer.get(bytes);
+        int length = 0;
+        while (length < size && bytes[length] != 0) length++;
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+    }
+
+
+    private static void writeCode(ByteBuffer buffer, String code, int size) {
+        byte[] bytes = Arrays.copyOf(code.getBytes(StandardCharsets.US_ASCII), size);
+        buffer.put(bytes);
+    }
+
+
+    /**
+     * Offline import entry point
+     * @param args World Bank bulk CSV files, optional "-o" target store path
+     */
+    public static void main(String[] args) throws IOException {
+        List<Path> csvFiles = new ArrayList<>();
+        Path target = Paths.get(STORE_PATH);
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length) target = Paths.get(args[++i]);
+            else csvFiles.add(Paths.get(args[i]));
+        }
+        importWorldBankCSV(csvFiles, target);
+        System.out.println("Macro data store written to " + target);
+    }
+
+}
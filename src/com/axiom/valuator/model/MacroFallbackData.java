@@ -0,0 +1,147 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Offline macro data fallback snapshot
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import com.axiom.valuator.math.FinancialMath;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Year;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Bundled snapshot of average real GDP growth and inflation per country,
+ * used by CountryData when World Bank is slow or down. Snapshot is a classpath
+ * CSV resource regenerated from macro data store:
+ * java com.axiom.valuator.model.MacroFallbackData cache/macro_data.bin > src/main/resources/macro_fallback.csv
+ */
+public class MacroFallbackData {
+
+    public static final String RESOURCE_PATH = "/main/resources/macro_fallback.csv";
+    public static final String WORLD_CODE = "WLD";                  // World average row
+    public static final String COMMENT_PREFIX = "#";
+    public static final String HEADER = "iso3,firstYear,lastYear,gdpGrowth,inflation";
+
+    private static volatile Map<String, Entry> snapshot;
+
+
+    /**
+     * Snapshot row: averages over years window, rates as fractions
+     */
+    public static class Entry {
+        public final String iso3;
+        public final int firstYear;
+        public final int lastYear;
+        public final double gdpGrowth;
+        public final double inflation;
+
+        Entry(String iso3, int firstYear, int lastYear, double gdpGrowth, double inflation) {
+            this.iso3 = iso3;
+            this.firstYear = firstYear;
+            this.lastYear = lastYear;
+            this.gdpGrowth = gdpGrowth;
+            this.inflation = inflation;
+        }
+    }
+
+
+    /**
+     * Returns snapshot row of the country or world average if country is not in snapshot
+     * (row iso3 is WORLD_CODE then, so caller can label it)
+     * @param countryLocale country
+     * @return snapshot row or null if snapshot resource is missing
+     */
+    public static Entry get(Locale countryLocale) {
+        Map<String, Entry> entries = getSnapshot();
+        Entry entry = entries.get(countryLocale.getISO3Country());
+        return entry != null ? entry : entries.get(WORLD_CODE);
+    }
+
+
+    private static Map<String, Entry> getSnapshot() {
+        if (snapshot == null) {
+            synchronized (MacroFallbackData.class) {
+                if (snapshot == null) snapshot = load();
+            }
+        }
+        return snapshot;
+    }
+
+
+    /**
+     * Loads snapshot from classpath resource (percent values in CSV)
+     * @return map of ISO3 code to snapshot row, empty if resource is missing
+     */
+    private static Map<String, Entry> load() {
+        Map<String, Entry> entries = new HashMap<>();
+        try (InputStream in = MacroFallbackData.class.getResourceAsStream(RESOURCE_PATH)) {
+            if (in == null) return entries;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith(COMMENT_PREFIX) || line.equals(HEADER)) continue;
+                String[] fields = line.split(",");
+                Entry entry = new Entry(fields[0].trim(),
+                    Integer.parseInt(fields[1].trim()),
+                    Integer.parseInt(fields[2].trim()),
+                    Double.parseDouble(fields[3].trim()) / 100.0,
+                    Double.parseDouble(fields[4].trim()) / 100.0);
+                entries.put(entry.iso3, entry);
+            }
+        } catch (IOException | RuntimeException e) {
+            RequestLog.error("Macro fallback data is not loaded", e);
+        }
+        return entries;
+    }
+
+
+    /**
+     * Regenerates snapshot CSV from macro data store: compound real GDP growth and
+     * average GDP deflator inflation over default years window per country
+     * @param args macro data store path (default cache/macro_data.bin)
+     * @throws IOException if store can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        MacroDataStore store = new MacroDataStore(Paths.get(args.length > 0 ? args[0] : MacroDataStore.STORE_PATH));
+        int years = CountryData.DEFAULT_YEARS_OF_HISTORY;
+        int notAfter = Year.now().getValue() - 1;
+        PrintStream out = System.out;
+        out.println(COMMENT_PREFIX + " Offline macro snapshot: average real GDP growth and GDP deflator inflation (%)");
+        out.println(COMMENT_PREFIX + " Generated " + Year.now() + " by MacroFallbackData from World Bank data");
+        out.println(HEADER);
+        for (String iso3 : new TreeSet<>(store.getCountries())) {
+            int lastYear = store.getLatestYear(CountryData.WB_REAL_GDP, iso3, notAfter);
+            if (lastYear < 0) continue;
+            int firstYear = lastYear - (years - 1);
+            double[] gdp = new double[years];
+            double[] inflation = new double[years];
+            store.slice(CountryData.WB_REAL_GDP, iso3, firstYear, gdp);
+            store.slice(CountryData.WB_INFLATION, iso3, firstYear, inflation);
+            if (Double.isNaN(gdp[0]) || gdp[0] <= 0) continue;
+            double growth = FinancialMath.getCAGR(gdp[0], gdp[years - 1], years - 1) * 100.0;
+            double sum = 0;
+            int count = 0;
+            for (double value : inflation) {
+                if (Double.isNaN(value)) continue;
+                sum += value;
+                count++;
+            }
+            if (count == 0) continue;
+            out.printf(Locale.ROOT, "%s,%d,%d,%.2f,%.2f%n", iso3, firstYear, lastYear, growth, sum / count);
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  MapDB cache backend
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Local single-process cache in MapDB file, each put or batch of puts is committed
+ */
+public class MapDBCacheBackend implements CacheBackend {
+
+    private final DB cacheDB;
+    private final Map<String, HTreeMap<String, String>> maps = new ConcurrentHashMap<>();
+
+
+    /**
+     * Opens or creates MapDB file
+     * @param path file path
+     */
+    public MapDBCacheBackend(String path) {
+        cacheDB = DBMaker.fileDB(path).transactionEnable().make();
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private HTreeMap<String, String> getMap(String map) {
+        return maps.computeIfAbsent(map, name -> (HTreeMap<String, String>) cacheDB.hashMap(name).createOrOpen());
+    }
+
+
+    @Override
+    public String get(String map, String key) {
+        return getMap(map).get(key);
+    }
+
+
+    @Override
+    public synchronized void put(String map, String key, String value) {
+        getMap(map).put(key, value);
+        cacheDB.commit();
+    }
+
+
+    @Override
+    public synchronized void putAll(String map, Map<String, String> entries) {
+        getMap(map).putAll(entries);
+        cacheDB.commit();
+    }
+
+
+    @Override
+    public boolean contains(String map, String key) {
+        return getMap(map).containsKey(key);
+    }
+
+
+    @Override
+    public void forEach(String map, BiConsumer<String, String> action) {
+        getMap(map).forEach(action);
+    }
+
+
+    @Override
+    public void close() {
+        cacheDB.close();
+    }
+
+}
@@ -0,0 +1,62 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  In-memory cache backend
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Process memory cache, nothing is persisted (ephemeral nodes, batch runs, tests)
+ */
+public class MemoryCacheBackend implements CacheBackend {
+
+    private final Map<String, Map<String, String>> maps = new ConcurrentHashMap<>();
+
+
+    private Map<String, String> getMap(String map) {
+        return maps.computeIfAbsent(map, name -> new ConcurrentHashMap<>());
+    }
+
+
+    @Override
+    public String get(String map, String key) {
+        return getMap(map).get(key);
+    }
+
+
+    @Override
+    public void put(String map, String key, String value) {
+        getMap(map).put(key, value);
+    }
+
+
+    @Override
+    public void putAll(String map, Map<String, String> entries) {
+        getMap(map).putAll(entries);
+    }
+
+
+    @Override
+    public boolean contains(String map, String key) {
+        return getMap(map).containsKey(key);
+    }
+
+
+    @Override
+    public void forEach(String map, BiConsumer<String, String> action) {
+        getMap(map).forEach(action);
+    }
+
+
+    @Override
+    public void close() {
+        maps.clear();
+    }
+
+}
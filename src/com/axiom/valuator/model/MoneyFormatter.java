@@ -0,0 +1,111 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Money formatter
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable thread-safe currency formatter without fraction digits. Currency symbol,
+ * prefixes, suffixes, grouping and digits are taken once from locale NumberFormat,
+ * values are written directly into caller buffer. Output is identical to
+ * NumberFormat.getCurrencyInstance(locale) with maximum fraction digits 0
+ * (HALF_EVEN rounding), values out of long range fall back to NumberFormat.
+ */
+public class MoneyFormatter {
+
+    private static final Map<Locale, MoneyFormatter> instances = new ConcurrentHashMap<>();
+    private static final int MAX_DIGITS = 19;
+
+    private final Locale locale;
+    private final String positivePrefix;
+    private final String positiveSuffix;
+    private final String negativePrefix;
+    private final String negativeSuffix;
+    private final char groupingSeparator;
+    private final int groupingSize;             // 0 if grouping is not used
+    private final char zeroDigit;
+
+
+    private MoneyFormatter(Locale locale) {
+        DecimalFormat format = (DecimalFormat) createNumberFormat(locale);
+        DecimalFormatSymbols symbols = format.getDecimalFormatSymbols();
+        this.locale = locale;
+        this.positivePrefix = format.getPositivePrefix();
+        this.positiveSuffix = format.getPositiveSuffix();
+        this.negativePrefix = format.getNegativePrefix();
+        this.negativeSuffix = format.getNegativeSuffix();
+        this.groupingSeparator = symbols.getMonetaryGroupingSeparator();
+        this.groupingSize = format.isGroupingUsed() ? format.getGroupingSize() : 0;
+        this.zeroDigit = symbols.getZeroDigit();
+    }
+
+
+    /**
+     * Returns shared formatter of the locale
+     * @param locale country locale
+     * @return money formatter
+     */
+    public static MoneyFormatter getInstance(Locale locale) {
+        return instances.computeIfAbsent(locale, MoneyFormatter::new);
+    }
+
+
+    /**
+     * Formats money value rounded to whole currency units
+     * @param value money value
+     * @return formatted string
+     */
+    public String format(double value) {
+        StringBuilder buffer = new StringBuilder(24);
+        format(value, buffer);
+        return buffer.toString();
+    }
+
+
+    /**
+     * Appends money value rounded to whole currency units to the buffer
+     * @param value money value
+     * @param buffer output buffer
+     * @return output buffer
+     */
+    public StringBuilder format(double value, StringBuilder buffer) {
+        double rounded = Math.rint(Math.abs(value));
+        if (Double.isNaN(value) || rounded >= Long.MAX_VALUE) {
+            return buffer.append(createNumberFormat(locale).format(value));
+        }
+        boolean negative = value < 0 || (value == 0 && 1.0 / value < 0);
+        buffer.append(negative ? negativePrefix : positivePrefix);
+
+        long units = (long) rounded;
+        char[] digits = new char[MAX_DIGITS * 2];
+        int position = digits.length;
+        int count = 0;
+        do {
+            if (groupingSize > 0 && count > 0 && count % groupingSize == 0) digits[--position] = groupingSeparator;
+            digits[--position] = (char) (zeroDigit + (int) (units % 10));
+            units /= 10;
+            count++;
+        } while (units != 0);
+        buffer.append(digits, position, digits.length - position);
+
+        return buffer.append(negative ? negativeSuffix : positiveSuffix);
+    }
+
+
+    private static NumberFormat createNumberFormat(Locale locale) {
+        NumberFormat format = NumberFormat.getCurrencyInstance(locale);
+        format.setMaximumFractionDigits(0);
+        return format;
+    }
+
+}
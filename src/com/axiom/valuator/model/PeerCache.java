@@ -0,0 +1,257 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Peer-to-peer cache ownership
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Splits upstream fetches of country and ticker keys between server nodes: each key
+ * has owning node chosen by consistent hashing (ring of virtual nodes, so adding or
+ * removing node moves only its share of keys). Node that misses key in its own cache
+ * asks the owner (GET /peer/{map}/{key}), owner serves it from its cache or fetches it
+ * once for all nodes (single flight), so every key costs one upstream fetch per cluster.
+ * Values received from owners are replicated into local L1 (bounded LRU with TTL),
+ * so hot keys are served without network calls. Owner gets deadline shorter than
+ * request timeout, so slow upstream is not mistaken for dead owner. If owner has no
+ * data or is down, node fetches upstream itself, dead owner is skipped for PEER_RETRY_MS.
+ *
+ * Nodes are configured by "valuator.peers" system property or VALUATOR_PEERS environment
+ * variable (comma separated base URLs of all nodes, the same list on every node) and
+ * "valuator.peers.self" or VALUATOR_PEERS_SELF (this node URL from the list).
+ * Without configuration every key is local (single node).
+ */
+public class PeerCache {
+
+    public static final String PROPERTY = "valuator.peers";
+    public static final String ENVIRONMENT_VARIABLE = "VALUATOR_PEERS";
+    public static final String SELF_PROPERTY = "valuator.peers.self";
+    public static final String SELF_ENVIRONMENT_VARIABLE = "VALUATOR_PEERS_SELF";
+    public static final String PATH = "/peer/";
+    public static final String COUNTRIES = "countries";
+    public static final String COMPANIES = "companies";
+
+    public static final int VIRTUAL_NODES = 128;                    // Ring points per node
+    public static final long CONNECT_TIMEOUT_MS = 500;
+    public static final long REQUEST_TIMEOUT_MS = 3000;
+    public static final long OWNER_RESERVE_MS = 200;                // Owner answers this much before timeout
+    public static final String DEADLINE_HEADER = "X-Deadline-Ms";
+    public static final long PEER_RETRY_MS = 10000;                 // Failed peer is skipped this long
+    public static final int L1_CAPACITY = Integer.getInteger("valuator.peers.l1Capacity", 1024);
+    public static final long L1_TTL_MS = Long.getLong("valuator.peers.l1TtlMs", 15 * 60 * 1000);
+
+    private static final PeerCache instance = fromEnvironment();
+
+    private final String self;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final HttpClient client;
+    private final Map<String, Long> downUntil = new ConcurrentHashMap<>();
+    private final Map<String, Replica> replicas = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Replica> eldest) {
+                return size() > L1_CAPACITY;
+            }
+        });
+
+
+    /**
+     * Peer cache constructor
+     * @param peers base URLs of all nodes including this one
+     * @param self base URL of this node
+     */
+    public PeerCache(List<String> peers, String self) {
+        this.self = self;
+        for (String peer : peers) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) ring.put(hash(peer + "#" + i), peer);
+        }
+        this.client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MS))
+            .build();
+    }
+
+
+    /**
+     * Creates peer cache configured by system properties or environment variables
+     * @return peer cache or null if there is single node
+     */
+    private static PeerCache fromEnvironment() {
+        String peersConfig = System.getProperty(PROPERTY, System.getenv(ENVIRONMENT_VARIABLE));
+        String self = System.getProperty(SELF_PROPERTY, System.getenv(SELF_ENVIRONMENT_VARIABLE));
+        if (peersConfig == null || peersConfig.isBlank()) return null;
+        List<String> peers = new ArrayList<>();
+        for (String peer : peersConfig.split(",")) {
+            if (!peer.isBlank()) peers.add(trimSlash(peer.trim()));
+        }
+        if (self == null || !peers.contains(trimSlash(self.trim()))) {
+            RequestLog.warn("Peer cache disabled: " + SELF_PROPERTY + " is not in " + PROPERTY);
+            return null;
+        }
+        return peers.size() > 1 ? new PeerCache(peers, trimSlash(self.trim())) : null;
+    }
+
+
+    /**
+     * Returns configured peer cache
+     * @return peer cache or null if there is single node
+     */
+    public static PeerCache getDefault() {
+        return instance;
+    }
+
+
+    /**
+     * Checks if this node owns key
+     * @param map map name (countries, companies)
+     * @param key key
+     * @return true if key is owned by this node or there is single node
+     */
+    public static boolean isLocal(String map, String key) {
+        return instance == null || instance.getOwner(map, key).equals(instance.self);
+    }
+
+
+    /**
+     * Returns value replicated from owner into local L1
+     * @param map map name (countries, companies)
+     * @param key key
+     * @return value or null if it is not replicated or expired
+     */
+    public static String getReplica(String map, String key) {
+        if (instance == null) return null;
+        Replica replica = instance.replicas.get(map + ":" + key);
+        if (replica == null || System.currentTimeMillis() > replica.expiresAt) return null;
+        return replica.value;
+    }
+
+
+    /**
+     * Returns value from local L1 or from owning node
+     * @param map map name (countries, companies)
+     * @param key key
+     * @return value or null if key is local, owner is down or has no value
+     */
+    public static String get(String map, String key) {
+        if (instance == null) return null;
+        String value = getReplica(map, key);
+        return value != null ? value : instance.fetch(map, key);
+    }
+
+
+    /**
+     * Returns owning node of key
+     * @param map map name (countries, companies)
+     * @param key key
+     * @return owner base URL
+     */
+    public String getOwner(String map, String key) {
+        Map.Entry<Long, String> point = ring.ceilingEntry(hash(map + ":" + key));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+
+    /**
+     * Asks owning node for value and replicates it into L1
+     * @param map map name (countries, companies)
+     * @param key key
+     * @return value or null if key is local, owner is down or has no value
+     * @throws java.util.concurrent.CancellationException if current request is cancelled
+     */
+    private String fetch(String map, String key) {
+        String owner = getOwner(map, key);
+        if (owner.equals(self)) return null;
+        Long skipUntil = downUntil.get(owner);
+        if (skipUntil != null && System.currentTimeMillis() < skipUntil) return null;
+        long timeoutMillis = Cancellation.remainingMillis(REQUEST_TIMEOUT_MS);
+        if (timeoutMillis == 0) return null;
+
+        try (Trace.Span span = Trace.span("Peer fetch").tag("owner", owner).tag("key", key)) {
+            String url = owner + PATH + map + "/" + URLEncoder.encode(key, StandardCharsets.UTF_8).replace("+", "%20");
+            HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofMillis(timeoutMillis))
+                .header(DEADLINE_HEADER, Long.toString(Math.max(1, timeoutMillis - OWNER_RESERVE_MS)))
+                .GET().build();
+            CompletableFuture<HttpResponse<String>> future = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            Cancellation cancellation = Cancellation.current();
+            Runnable unregister = cancellation == null ? () -> {} : cancellation.onCancel(() -> future.cancel(true));
+            try {
+                HttpResponse<String> response = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                span.tag("status", response.statusCode());
+                if (response.statusCode() != 200) return null;      // owner has no value or disagrees on ownership
+                replicas.put(map + ":" + key, new Replica(response.body(), System.currentTimeMillis() + L1_TTL_MS));
+                return response.body();
+            } finally {
+                unregister.run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            Cancellation.check();
+            RequestLog.warn("Peer " + owner + " failed, fetching " + key + " upstream: " + e);
+            downUntil.put(owner, System.currentTimeMillis() + PEER_RETRY_MS);
+            return null;
+        }
+    }
+
+
+    /**
+     * Hashes string to ring position (first 8 bytes of MD5, evenly spread)
+     * @param value string
+     * @return ring position
+     */
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < Long.BYTES; i++) hash = (hash << 8) | (digest[i] & 0xFF);
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static String trimSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+
+    /**
+     * Value replicated from owner
+     */
+    private static class Replica {
+        final String value;
+        final long expiresAt;
+
+        Replica(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
@@ -0,0 +1,314 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Redis protocol cache backend
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.BiConsumer;
+
+/**
+ * Cache shared by several server nodes in Redis-protocol (RESP) server: each map
+ * is a Redis hash "valuator:{map}" (HGET, HSET, HEXISTS, HGETALL commands only,
+ * so any RESP compatible server or RedisStandIn works), batch put is one multi-field
+ * HSET. Connections are pooled. Reads wait no longer than request deadline, past
+ * deadline they are skipped as cache misses, writes always get READ_TIMEOUT_MS, so
+ * late results are still cached. Reads cut by deadline are not counted by breaker.
+ * Circuit breaker opens after FAILURE_THRESHOLD consecutive failures: while open,
+ * commands are not sent and node-local memory tier serves as cache, after OPEN_MS
+ * single probe command is sent and the breaker closes if it succeeds. Entries
+ * written to local tier during outage are not replayed to server.
+ */
+public class RedisCacheBackend implements CacheBackend {
+
+    public static final int DEFAULT_PORT = 6379;
+    public static final int CONNECT_TIMEOUT_MS = 2000;
+    public static final int READ_TIMEOUT_MS = 2000;
+    public static final int MAX_IDLE_CONNECTIONS = 16;
+    public static final String KEY_PREFIX = "valuator:";
+    public static final int FAILURE_THRESHOLD = 3;                  // Consecutive failures to open breaker
+    public static final long OPEN_MS = 10000;                       // Breaker open time before probe
+
+    private final String host;
+    private final int port;
+    private final BlockingQueue<Connection> idleConnections = new ArrayBlockingQueue<>(MAX_IDLE_CONNECTIONS);
+    private final MemoryCacheBackend local = new MemoryCacheBackend();
+
+    private UpstreamClient.State state = UpstreamClient.State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean probeInFlight = false;
+
+
+    /**
+     * Redis backend constructor, connections are opened on demand
+     * @param url redis://host:port
+     */
+    public RedisCacheBackend(String url) {
+        URI uri = URI.create(url);
+        this.host = uri.getHost();
+        this.port = uri.getPort() > 0 ? uri.getPort() : DEFAULT_PORT;
+    }
+
+
+    @Override
+    public String get(String map, String key) {
+        try {
+            Object reply = execute(false, "HGET", KEY_PREFIX + map, key);
+            return reply instanceof String ? (String) reply : null;
+        } catch (IOException e) {
+            return local.get(map, key);
+        }
+    }
+
+
+    @Override
+    public void put(String map, String key, String value) {
+        try {
+            execute(true, "HSET", KEY_PREFIX + map, key, value);
+        } catch (IOException e) {
+            local.put(map, key, value);
+        }
+    }
+
+
+    @Override
+    public void putAll(String map, Map<String, String> entries) {
+        if (entries.isEmpty()) return;
+        List<String> arguments = new ArrayList<>(entries.size() * 2 + 2);
+        arguments.add("HSET");
+        arguments.add(KEY_PREFIX + map);
+        entries.forEach((key, value) -> { arguments.add(key); arguments.add(value); });
+        try {
+            execute(true, arguments.toArray(new String[0]));
+        } catch (IOException e) {
+            local.putAll(map, entries);
+        }
+    }
+
+
+    @Override
+    public boolean contains(String map, String key) {
+        try {
+            Object reply = execute(false, "HEXISTS", KEY_PREFIX + map, key);
+            return reply instanceof Long && (Long) reply == 1L;
+        } catch (IOException e) {
+            return local.contains(map, key);
+        }
+    }
+
+
+    @Override
+    public void forEach(String map, BiConsumer<String, String> action) {
+        Object reply;
+        try {
+            reply = execute(false, "HGETALL", KEY_PREFIX + map);
+        } catch (IOException e) {
+            local.forEach(map, action);
+            return;
+        }
+        if (!(reply instanceof List)) return;
+        List<?> fields = (List<?>) reply;
+        for (int i = 0; i + 1 < fields.size(); i += 2) {
+            action.accept((String) fields.get(i), (String) fields.get(i + 1));
+        }
+    }
+
+
+    @Override
+    public void close() {
+        Connection connection;
+        while ((connection = idleConnections.poll()) != null) connection.close();
+        local.close();
+    }
+
+
+    /**
+     * Returns circuit breaker state
+     * @return closed, open or half open
+     */
+    public synchronized UpstreamClient.State getState() {
+        return state;
+    }
+
+
+    /**
+     * Sends command on pooled connection and reads reply
+     * @param write true for write command, it is not limited by request deadline
+     * @param arguments command and arguments
+     * @return reply (String, Long, List) or null if there is no value or deadline is exceeded
+     * @throws IOException if command failed or was skipped by open breaker (local tier is used then)
+     */
+    private Object execute(boolean write, String... arguments) throws IOException {
+        int timeoutMillis = write ? READ_TIMEOUT_MS : (int) Cancellation.remainingMillis(READ_TIMEOUT_MS);
+        if (timeoutMillis == 0) return null;
+        if (!allowRequest()) throw new IOException("Cache server circuit breaker is open");
+        Connection connection = idleConnections.poll();
+        try {
+            if (connection == null) connection = new Connection(host, port, timeoutMillis);
+            Object reply = connection.execute(timeoutMillis, arguments);
+            if (!idleConnections.offer(connection)) connection.close();
+            onResult(true);
+            return reply;
+        } catch (IOException e) {
+            if (connection != null) connection.close();
+            if (e instanceof SocketTimeoutException && timeoutMillis < READ_TIMEOUT_MS) {
+                // read was cut by request deadline, cache server is not to blame
+                onAbandoned();
+                return null;
+            }
+            RequestLog.warn("Cache server " + host + ":" + port + " " + arguments[0] + " failed: " + e);
+            onResult(false);
+            throw e;
+        }
+    }
+
+
+    /**
+     * Checks circuit breaker: closed passes all commands, open fails fast until
+     * OPEN_MS elapses, then single probe command is let through (half open)
+     * @return true if command may be sent
+     */
+    private synchronized boolean allowRequest() {
+        if (state == UpstreamClient.State.CLOSED) return true;
+        if (state == UpstreamClient.State.OPEN && System.currentTimeMillis() - openedAt >= OPEN_MS) {
+            state = UpstreamClient.State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == UpstreamClient.State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Releases half open probe slot of command cut by request deadline
+     */
+    private synchronized void onAbandoned() {
+        probeInFlight = false;
+    }
+
+
+    /**
+     * Records command result in circuit breaker, local tier is dropped when server is back
+     * @param success true if command succeeded
+     */
+    private synchronized void onResult(boolean success) {
+        if (success) {
+            if (state != UpstreamClient.State.CLOSED) {
+                RequestLog.warn("Cache server " + host + ":" + port + " is back, circuit breaker closed");
+                local.close();
+            }
+            consecutiveFailures = 0;
+            state = UpstreamClient.State.CLOSED;
+        } else if (state == UpstreamClient.State.HALF_OPEN || ++consecutiveFailures >= FAILURE_THRESHOLD) {
+            if (state != UpstreamClient.State.OPEN) {
+                RequestLog.warn("Cache server " + host + ":" + port + " circuit breaker opened, using local cache");
+            }
+            state = UpstreamClient.State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+        probeInFlight = false;
+    }
+
+
+    /**
+     * Single RESP connection
+     */
+    private static class Connection implements Closeable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+
+        Connection(String host, int port, int timeoutMillis) throws IOException {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), Math.min(CONNECT_TIMEOUT_MS, timeoutMillis));
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        Object execute(int timeoutMillis, String... arguments) throws IOException {
+            socket.setSoTimeout(timeoutMillis);
+            out.write(('*' + Integer.toString(arguments.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (String argument : arguments) {
+                byte[] bytes = argument.getBytes(StandardCharsets.UTF_8);
+                out.write(('$' + Integer.toString(bytes.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(bytes);
+                out.write('\r');
+                out.write('\n');
+            }
+            out.flush();
+            return readReply();
+        }
+
+        private Object readReply() throws IOException {
+            int type = in.read();
+            if (type < 0) throw new EOFException("Connection closed by cache server");
+            String line = readLine();
+            switch (type) {
+                case '+': return line;
+                case '-': throw new IOException("Cache server error: " + line);
+                case ':': return Long.parseLong(line);
+                case '$': {
+                    int length = Integer.parseInt(line);
+                    if (length < 0) return null;
+                    byte[] bytes = in.readNBytes(length + 2);
+                    if (bytes.length < length + 2) throw new EOFException("Truncated bulk string");
+                    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+                }
+                case '*': {
+                    int count = Integer.parseInt(line);
+                    if (count < 0) return null;
+                    List<Object> items = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) items.add(readReply());
+                    return items;
+                }
+                default: throw new IOException("Unexpected cache server reply type: " + (char) type);
+            }
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+            int b;
+            while ((b = in.read()) != '\r') {
+                if (b < 0) throw new EOFException("Connection closed by cache server");
+                line.write(b);
+            }
+            if (in.read() != '\n') throw new IOException("Malformed cache server reply");
+            return line.toString(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+}
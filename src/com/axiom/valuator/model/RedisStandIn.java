@@ -0,0 +1,252 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Local Redis protocol stand-in server
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process RESP server implementing the commands RedisCacheBackend uses
+ * (HGET, HSET, HEXISTS, HGETALL, PING) over in-memory hashes, so tests and
+ * local multi-node runs need no Redis installation. Listens on loopback only:
+ * RedisStandIn server = RedisStandIn.start(0);
+ * new RedisCacheBackend("redis://127.0.0.1:" + server.getPort());
+ * or standalone: java com.axiom.valuator.model.RedisStandIn [port]
+ */
+public class RedisStandIn implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final Map<String, Map<String, String>> hashes = new ConcurrentHashMap<>();
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicLong commands = new AtomicLong();
+    private volatile boolean closed = false;
+
+
+    private RedisStandIn(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+
+    /**
+     * Starts stand-in server accepting connections on daemon threads
+     * @param port port to listen on, 0 for any free port
+     * @return running server
+     * @throws IOException if port can't be bound
+     */
+    public static RedisStandIn start(int port) throws IOException {
+        RedisStandIn server = new RedisStandIn(port);
+        Thread acceptor = new Thread(server::acceptLoop, "redis-stand-in");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
+    }
+
+
+    /**
+     * @return port server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+
+    /**
+     * @return number of commands executed since start, lets tests check batching
+     */
+    public long getCommandCount() {
+        return commands.get();
+    }
+
+
+    /**
+     * Stops accepting connections and disconnects clients, so clients see server going down
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+        for (Socket client : clients) closeQuietly(client);
+    }
+
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket client = serverSocket.accept();
+                clients.add(client);
+                Thread handler = new Thread(() -> serve(client), "redis-stand-in-client");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (!closed) RequestLog.warn("Redis stand-in accept failed: " + e);
+            }
+        }
+    }
+
+
+    private void serve(Socket client) {
+        try (client) {
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            List<String> command;
+            while ((command = readCommand(in)) != null) {
+                execute(command, out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // client disconnected or server closed
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+
+    /**
+     * Executes command and writes RESP reply
+     * @param command command name and arguments
+     * @param out client output stream
+     * @throws IOException if reply can't be written
+     */
+    private void execute(List<String> command, OutputStream out) throws IOException {
+        commands.incrementAndGet();
+        String name = command.isEmpty() ? "" : command.get(0).toUpperCase();
+        int arguments = command.size() - 1;
+        switch (name) {
+            case "PING":
+                writeLine(out, "+PONG");
+                return;
+            case "HGET":
+                if (arguments != 2) break;
+                writeBulk(out, hashes.getOrDefault(command.get(1), Map.of()).get(command.get(2)));
+                return;
+            case "HEXISTS":
+                if (arguments != 2) break;
+                writeLine(out, ":" + (hashes.getOrDefault(command.get(1), Map.of()).containsKey(command.get(2)) ? 1 : 0));
+                return;
+            case "HSET": {
+                if (arguments < 3 || arguments % 2 == 0) break;
+                Map<String, String> hash = hashes.computeIfAbsent(command.get(1), key -> new ConcurrentHashMap<>());
+                int added = 0;
+                for (int i = 2; i + 1 < command.size(); i += 2) {
+                    if (hash.put(command.get(i), command.get(i + 1)) == null) added++;
+                }
+                writeLine(out, ":" + added);
+                return;
+            }
+            case "HGETALL": {
+                if (arguments != 1) break;
+                Map<String, String> hash = hashes.getOrDefault(command.get(1), Map.of());
+                List<String> fields = new ArrayList<>(hash.size() * 2);
+                hash.forEach((key, value) -> { fields.add(key); fields.add(value); });
+                writeLine(out, "*" + fields.size());
+                for (String field : fields) writeBulk(out, field);
+                return;
+            }
+            default:
+                writeLine(out, "-ERR unknown command '" + name + "'");
+                return;
+        }
+        writeLine(out, "-ERR wrong number of arguments for '" + name + "' command");
+    }
+
+
+    /**
+     * Reads command sent as RESP array of bulk strings
+     * @param in client input stream
+     * @return command and arguments or null if client disconnected
+     * @throws IOException if command is malformed
+     */
+    private static List<String> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) return null;
+        if (type != '*') throw new IOException("RESP array expected");
+        int count = Integer.parseInt(readLine(in));
+        List<String> command = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') throw new IOException("RESP bulk string expected");
+            int length = Integer.parseInt(readLine(in));
+            byte[] bytes = in.readNBytes(length + 2);
+            if (bytes.length < length + 2) throw new EOFException("Truncated bulk string");
+            command.add(new String(bytes, 0, length, StandardCharsets.UTF_8));
+        }
+        return command;
+    }
+
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(16);
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b < 0) throw new EOFException("Connection closed by client");
+            line.write(b);
+        }
+        if (in.read() != '\n') throw new IOException("Malformed command");
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    private static void writeBulk(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeLine(out, "$-1");
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeLine(out, "$" + bytes.length);
+        out.write(bytes);
+        out.write('\r');
+        out.write('\n');
+    }
+
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+
+    /**
+     * Standalone stand-in entry point
+     * @param args optional port (default 6379)
+     * @throws Exception if port can't be bound
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : RedisCacheBackend.DEFAULT_PORT;
+        RedisStandIn server = start(port);
+        System.out.println("Redis stand-in listening on 127.0.0.1:" + server.getPort());
+        Thread.currentThread().join();
+    }
+
+}
@@ -0,0 +1,277 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Asynchronous structured request log
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous structured log: request threads only put events into bounded lock-free
+ * ring buffer, background writer serializes them to compact JSON lines (one line per
+ * request with status, timings, stages and cache outcomes, plus warning and error lines).
+ * When buffer is full events are dropped and counted instead of blocking requests.
+ * Request payloads are logged for sampled fraction of requests only.
+ * <pre>
+ * -Dvaluator.log.file=path          log file (default stdout)
+ * -Dvaluator.log.sampleRate=0.01    fraction of requests logged with payload
+ * -Dvaluator.log.capacity=8192      ring buffer capacity (rounded up to power of two)
+ * </pre>
+ */
+public class RequestLog {
+
+    public static final String LOG_FILE = System.getProperty("valuator.log.file");
+    public static final double PAYLOAD_SAMPLE_RATE = Double.parseDouble(System.getProperty("valuator.log.sampleRate", "0.01"));
+    public static final int CAPACITY = Integer.highestOneBit(Math.max(2, Integer.getInteger("valuator.log.capacity", 8192) - 1)) << 1;
+    public static final int MAX_STACK_FRAMES = 8;
+    public static final long IDLE_PARK_NANOS = 5_000_000;
+
+    private static final AtomicReferenceArray<Event> ring = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();        // next slot to claim by producers
+    private static volatile long head = 0;                            // next slot to read by writer
+    private static volatile long flushed = 0;                         // slots written and flushed
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final Writer output = openOutput();
+
+    static {
+        startWriter();
+    }
+
+
+    /**
+     * Logs completed request from its root span
+     * @param root request root span
+     */
+    static void request(Trace.Span root) {
+        offer(new Event("request", null, null, root));
+    }
+
+
+    /**
+     * Logs warning and tags it to current span
+     * @param message warning message
+     */
+    public static void warn(String message) {
+        Trace.tag("warning", message);
+        offer(new Event("warn", message, null, null));
+    }
+
+
+    /**
+     * Logs error and tags it to current span
+     * @param message error context
+     * @param error exception
+     */
+    public static void error(String message, Throwable error) {
+        Trace.tag("error", message + ": " + error);
+        offer(new Event("error", message, error, null));
+    }
+
+
+    /**
+     * Adds request payload to current span for sampled requests
+     * @param payload request payload
+     */
+    public static void samplePayload(JSONObject payload) {
+        if (ThreadLocalRandom.current().nextDouble() < PAYLOAD_SAMPLE_RATE) Trace.tag("payload", payload);
+    }
+
+
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+
+    /**
+     * Claims ring buffer slot and publishes event, drops event if buffer is full
+     * @param event log event
+     */
+    private static void offer(Event event) {
+        while (true) {
+            long slot = tail.get();
+            if (slot - head >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (tail.compareAndSet(slot, slot + 1)) {
+                ring.lazySet((int) (slot & (CAPACITY - 1)), event);
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Writer loop: drains ring buffer, flushes when it is empty
+     */
+    private static void drain() {
+        long reportedDrops = 0;
+        while (true) {
+            boolean wrote = false;
+            long slot = head;
+            while (slot < tail.get()) {
+                int index = (int) (slot & (CAPACITY - 1));
+                Event event = ring.get(index);
+                if (event == null) break;              // claimed, not yet published
+                ring.set(index, null);
+                head = ++slot;
+                write(event.toJson());
+                wrote = true;
+            }
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                write(new JSONObject().put("ts", Instant.now().toString()).put("type", "dropped")
+                    .put("count", drops - reportedDrops));
+                reportedDrops = drops;
+                wrote = true;
+            }
+            if (wrote) {
+                flush();
+                flushed = slot;
+            } else LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+
+    private static void write(JSONObject line) {
+        try {
+            output.write(line.toString());
+            output.write('\n');
+        } catch (IOException e) {
+            // log output is lost, nothing else to report to
+        }
+    }
+
+
+    private static void flush() {
+        try {
+            output.flush();
+        } catch (IOException e) {
+            // log output is lost, nothing else to report to
+        }
+    }
+
+
+    private static Writer openOutput() {
+        try {
+            FileOutputStream stream = LOG_FILE == null
+                ? new FileOutputStream(FileDescriptor.out)
+                : new FileOutputStream(LOG_FILE, true);
+            return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't open request log " + LOG_FILE, e);
+        }
+    }
+
+
+    private static void startWriter() {
+        Thread thread = new Thread(RequestLog::drain, "request-log-writer");
+        thread.setDaemon(true);
+        thread.start();
+        // give writer a moment to drain buffer on shutdown
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            long deadline = System.nanoTime() + 200_000_000L;
+            while (flushed < tail.get() && System.nanoTime() < deadline) LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }));
+    }
+
+
+    /**
+     * Log event, serialized on writer thread
+     */
+    private static class Event {
+        final long timeMillis = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        final String type;
+        final String message;
+        final Throwable error;
+        final Trace.Span root;
+
+        Event(String type, String message, Throwable error, Trace.Span root) {
+            this.type = type;
+            this.message = message;
+            this.error = error;
+            this.root = root;
+        }
+
+        JSONObject toJson() {
+            JSONObject line = new JSONObject()
+                .put("ts", Instant.ofEpochMilli(timeMillis).toString())
+                .put("type", type)
+                .put("thread", thread);
+            if (message != null) line.put("message", message);
+            if (error != null) {
+                line.put("exception", error.toString());
+                JSONArray stack = new JSONArray();
+                StackTraceElement[] frames = error.getStackTrace();
+                for (int i = 0; i < Math.min(MAX_STACK_FRAMES, frames.length); i++) stack.put(frames[i].toString());
+                line.put("stack", stack);
+            }
+            if (root != null) summarize(root.toJson(), line);
+            return line;
+        }
+
+        /**
+         * Compacts request span tree: root tags, duration of each stage, cache
+         * outcomes and upstream calls counted over the whole tree
+         */
+        private static void summarize(JSONObject span, JSONObject line) {
+            line.put("request", span.getString("name")).put("durationMs", span.getLong("durationMs"));
+            JSONObject tags = span.optJSONObject("tags");
+            if (tags != null) for (String key : tags.keySet()) line.put(key, tags.get(key));
+
+            JSONObject stages = new JSONObject();
+            JSONArray children = span.optJSONArray("children");
+            if (children != null) {
+                for (int i = 0; i < children.length(); i++) {
+                    JSONObject child = children.getJSONObject(i);
+                    stages.put(child.getString("name"), child.getLong("durationMs"));
+                }
+            }
+            line.put("stages", stages);
+
+            int[] counters = new int[4];             // cache hits, misses, upstream calls, failed calls
+            JSONArray problems = new JSONArray();
+            count(span, true, counters, problems);
+            line.put("cache", new JSONObject().put("hit", counters[0]).put("miss", counters[1]));
+            if (counters[2] > 0) line.put("upstream", new JSONObject().put("calls", counters[2]).put("failed", counters[3]));
+            if (!problems.isEmpty()) line.put("problems", problems);
+        }
+
+        private static void count(JSONObject span, boolean root, int[] counters, JSONArray problems) {
+            JSONObject tags = span.optJSONObject("tags");
+            if (tags != null) {
+                String source = tags.optString("source", "");
+                if (source.equals("cache") || source.equals("store")) counters[0]++;
+                else if (!source.isEmpty()) counters[1]++;
+                if (!root && span.getString("name").startsWith("GET ")) {      // root may be GET route
+                    counters[2]++;
+                    if (!tags.optBoolean("ok", false)) counters[3]++;
+                }
+                if (tags.has("warning")) problems.put(tags.get("warning"));
+                if (tags.has("error")) problems.put(tags.get("error"));
+            }
+            JSONArray children = span.optJSONArray("children");
+            if (children == null) return;
+            for (int i = 0; i < children.length(); i++) count(children.getJSONObject(i), false, counters, problems);
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Sector multiples index
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory index of EV/Revenue, EV/EBITDA and stock volatility distributions by sector
+ * and industry built from stock overviews stored in CachedData. Index is updated incrementally
+ * when overview is cached or refreshed, so sector comparables need no API calls.
+ */
+public class SectorMultiplesIndex {
+
+    public static final String SECTOR_FIELD = "Sector";
+    public static final String INDUSTRY_FIELD = "Industry";
+    public static final String EV_REVENUE_FIELD = "EVToRevenue";
+    public static final String EV_EBITDA_FIELD = "EVToEBITDA";
+    public static final String INDUSTRY_SEPARATOR = "/";
+
+    private static final Map<String, double[]> tickerMultiples = new HashMap<>();      // ticker -> multiples, volatility
+    private static final Map<String, String[]> tickerGroups = new HashMap<>();         // ticker -> group keys
+    private static final Map<String, Distribution[]> groups = new HashMap<>();         // group -> distributions
+
+
+    /**
+     * Updates index with stock overview, previous values of the ticker are replaced
+     * @param ticker stock ticker
+     * @param overviewJSON Alpha Vantage company overview JSON string
+     */
+    public static synchronized void update(String ticker, String overviewJSON) {
+        remove(ticker);
+        if (overviewJSON == null) return;
+        JSONObject overview = new JSONObject(overviewJSON);
+        String sector = normalize(overview.optString(SECTOR_FIELD, ""));
+        if (sector.isEmpty()) return;
+        String industry = normalize(overview.optString(INDUSTRY_FIELD, ""));
+        double[] multiples = { parseMultiple(overview, EV_REVENUE_FIELD), parseMultiple(overview, EV_EBITDA_FIELD),
+            StockData.getVolatility(overview) };
+        String[] keys = industry.isEmpty()
+            ? new String[] { sector }
+            : new String[] { sector, sector + INDUSTRY_SEPARATOR + industry };
+
+        for (String key : keys) {
+            Distribution[] distributions = groups.computeIfAbsent(key,
+                k -> new Distribution[] { new Distribution(), new Distribution(), new Distribution() });
+            for (int i = 0; i < multiples.length; i++) distributions[i].add(multiples[i]);
+        }
+        tickerMultiples.put(ticker, multiples);
+        tickerGroups.put(ticker, keys);
+    }
+
+
+    /**
+     * Removes ticker values from index
+     * @param ticker stock ticker
+     */
+    public static synchronized void remove(String ticker) {
+        double[] multiples = tickerMultiples.remove(ticker);
+        String[] keys = tickerGroups.remove(ticker);
+        if (multiples == null) return;
+        for (String key : keys) {
+            Distribution[] distributions = groups.get(key);
+            for (int i = 0; i < multiples.length; i++) distributions[i].remove(multiples[i]);
+            if (distributions[0].size() == 0 && distributions[1].size() == 0 && distributions[2].size() == 0)
+                groups.remove(key);
+        }
+    }
+
+
+    /**
+     * Returns EV/Revenue statistics of sector or industry
+     * @param sector sector name
+     * @param industry industry name or empty string for the whole sector
+     * @return statistics or null if there is no data
+     */
+    public static Statistics getEVToRevenue(String sector, String industry) {
+        return getStatistics(sector, industry, 0);
+    }
+
+
+    /**
+     * Returns EV/EBITDA statistics of sector or industry
+     * @param sector sector name
+     * @param industry industry name or empty string for the whole sector
+     * @return statistics or null if there is no data
+     */
+    public static Statistics getEVToEBITDA(String sector, String industry) {
+        return getStatistics(sector, industry, 1);
+    }
+
+
+    /**
+     * Returns annual stock volatility statistics of sector or industry
+     * @param sector sector name
+     * @param industry industry name or empty string for the whole sector
+     * @return statistics or null if there is no data
+     */
+    public static Statistics getVolatility(String sector, String industry) {
+        return getStatistics(sector, industry, 2);
+    }
+
+
+    private static synchronized Statistics getStatistics(String sector, String industry, int multiple) {
+        String key = normalize(sector);
+        if (industry != null && !industry.isBlank()) key += INDUSTRY_SEPARATOR + normalize(industry);
+        Distribution[] distributions = groups.get(key);
+        if (distributions == null || distributions[multiple].size() == 0) return null;
+        return distributions[multiple].getStatistics();
+    }
+
+
+    private static String normalize(String name) {
+        return name == null ? "" : name.trim().toUpperCase(Locale.ROOT);
+    }
+
+
+    private static double parseMultiple(JSONObject overview, String field) {
+        double value = overview.optDouble(field, Double.NaN);
+        return value > 0 ? value : Double.NaN;
+    }
+
+
+    /**
+     * Immutable snapshot of multiple distribution
+     */
+    public static class Statistics {
+        public final int count;
+        public final double median, lowerQuartile, upperQuartile;
+
+        private Statistics(int count, double median, double lowerQuartile, double upperQuartile) {
+            this.count = count;
+            this.median = median;
+            this.lowerQuartile = lowerQuartile;
+            this.upperQuartile = upperQuartile;
+        }
+    }
+
+
+    /**
+     * Sorted array of multiple values with O(n) insertion and removal and O(1) quantiles
+     */
+    private static class Distribution {
+        private double[] sorted = new double[8];
+        private int size = 0;
+
+        void add(double value) {
+            if (Double.isNaN(value)) return;
+            if (size == sorted.length) sorted = Arrays.copyOf(sorted, size * 2);
+            int index = Arrays.binarySearch(sorted, 0, size, value);
+            if (index < 0) index = -index - 1;
+            System.arraycopy(sorted, index, sorted, index + 1, size - index);
+            sorted[index] = value;
+            size++;
+        }
+
+        void remove(double value) {
+            if (Double.isNaN(value)) return;
+            int index = Arrays.binarySearch(sorted, 0, size, value);
+            if (index < 0) return;
+            System.arraycopy(sorted, index + 1, sorted, index, size - index - 1);
+            size--;
+        }
+
+        int size() { return size; }
+
+        double getPercentile(double percentile) {
+            double rank = percentile * (size - 1);
+            int lower = (int) Math.floor(rank);
+            int upper = (int) Math.ceil(rank);
+            return sorted[lower] + (sorted[upper] - sorted[lower]) * (rank - lower);
+        }
+
+        Statistics getStatistics() {
+            return new Statistics(size, getPercentile(0.5), getPercentile(0.25), getPercentile(0.75));
+        }
+    }
+
+}
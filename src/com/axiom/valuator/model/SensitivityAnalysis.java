@@ -0,0 +1,201 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Tornado sensitivity analysis
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import com.axiom.valuator.math.FinancialMath;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Flexes each valuation input by -/+ range and measures blended exit value swing.
+ * All perturbations are evaluated in parallel by scenario engines sharing
+ * pre-fetched country and peers data of the base engine (no network calls).
+ */
+public class SensitivityAnalysis {
+
+    /**
+     * Valuation inputs to flex, ranges are absolute for rates and growth,
+     * relative for market share and comparable multiples
+     */
+    public enum Driver {
+        EBITDA_GROWTH("EBITDA growth", 0.05, false),
+        MARKET_SHARE("Market share", 0.25, true),
+        DEBT_RATE("Debt rate", 0.02, false),
+        EQUITY_RATE("Equity rate", 0.02, false),
+        COMPARABLE_MULTIPLES("Comparable multiples", 0.20, true),
+        GDP_GROWTH("GDP growth", 0.01, false);
+
+        public final String label;
+        public final double defaultRange;
+        public final boolean relative;
+
+        Driver(String label, double defaultRange, boolean relative) {
+            this.label = label;
+            this.defaultRange = defaultRange;
+            this.relative = relative;
+        }
+    }
+
+
+    /**
+     * Tornado chart bar: blended exit value at low and high input values
+     */
+    public static class SwingBar {
+        public final Driver driver;
+        public final double range;
+        public final double lowValue;
+        public final double highValue;
+
+        SwingBar(Driver driver, double range, double lowValue, double highValue) {
+            this.driver = driver;
+            this.range = range;
+            this.lowValue = lowValue;
+            this.highValue = highValue;
+        }
+
+        public double getSwing() { return Math.abs(highValue - lowValue); }
+    }
+
+
+    private final ValuatorEngine base;
+    private final CompanyData company;
+    private final CountryData countryData;
+    private final Map<Driver, Double> ranges;
+    private double baseValue;
+
+
+    SensitivityAnalysis(ValuatorEngine base, CompanyData company, CountryData countryData, Map<Driver, Double> ranges) {
+        this.base = base;
+        this.company = company;
+        this.countryData = countryData;
+        this.ranges = new EnumMap<>(ranges);
+    }
+
+
+    /**
+     * @return default ranges of all drivers
+     */
+    public static Map<Driver, Double> getDefaultRanges() {
+        Map<Driver, Double> ranges = new EnumMap<>(Driver.class);
+        for (Driver driver : Driver.values()) ranges.put(driver, driver.defaultRange);
+        return ranges;
+    }
+
+
+    /**
+     * Evaluates base value and all perturbations in parallel
+     * @return swing bars ranked by swing descending
+     */
+    public List<SwingBar> run() {
+        baseValue = base.valuateExitValue();
+        Driver[] drivers = ranges.keySet().toArray(new Driver[0]);
+        double[] values = new double[drivers.length * 2];
+        IntStream.range(0, values.length).parallel().forEach(i -> {
+            Driver driver = drivers[i / 2];
+            double delta = (i % 2 == 0 ? -1 : 1) * ranges.get(driver);
+            values[i] = evaluate(driver, delta);
+        });
+
+        List<SwingBar> bars = new ArrayList<>(drivers.length);
+        for (int i = 0; i < drivers.length; i++) {
+            bars.add(new SwingBar(drivers[i], ranges.get(drivers[i]), values[i * 2], values[i * 2 + 1]));
+        }
+        bars.sort(Comparator.comparingDouble(SwingBar::getSwing).reversed());
+        return bars;
+    }
+
+
+    public double getBaseValue() { return baseValue; }
+
+
+    /**
+     * Evaluates blended exit value with one input flexed
+     * @param driver input to flex
+     * @param delta input change
+     * @return blended exit value
+     */
+    private double evaluate(Driver driver, double delta) {
+        CompanyData scenario = new CompanyData(company.toJson());
+        CountryData scenarioCountry = countryData;
+        double multiplesScale = 1.0;
+        switch (driver) {
+            case EBITDA_GROWTH:
+                double[] ebitda = company.getEBITDA().clone();
+                for (int i = 1; i < ebitda.length; i++) ebitda[i] *= Math.pow(1.0 + delta, i);
+                scenario.setEBITDA(ebitda);
+                break;
+            case MARKET_SHARE:
+                scenario.setMarketShare(Math.min(1.0, Math.max(0.0, company.getMarketShare() * (1.0 + delta))));
+                break;
+            case DEBT_RATE:
+                scenario.setDebt(company.getDebt(), company.getDebtRate() + delta);
+                break;
+            case EQUITY_RATE:
+                scenario.setEquity(company.getEquity(), company.getEquityRate() + delta);
+                break;
+            case COMPARABLE_MULTIPLES:
+                multiplesScale = 1.0 + delta;
+                break;
+            case GDP_GROWTH:
+                scenarioCountry = countryData.withAverageGDPGrowthRate(countryData.getAverageGDPGrowthRate() + delta);
+                break;
+        }
+        return new ValuatorEngine(base, scenario, scenarioCountry, multiplesScale).valuateExitValue();
+    }
+
+
+    /**
+     * Writes tornado table to report
+     * @param bars ranked swing bars
+     * @param report string builder to write report
+     * @param plainText if true writes plaint text report, otherwise HTML
+     */
+    void writeReport(List<SwingBar> bars, StringBuilder report, boolean plainText) {
+        if (plainText) {
+            report.append("\n------------------------------------------------------------\n");
+            report.append(company.getName());
+            report.append(" Sensitivity Analysis\n");
+            report.append("------------------------------------------------------------\n");
+            report.append("Base exit value: ").append(countryData.formatMoney(baseValue)).append("\n");
+            for (SwingBar bar : bars) {
+                report.append(bar.driver.label).append(" ").append(describeRange(bar)).append(": ")
+                    .append(countryData.formatMoney(bar.lowValue)).append(" .. ")
+                    .append(countryData.formatMoney(bar.highValue)).append(" (swing ")
+                    .append(countryData.formatMoney(bar.getSwing())).append(")\n");
+            }
+        } else {
+            report.append("<p>");
+            report.append("<h5>Sensitivity Analysis</h5>");
+            report.append("Base exit value: <b>").append(countryData.formatMoney(baseValue)).append("</b>");
+            report.append("<table class=\"table table-bordered\">");
+            report.append("<tr><th class=\"text-start\">Input</th><th class=\"text-end\">Range</th>")
+                .append("<th class=\"text-end\">Low</th><th class=\"text-end\">High</th>")
+                .append("<th class=\"text-end\">Swing</th></tr>");
+            for (SwingBar bar : bars) {
+                report.append("<tr><td class=\"text-start\">").append(bar.driver.label).append("</td>")
+                    .append("<td class=\"text-end\">").append(describeRange(bar)).append("</td>")
+                    .append("<td class=\"text-end\">").append(countryData.formatMoney(bar.lowValue)).append("</td>")
+                    .append("<td class=\"text-end\">").append(countryData.formatMoney(bar.highValue)).append("</td>")
+                    .append("<td class=\"text-end\">").append(countryData.formatMoney(bar.getSwing())).append("</td></tr>");
+            }
+            report.append("</table>");
+            report.append("</p>");
+        }
+    }
+
+
+    private static String describeRange(SwingBar bar) {
+        return "+/-" + FinancialMath.toPercent(bar.range) + (bar.driver.relative ? "%" : " pp");
+    }
+
+}
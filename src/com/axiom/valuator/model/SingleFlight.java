@@ -0,0 +1,115 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Shared upstream fetches
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Runs single fetch per key for all concurrent requests (single flight). Each request
+ * gets its own view of the shared result; when request is cancelled its view is cancelled
+ * and it leaves the fetch. Fetch itself is cancelled only when every request waiting
+ * for it has been cancelled, so abandoned requests release threads and upstream quota
+ * while requests still waiting for the same key are not affected. Fetch runs until
+ * the latest deadline of waiting requests (no deadline if some request has none).
+ * @param <T> fetched value type
+ */
+public class SingleFlight<T> {
+
+    private final Executor executor;
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+
+
+    /**
+     * Single flight constructor
+     * @param executor executor running fetches
+     */
+    public SingleFlight(Executor executor) {
+        this.executor = executor;
+    }
+
+
+    /**
+     * Joins pending fetch of the key or starts new one
+     * @param key fetch key
+     * @param loader fetch task, runs with shared fetch cancellation token as current
+     * @return view of fetch result, cancelled if current request is cancelled
+     */
+    public CompletableFuture<T> join(String key, Supplier<T> loader) {
+        Flight flight;
+        do {
+            flight = flights.computeIfAbsent(key, k -> new Flight());
+        } while (!flight.addWaiter(key, Cancellation.current()));
+        flight.start(key, loader);
+
+        CompletableFuture<T> view = flight.result.copy();
+        Cancellation caller = Cancellation.current();
+        if (caller != null) {
+            Flight joined = flight;
+            Runnable unregister = caller.onCancel(() -> {
+                view.cancel(false);
+                joined.leave(key);
+            });
+            view.whenComplete((value, error) -> unregister.run());
+        }
+        return view;
+    }
+
+
+    /**
+     * Fetch shared by waiting requests
+     */
+    private class Flight {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Cancellation cancellation = new Cancellation();
+        int waiters = 0;
+        boolean started = false;
+        boolean abandoned = false;
+
+        synchronized boolean addWaiter(String key, Cancellation caller) {
+            if (abandoned) {
+                flights.remove(key, this);
+                return false;
+            }
+            cancellation.shareDeadline(caller, waiters == 0);
+            waiters++;
+            return true;
+        }
+
+        void start(String key, Supplier<T> loader) {
+            synchronized (this) {
+                if (started) return;
+                started = true;
+            }
+            executor.execute(() -> Cancellation.run(cancellation, () -> {
+                try {
+                    Cancellation.check();
+                    result.complete(loader.get());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    flights.remove(key, this);
+                }
+            }));
+        }
+
+        void leave(String key) {
+            synchronized (this) {
+                if (--waiters > 0 || result.isDone()) return;
+                abandoned = true;
+            }
+            flights.remove(key, this);
+            cancellation.cancel("All requests waiting for " + key + " are cancelled");
+            result.cancel(false);
+        }
+    }
+
+}
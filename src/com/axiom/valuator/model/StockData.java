@@ -7,18 +7,13 @@
 //=======================================================================================
 package com.axiom.valuator.model;
 
+import com.axiom.valuator.math.FinancialMath;
 import org.json.JSONObject;
 
-import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.text.NumberFormat;
+import java.time.LocalDate;
 import java.util.Locale;
 
-import static java.net.HttpURLConnection.HTTP_OK;
-
 
 /**
  * Fetches and stores public company stock data and financials
@@ -32,6 +27,8 @@ public class StockData {
     public static final String ERROR_NULL_RESPONSE = "Can't request ";
     public static final String ERROR_EMPTY_OBJECT = "Empty object returned from ";
     public static final String INFORMATION_FIELD = "Information";
+    public static final String WEEK_52_HIGH_FIELD = "52WeekHigh";
+    public static final String WEEK_52_LOW_FIELD = "52WeekLow";
 
     private JSONObject stock;
 
@@ -50,11 +47,30 @@ public class StockData {
             if (jsonString != null) {
                 stock = new JSONObject(jsonString);  // let's throw exception if null for debug purposes
                 alreadyCached = true;
+                Trace.tag("source", "cache");
+            }
+        }
+
+        // Check value replicated from owning node or ask the owner (multi-node deployment)
+        if (!alreadyCached) {
+            String replica = PeerCache.getReplica(PeerCache.COMPANIES, symbol);
+            if (replica == null) {
+                replica = PeerCache.get(PeerCache.COMPANIES, symbol);
+                if (replica != null) {
+                    SectorMultiplesIndex.update(symbol, replica);
+                    CachedData.putCompanySnapshot(symbol, replica);
+                }
+            }
+            if (replica != null) {
+                stock = new JSONObject(replica);
+                alreadyCached = true;
+                Trace.tag("source", "peer");
             }
         }
 
         // if not cached
         if (!alreadyCached) {
+            Trace.tag("source", "alphavantage");
             String urlString = API_URL + symbol + "&apikey=" + API_KEY;
             String response = getRequest(urlString);
             if (response == null) throw new IllegalArgumentException(ERROR_NULL_RESPONSE + urlString);
@@ -68,24 +84,43 @@ public class StockData {
     }
 
 
+    private StockData(JSONObject overview) {
+        stock = overview;
+    }
+
+
+    /**
+     * Loads stock data as it was for the latest quarter reported on or before date,
+     * from cached snapshots only (no Alpha Vantage request)
+     * @param symbol public company ticker
+     * @param asOf point in time
+     * @return stock data or null if there is no snapshot that old
+     */
+    public static StockData getSnapshot(String symbol, LocalDate asOf) {
+        String jsonString = CachedData.getCompanySnapshot(symbol, asOf);
+        return jsonString == null ? null : new StockData(new JSONObject(jsonString));
+    }
+
+
+
+    /**
+     * Checks if stock data can be loaded without Alpha Vantage request
+     * @param symbol public company ticker
+     * @return true if stock data is cached and not expired or replicated from owner
+     */
+    public static boolean isCached(String symbol) {
+        return CachedData.getCompany(symbol) != null || PeerCache.getReplica(PeerCache.COMPANIES, symbol) != null;
+    }
+
 
     /**
-     * Sends GET request and returns response
+     * Sends GET request through Alpha Vantage upstream client
+     * (timeouts, retries and circuit breaker)
      * @param URL request URL
-     * @return response string or null if an exception occurs
+     * @return response string or null if request failed
      */
     private String getRequest(String URL) {
-        HttpClient client = HttpClient.newHttpClient();
-        HttpRequest request = HttpRequest.newBuilder().uri(URI.create(URL)).GET().build();
-        try {
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            int statusCode = response.statusCode();
-            if (statusCode != HTTP_OK) throw new IOException("Status code " + statusCode + " for URL=" + URL);
-            return response.body();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+        return UpstreamClient.ALPHA_VANTAGE.get(URL);
     }
 
 
@@ -101,6 +136,21 @@ public class StockData {
     public double getEnterpriseValue() { return getEBITDA() * getEVToEBITDA(); }
     public double getEarningsPerShare() { return stock.getDouble("EPS"); }
     public double getRevenuePerShareTTM() { return stock.getDouble("RevenuePerShareTTM"); }
+    public String getLatestQuarter() { return stock.optString("LatestQuarter", ""); }
+    public double getVolatility() { return getVolatility(stock); }
+    public JSONObject toJSONObject() { return stock; }
+
+
+    /**
+     * Estimates annual volatility of stock from its 52 week price range (Parkinson estimator)
+     * @param overview Alpha Vantage company overview
+     * @return annual volatility or NaN if price range is not reported
+     */
+    public static double getVolatility(JSONObject overview) {
+        double high = overview.optDouble(WEEK_52_HIGH_FIELD, Double.NaN);
+        double low = overview.optDouble(WEEK_52_LOW_FIELD, Double.NaN);
+        return FinancialMath.getRangeVolatility(high, low);
+    }
 
 
     @Override
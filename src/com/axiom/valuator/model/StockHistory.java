@@ -0,0 +1,157 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Point-in-time stock data index
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import org.json.JSONObject;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of stock overview snapshots kept in CachedData: every ticker has
+ * sorted array of its reported quarters (LatestQuarter as epoch day), so snapshot
+ * valid at any date is found by binary search. Index is built from cached snapshots
+ * at start, updated when new quarter of ticker is cached here or received from owning
+ * node, and merged with quarters other nodes put into shared cache on lookup.
+ */
+public class StockHistory {
+
+    public static final String KEY_SEPARATOR = "@";
+    public static final String QUARTERS_SEPARATOR = ",";
+
+    private static final Map<String, int[]> quarters = new ConcurrentHashMap<>();     // ticker -> sorted epoch days
+
+
+    /**
+     * Returns snapshot key of ticker quarter
+     * @param ticker stock ticker
+     * @param quarter latest reported quarter (yyyy-mm-dd)
+     * @return snapshot key
+     */
+    public static String getKey(String ticker, String quarter) {
+        return ticker + KEY_SEPARATOR + quarter;
+    }
+
+
+    /**
+     * Adds quarter of cached snapshot to index
+     * @param key snapshot key (ticker@quarter)
+     */
+    public static void update(String key) {
+        int separator = key.lastIndexOf(KEY_SEPARATOR);
+        if (separator <= 0) return;
+        add(key.substring(0, separator), key.substring(separator + 1));
+    }
+
+
+    /**
+     * Adds ticker quarter to index
+     * @param ticker stock ticker
+     * @param quarter latest reported quarter (yyyy-mm-dd)
+     * @return true if quarter is new for the ticker
+     */
+    public static boolean add(String ticker, String quarter) {
+        int day;
+        try {
+            day = (int) LocalDate.parse(quarter).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+        boolean[] added = { false };
+        quarters.compute(ticker, (symbol, days) -> {
+            if (days == null) {
+                added[0] = true;
+                return new int[] { day };
+            }
+            int index = Arrays.binarySearch(days, day);
+            if (index >= 0) return days;
+            int insertion = -index - 1;
+            int[] updated = new int[days.length + 1];
+            System.arraycopy(days, 0, updated, 0, insertion);
+            updated[insertion] = day;
+            System.arraycopy(days, insertion, updated, insertion + 1, days.length - insertion);
+            added[0] = true;
+            return updated;
+        });
+        return added[0];
+    }
+
+
+    /**
+     * Adds ticker quarters to index
+     * @param ticker stock ticker
+     * @param list comma separated quarters (yyyy-mm-dd), null is ignored
+     */
+    public static void addAll(String ticker, String list) {
+        if (list == null || list.isEmpty()) return;
+        for (String quarter : list.split(QUARTERS_SEPARATOR)) add(ticker, quarter);
+    }
+
+
+    /**
+     * Returns indexed quarters of ticker
+     * @param ticker stock ticker
+     * @return comma separated quarters (yyyy-mm-dd) in ascending order
+     */
+    public static String getQuarters(String ticker) {
+        int[] days = quarters.get(ticker);
+        if (days == null) return "";
+        StringBuilder list = new StringBuilder(days.length * 11);
+        for (int day : days) {
+            if (list.length() > 0) list.append(QUARTERS_SEPARATOR);
+            list.append(LocalDate.ofEpochDay(day));
+        }
+        return list.toString();
+    }
+
+
+    /**
+     * Finds latest quarter of ticker reported on or before date
+     * @param ticker stock ticker
+     * @param asOf point in time
+     * @return quarter (yyyy-mm-dd) or null if ticker has no snapshot that old
+     */
+    public static String getQuarter(String ticker, LocalDate asOf) {
+        int[] days = quarters.get(ticker);
+        if (days == null) return null;
+        int index = Arrays.binarySearch(days, (int) asOf.toEpochDay());
+        if (index < 0) index = -index - 2;                  // insertion point - 1 is the floor
+        return index >= 0 ? LocalDate.ofEpochDay(days[index]).toString() : null;
+    }
+
+
+    /**
+     * Returns number of quarters kept for ticker
+     * @param ticker stock ticker
+     * @return number of snapshots
+     */
+    public static int getCount(String ticker) {
+        int[] days = quarters.get(ticker);
+        return days == null ? 0 : days.length;
+    }
+
+
+    /**
+     * Reads quarter snapshot is keyed by
+     * @param overview Alpha Vantage company overview
+     * @return latest reported quarter or null if overview has no valid quarter
+     */
+    static String getQuarter(JSONObject overview) {
+        String quarter = overview.optString(CachedData.COMPANY_DATE_FIELD, "");
+        try {
+            LocalDate.parse(quarter);
+            return quarter;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Slow request tracing
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Lightweight in-process tracing: request root span and nested stage spans with timings
+ * and tags. Current span is kept in thread local, tasks handed to other threads are
+ * wrapped to continue the trace. Span trees of requests slower than SLOW_THRESHOLD_MS
+ * are kept (last MAX_SLOW_TRACES), others are dropped. Every completed request is
+ * passed to RequestLog. Outside of traced request span() returns shared no-op span.
+ */
+public class Trace {
+
+    public static final long SLOW_THRESHOLD_MS = Long.getLong("valuator.trace.thresholdMs", 1000);
+    public static final int MAX_SLOW_TRACES = Integer.getInteger("valuator.trace.keep", 50);
+
+    private static final ThreadLocal<Span> current = new ThreadLocal<>();
+    private static final Deque<Span> slowTraces = new ArrayDeque<>();
+
+
+    /**
+     * Starts request root span on current thread
+     * @param name request name
+     * @return root span, close it when request is done
+     */
+    public static Span begin(String name) {
+        Span root = new Span(name, null);
+        current.set(root);
+        return root;
+    }
+
+
+    /**
+     * Starts child span of current span
+     * @param name stage name
+     * @return child span or no-op span if current thread is not traced
+     */
+    public static Span span(String name) {
+        Span parent = current.get();
+        if (parent == null) return Span.NOOP;
+        Span span = new Span(name, parent);
+        current.set(span);
+        return span;
+    }
+
+
+    /**
+     * Adds tag to current span if current thread is traced
+     * @param key tag name
+     * @param value tag value
+     */
+    public static void tag(String key, Object value) {
+        Span span = current.get();
+        if (span != null) span.tag(key, value);
+    }
+
+
+    /**
+     * Wraps task to continue current trace on another thread
+     * @param task task
+     * @return wrapped task
+     */
+    public static Runnable wrap(Runnable task) {
+        Span parent = current.get();
+        if (parent == null) return task;
+        return () -> {
+            Span previous = current.get();
+            current.set(parent);
+            try {
+                task.run();
+            } finally {
+                current.set(previous);
+            }
+        };
+    }
+
+
+    /**
+     * Wraps supplier to continue current trace on another thread
+     * @param task supplier
+     * @param <T> result type
+     * @return wrapped supplier
+     */
+    public static <T> Supplier<T> wrap(Supplier<T> task) {
+        Span parent = current.get();
+        if (parent == null) return task;
+        return () -> {
+            Span previous = current.get();
+            current.set(parent);
+            try {
+                return task.get();
+            } finally {
+                current.set(previous);
+            }
+        };
+    }
+
+
+    /**
+     * Returns slow traces, most recent first
+     * @return JSON array of span trees
+     */
+    public static JSONArray getSlowTraces() {
+        JSONArray traces = new JSONArray();
+        synchronized (slowTraces) {
+            for (Span root : slowTraces) traces.put(root.toJson(root.startNanos));
+        }
+        return traces;
+    }
+
+
+    private static void complete(Span root) {
+        RequestLog.request(root);
+        if (root.getDurationMillis() < SLOW_THRESHOLD_MS) return;
+        synchronized (slowTraces) {
+            slowTraces.addFirst(root);
+            while (slowTraces.size() > MAX_SLOW_TRACES) slowTraces.removeLast();
+        }
+    }
+
+
+    /**
+     * Timed stage of request
+     */
+    public static class Span implements AutoCloseable {
+
+        static final Span NOOP = new Span(null, null);
+
+        private final String name;
+        private final Span parent;
+        private final long startNanos;
+        private volatile long endNanos;
+        private Map<String, Object> tags;
+        private List<Span> children;
+
+
+        private Span(String name, Span parent) {
+            this.name = name;
+            this.parent = parent;
+            this.startNanos = System.nanoTime();
+            if (parent != null) parent.addChild(this);
+        }
+
+
+        /**
+         * Adds tag to span
+         * @param key tag name
+         * @param value tag value
+         * @return this span
+         */
+        public Span tag(String key, Object value) {
+            if (this == NOOP) return this;
+            synchronized (this) {
+                if (tags == null) tags = new LinkedHashMap<>();
+                tags.put(key, value);
+            }
+            return this;
+        }
+
+
+        /**
+         * Ends span and makes parent current, slow root span trees are kept
+         */
+        @Override
+        public void close() {
+            if (this == NOOP || endNanos != 0) return;
+            endNanos = System.nanoTime();
+            if (current.get() == this) {
+                if (parent == null) current.remove();
+                else current.set(parent);
+            }
+            if (parent == null) complete(this);
+        }
+
+
+        public long getDurationMillis() {
+            long end = endNanos != 0 ? endNanos : System.nanoTime();
+            return (end - startNanos) / 1_000_000;
+        }
+
+
+        private synchronized void addChild(Span child) {
+            if (children == null) children = new ArrayList<>();
+            children.add(child);
+        }
+
+
+        JSONObject toJson() {
+            return toJson(startNanos);
+        }
+
+
+        private synchronized JSONObject toJson(long rootStartNanos) {
+            JSONObject json = new JSONObject()
+                .put("name", name)
+                .put("startMs", (startNanos - rootStartNanos) / 1_000_000)
+                .put("durationMs", getDurationMillis());
+            if (endNanos == 0) json.put("unfinished", true);
+            if (tags != null) json.put("tags", new JSONObject(tags));
+            if (children != null) {
+                JSONArray array = new JSONArray();
+                for (Span child : children) array.put(child.toJson(rootStartNanos));
+                json.put("children", array);
+            }
+            return json;
+        }
+    }
+
+}
@@ -0,0 +1,494 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Resilient upstream HTTP client
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/**
+ * HTTP client of single upstream (World Bank, Alpha Vantage) with request timeouts,
+ * circuit breaker, bounded retries with jittered exponential backoff and hedged requests.
+ * Breaker opens after consecutive failures or slow calls and fails requests fast while open,
+ * after cool down one probe request is let through to close it. Retries and hedges
+ * of all upstreams are limited by global retry budget, so retries can't multiply load
+ * on struggling upstream. If current request is cancelled, in-flight exchanges and
+ * backoff are aborted. Request deadline caps each attempt timeout and skips retries
+ * that can't fit, attempt timeout covers streamed response body too. Cancelled calls
+ * and calls cut by deadline are not counted by circuit breaker.
+ */
+public class UpstreamClient {
+
+    // World Bank: slow tail is common, requests are free, so hedging is enabled
+    public static final UpstreamClient WORLD_BANK = new UpstreamClient("World Bank",
+        3000, 5000, 3, 200, 1500, 5, 4000, 30000);
+
+    // Alpha Vantage: limited to 25 requests per day, so no hedging and single retry
+    public static final UpstreamClient ALPHA_VANTAGE = new UpstreamClient("Alpha Vantage",
+        3000, 8000, 2, 500, 0, 3, 6000, 60000);
+
+    public static final double RETRY_BUDGET_RATIO = 0.1;    // retry tokens earned per request
+    public static final double RETRY_BUDGET_MAX = 10.0;     // maximum retry tokens saved
+
+    public static final String ERROR_CIRCUIT_OPEN = "Circuit breaker is open, request skipped: ";
+    public static final String ERROR_OFFLINE = "Offline mode, request skipped: ";
+    public static final String ERROR_DEADLINE = "Request deadline exceeded, request skipped: ";
+    public static final String ERROR_BODY_TIMEOUT = "Response body not received within ";
+
+    /**
+     * Circuit breaker states
+     */
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static double retryTokens = RETRY_BUDGET_MAX;
+    private static volatile boolean offline = false;
+
+    // closes streamed response bodies not read within attempt timeout
+    private static final ScheduledExecutorService bodyTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "upstream-body-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+    private final HttpClient client;
+    private final long requestTimeoutMillis;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long hedgeDelayMillis;
+    private final int failureThreshold;
+    private final long slowCallMillis;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean probeInFlight = false;
+
+
+    /**
+     * Upstream client constructor
+     * @param name upstream name
+     * @param connectTimeoutMillis connection timeout
+     * @param requestTimeoutMillis request timeout (each attempt)
+     * @param maxAttempts maximum attempts including first one
+     * @param backoffMillis base backoff between attempts, doubled each retry
+     * @param hedgeDelayMillis delay before hedged request is sent, 0 disables hedging
+     * @param failureThreshold consecutive failed or slow calls to open breaker
+     * @param slowCallMillis calls slower than this are counted as failures
+     * @param openMillis how long breaker stays open before probe request
+     */
+    public UpstreamClient(String name, long connectTimeoutMillis, long requestTimeoutMillis,
+                          int maxAttempts, long backoffMillis, long hedgeDelayMillis,
+                          int failureThreshold, long slowCallMillis, long openMillis) {
+        this.name = name;
+        this.client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        this.failureThreshold = failureThreshold;
+        this.slowCallMillis = slowCallMillis;
+        this.openMillis = openMillis;
+    }
+
+
+    /**
+     * Sends GET request with retries and hedging unless circuit breaker is open
+     * @param url request URL
+     * @return response body or null if request failed or was skipped by open breaker
+     * @throws CancellationException if current request is cancelled
+     */
+    public String get(String url) {
+        return call(url, this::receive);
+    }
+
+
+    /**
+     * Sends GET request and parses response body as it arrives, without holding whole
+     * body in memory. Parse failure is retried like network failure, no hedging
+     * @param url request URL
+     * @param parser response body parser
+     * @param <T> parse result type
+     * @return parse result or null if request failed or was skipped by open breaker
+     * @throws CancellationException if current request is cancelled
+     */
+    public <T> T get(String url, BodyParser<T> parser) {
+        return call(url, request -> receive(request, parser));
+    }
+
+
+    private <T> T call(String url, Exchange<T> exchange) {
+        try (Trace.Span span = Trace.span("GET " + name)) {
+            try {
+                Cancellation.check();
+                T body = call(url, span, exchange);
+                span.tag("ok", body != null);
+                return body;
+            } catch (CancellationException e) {
+                span.tag("cancelled", true);
+                throw e;
+            }
+        }
+    }
+
+
+    private <T> T call(String url, Trace.Span span, Exchange<T> exchange) {
+        if (offline) {
+            RequestLog.warn(ERROR_OFFLINE + name + " " + url);
+            return null;
+        }
+        if (Cancellation.remainingMillis(requestTimeoutMillis) == 0) {
+            RequestLog.warn(ERROR_DEADLINE + name + " " + url);
+            span.tag("deadline", true);
+            return null;
+        }
+        if (!allowRequest()) {
+            RequestLog.warn(ERROR_CIRCUIT_OPEN + name + " " + url);
+            span.tag("breaker", "open");
+            return null;
+        }
+        depositRetryToken();
+
+        for (int attempt = 1; ; attempt++) {
+            span.tag("attempts", attempt);
+            long startTime = System.nanoTime();
+            long timeoutMillis = Cancellation.remainingMillis(requestTimeoutMillis);
+            try {
+                Cancellation.check();
+                if (timeoutMillis == 0) throw new HttpTimeoutException("Request deadline exceeded");
+                HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .timeout(Duration.ofMillis(timeoutMillis))
+                    .GET().build();
+                T body = exchange.send(request);
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                onResult(elapsedMillis <= slowCallMillis);
+                return body;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                onResult(false);
+                return null;
+            } catch (CancellationException e) {
+                onAbandoned();
+                throw e;
+            } catch (IOException e) {
+                if (e instanceof HttpTimeoutException && timeoutMillis < requestTimeoutMillis) {
+                    // attempt was cut by request deadline, upstream is not to blame
+                    span.tag("deadline", true);
+                    onAbandoned();
+                    return null;
+                }
+                boolean retryable = !(e instanceof UpstreamException) || ((UpstreamException) e).retryable;
+                long backoff = ThreadLocalRandom.current().nextLong(backoffMillis << (attempt - 1)) + 1;
+                boolean retryFits = Cancellation.remainingMillis(Long.MAX_VALUE) > backoff;
+                if (!retryable || !retryFits || attempt >= maxAttempts || !isClosed() || !tryAcquireRetryToken()) {
+                    RequestLog.error(name + " request failed after " + attempt + " attempts", e);
+                    onResult(false);
+                    return null;
+                }
+                if (!Cancellation.sleep(backoff) && Thread.currentThread().isInterrupted()) {
+                    onResult(false);
+                    return null;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Switches all upstream clients to offline mode: requests are skipped,
+     * so only local data (cache, macro data store, fallback snapshot) is used
+     * @param offlineMode true to disable network requests
+     */
+    public static void setOffline(boolean offlineMode) {
+        offline = offlineMode;
+    }
+
+
+    public static boolean isOffline() {
+        return offline;
+    }
+
+
+    /**
+     * Sends request and returns response body
+     * @param request HTTP request
+     * @return response body
+     * @throws IOException if request failed or response status is not OK
+     * @throws InterruptedException if thread is interrupted
+     */
+    private String receive(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(request);
+        checkStatus(response.statusCode(), request);
+        return response.body();
+    }
+
+
+    /**
+     * Sends request and parses response body stream, stream is closed after parsing.
+     * Request timeout only covers response headers, so body stream is closed if it
+     * is not parsed within the rest of attempt timeout
+     * @param request HTTP request
+     * @param parser response body parser
+     * @param <T> parse result type
+     * @return parse result
+     * @throws IOException if request or parsing failed or response status is not OK
+     * @throws HttpTimeoutException if body is not received within attempt timeout
+     * @throws InterruptedException if thread is interrupted
+     */
+    private <T> T receive(HttpRequest request, BodyParser<T> parser) throws IOException, InterruptedException {
+        long startTime = System.nanoTime();
+        long timeoutMillis = request.timeout().map(Duration::toMillis).orElse(requestTimeoutMillis);
+        CompletableFuture<HttpResponse<InputStream>> future = client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        Runnable unregister = onCancel(future);
+        try {
+            HttpResponse<InputStream> response = await(future);
+            try (InputStream body = response.body()) {
+                checkStatus(response.statusCode(), request);
+                long remainingMillis = timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                AtomicBoolean expired = new AtomicBoolean(remainingMillis <= 0);
+                if (expired.get()) throw new HttpTimeoutException(ERROR_BODY_TIMEOUT + timeoutMillis + " ms");
+                ScheduledFuture<?> timer = bodyTimer.schedule(() -> {
+                    expired.set(true);
+                    closeQuietly(body);                         // unblocks parser waiting for data
+                }, remainingMillis, TimeUnit.MILLISECONDS);
+                try {
+                    T result = parser.parse(body);
+                    if (expired.get()) throw new HttpTimeoutException(ERROR_BODY_TIMEOUT + timeoutMillis + " ms");
+                    return result;
+                } catch (IOException | RuntimeException e) {
+                    // parser wraps read failure of closed stream, report it as timeout
+                    if (expired.get()) throw new HttpTimeoutException(ERROR_BODY_TIMEOUT + timeoutMillis + " ms");
+                    throw e;
+                } finally {
+                    timer.cancel(false);
+                }
+            }
+        } finally {
+            unregister.run();
+        }
+    }
+
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+
+    private static void checkStatus(int statusCode, HttpRequest request) throws UpstreamException {
+        if (statusCode != HTTP_OK) {
+            throw new UpstreamException("Status code " + statusCode + " for URL=" + request.uri(), statusCode >= 500 || statusCode == 429);
+        }
+    }
+
+
+    /**
+     * Sends request, if no response in hedge delay sends hedged request and takes first response
+     * @param request HTTP request
+     * @return HTTP response
+     * @throws IOException if request(s) failed
+     * @throws InterruptedException if thread is interrupted
+     */
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        CompletableFuture<HttpResponse<String>> primary = sendAsync(request);
+        if (hedgeDelayMillis <= 0) return await(primary);
+        try {
+            return primary.get(hedgeDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (TimeoutException e) {
+            if (!tryAcquireRetryToken()) return await(primary);
+        }
+
+        CompletableFuture<HttpResponse<String>> hedge = sendAsync(request);
+        CompletableFuture<HttpResponse<String>> first = new CompletableFuture<>();
+        primary.whenComplete((response, error) -> {
+            if (error == null) first.complete(response);
+            else if (hedge.isCompletedExceptionally()) first.completeExceptionally(error);
+        });
+        hedge.whenComplete((response, error) -> {
+            if (error == null) first.complete(response);
+            else if (primary.isCompletedExceptionally()) first.completeExceptionally(error);
+        });
+        try {
+            return await(first);
+        } finally {
+            primary.cancel(true);
+            hedge.cancel(true);
+        }
+    }
+
+
+    /**
+     * Sends request asynchronously, exchange is aborted if current request is cancelled
+     * @param request HTTP request
+     * @return future response
+     */
+    private CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request) {
+        CompletableFuture<HttpResponse<String>> future = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        Runnable unregister = onCancel(future);
+        future.whenComplete((response, error) -> unregister.run());
+        return future;
+    }
+
+
+    /**
+     * Cancels exchange if current request is cancelled
+     * @param future exchange future
+     * @return action that removes cancel listener
+     */
+    private static Runnable onCancel(CompletableFuture<?> future) {
+        Cancellation cancellation = Cancellation.current();
+        if (cancellation == null) return () -> {};
+        return cancellation.onCancel(() -> future.cancel(true));
+    }
+
+
+    private static <T> HttpResponse<T> await(CompletableFuture<HttpResponse<T>> future)
+            throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof CancellationException) throw (CancellationException) cause;
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+
+
+    /**
+     * Checks circuit breaker: closed passes all requests, open fails fast until
+     * cool down elapses, then single probe request is let through (half open)
+     * @return true if request may be sent
+     */
+    private synchronized boolean allowRequest() {
+        if (state == State.CLOSED) return true;
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Records call result in circuit breaker
+     * @param success true if call succeeded in time
+     */
+    private synchronized void onResult(boolean success) {
+        if (success) {
+            consecutiveFailures = 0;
+            state = State.CLOSED;
+        } else if (state == State.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) RequestLog.warn("Circuit breaker opened: " + name);
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+        probeInFlight = false;
+    }
+
+
+    /**
+     * Releases half open probe slot of call abandoned by cancelled request
+     */
+    private synchronized void onAbandoned() {
+        probeInFlight = false;
+    }
+
+
+    private synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+
+    private static synchronized void depositRetryToken() {
+        retryTokens = Math.min(RETRY_BUDGET_MAX, retryTokens + RETRY_BUDGET_RATIO);
+    }
+
+
+    private static synchronized boolean tryAcquireRetryToken() {
+        if (retryTokens < 1.0) return false;
+        retryTokens -= 1.0;
+        return true;
+    }
+
+
+    public String getName() { return name; }
+    public synchronized State getState() { return state; }
+
+
+    /**
+     * Parses response body stream
+     * @param <T> parse result type
+     */
+    public interface BodyParser<T> {
+        T parse(InputStream body) throws IOException;
+    }
+
+
+    /**
+     * Single request attempt: sends request and returns its result
+     */
+    private interface Exchange<T> {
+        T send(HttpRequest request) throws IOException, InterruptedException;
+    }
+
+
+    /**
+     * Upstream responded with error status
+     */
+    private static class UpstreamException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final boolean retryable;
+
+        UpstreamException(String message, boolean retryable) {
+            super(message);
+            this.retryable = retryable;
+        }
+    }
+
+}
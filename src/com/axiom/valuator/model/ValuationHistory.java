@@ -0,0 +1,527 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Persistent valuation history
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only log of valuation results in memory-mapped file: inputs hash, company,
+ * country, per-method values, blended value, data versions and compressed HTML report.
+ * File is mapped in fixed size segments, records never cross segment boundary.
+ * Record length is written last, so record torn by crash is dropped when file is
+ * reopened. Secondary indexes (company name, country, date) are kept in memory as
+ * primitive arrays of record ids and rebuilt by scanning record headers on open;
+ * records are appended in time order, so date lookup is binary search over ids.
+ * <pre>
+ * segment 0:  MAGIC, VERSION, records...        segment N:  records...
+ * record:     length, meta length, meta CRC, report CRC, meta, deflated report
+ * </pre>
+ */
+public class ValuationHistory {
+
+    public static final String HISTORY_PATH = System.getProperty("valuator.history.file", "cache/valuation_history.bin");
+    public static final int MAGIC = 0x56484953;                      // "VHIS"
+    public static final int VERSION = 1;
+    public static final int FILE_HEADER_BYTES = 8;
+    public static final int SEGMENT_BYTES = 64 << 20;
+    public static final int RECORD_HEADER_BYTES = 16;
+    public static final int SKIP_TO_NEXT_SEGMENT = -1;               // rest of segment is unused
+    public static final int MAX_LIMIT = 1000;
+    public static final String[] VALUE_FIELDS = {
+        "ebitda", "multiples", "dcf", "realOptions", "exitValue", "presentValue" };
+
+    public static final String ERROR_WRONG_FORMAT = "Not a valuation history file ";
+    public static final String ERROR_RECORD_TOO_LARGE = "Valuation record exceeds history segment: ";
+
+    private static volatile ValuationHistory defaultHistory;
+    private static volatile boolean defaultHistoryChecked = false;
+
+    private final FileChannel channel;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long tail;                                               // offset of next record
+    private int count;                                               // number of records
+    private long[] offsets = new long[1024];                         // record id -> file offset
+    private long[] timestamps = new long[1024];                      // record id -> time, non-decreasing
+    private final Map<String, IdList> byCompany = new HashMap<>();
+    private final Map<String, IdList> byCountry = new HashMap<>();
+
+    //-----------------------------------------------------------------------------------------------------
+
+
+    /**
+     * Opens or creates history file and rebuilds indexes
+     * @param path history file path
+     * @throws IOException if file can't be opened or has wrong format
+     */
+    public ValuationHistory(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                MappedByteBuffer first = segment(0);
+                first.putInt(0, MAGIC);
+                first.putInt(4, VERSION);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+                channel.read(header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                    throw new IOException(ERROR_WRONG_FORMAT + path);
+            }
+            tail = FILE_HEADER_BYTES;
+            scan();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Returns history at default path opened once, null if it can't be opened
+     * @return valuation history or null
+     */
+    public static ValuationHistory getDefault() {
+        if (!defaultHistoryChecked) {
+            synchronized (ValuationHistory.class) {
+                if (!defaultHistoryChecked) {
+                    try {
+                        defaultHistory = new ValuationHistory(Paths.get(HISTORY_PATH));
+                    } catch (IOException e) {
+                        RequestLog.error("Valuation history is not available " + HISTORY_PATH, e);
+                    }
+                    defaultHistoryChecked = true;
+                }
+            }
+        }
+        return defaultHistory;
+    }
+
+
+    /**
+     * Hashes valuation inputs, equal inputs have equal hash
+     * @param inputs company data JSON
+     * @return first 64 bits of SHA-256 of inputs
+     */
+    public static long hashInputs(JSONObject inputs) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(inputs.toString().getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Appends valuation record and indexes it
+     * @param record valuation record with report
+     * @return record id
+     * @throws IllegalArgumentException if record doesn't fit into segment
+     */
+    public long append(Record record) {
+        byte[] reportBytes = utf8(record.report);
+        byte[] report = deflate(reportBytes);
+        CRC32 crc = new CRC32();
+        crc.update(report);
+        int reportCrc = (int) crc.getValue();
+
+        synchronized (this) {
+            long timestamp = Math.max(System.currentTimeMillis(), count > 0 ? timestamps[count - 1] : 0);
+            byte[] meta = encodeMeta(record, timestamp, reportBytes.length);
+            crc.reset();
+            crc.update(meta);
+            int length = RECORD_HEADER_BYTES + meta.length + report.length;
+            if (length > SEGMENT_BYTES - FILE_HEADER_BYTES) throw new IllegalArgumentException(ERROR_RECORD_TOO_LARGE + length);
+
+            int position = (int) (tail % SEGMENT_BYTES);
+            if (SEGMENT_BYTES - position < length) {
+                if (SEGMENT_BYTES - position >= Integer.BYTES)
+                    mappedSegment(tail).putInt(position, SKIP_TO_NEXT_SEGMENT);
+                tail += SEGMENT_BYTES - position;
+                position = 0;
+            }
+            MappedByteBuffer buffer = mappedSegment(tail);
+            buffer.putInt(position + 4, meta.length);
+            buffer.putInt(position + 8, (int) crc.getValue());
+            buffer.putInt(position + 12, reportCrc);
+            buffer.put(position + RECORD_HEADER_BYTES, meta);
+            buffer.put(position + RECORD_HEADER_BYTES + meta.length, report);
+            buffer.putInt(position, length);                            // publish record
+
+            int id = index(tail, timestamp, record.company, record.country);
+            tail += length;
+            return id;
+        }
+    }
+
+
+    /**
+     * Returns record without report
+     * @param id record id
+     * @return record or null if there is no such record
+     */
+    public Record get(long id) {
+        long offset;
+        MappedByteBuffer buffer;
+        synchronized (this) {
+            if (id < 0 || id >= count) return null;
+            offset = offsets[(int) id];
+            buffer = segments[(int) (offset / SEGMENT_BYTES)];
+        }
+        return decodeMeta(buffer, (int) (offset % SEGMENT_BYTES), (int) id);
+    }
+
+
+    /**
+     * Returns stored HTML report of valuation
+     * @param id record id
+     * @return report or null if there is no such record or report is damaged
+     */
+    public String getReport(long id) {
+        long offset;
+        MappedByteBuffer buffer;
+        synchronized (this) {
+            if (id < 0 || id >= count) return null;
+            offset = offsets[(int) id];
+            buffer = segments[(int) (offset / SEGMENT_BYTES)];
+        }
+        int position = (int) (offset % SEGMENT_BYTES);
+        int length = buffer.getInt(position);
+        int metaLength = buffer.getInt(position + 4);
+        int reportOffset = position + RECORD_HEADER_BYTES + metaLength;
+        byte[] report = new byte[length - RECORD_HEADER_BYTES - metaLength];
+        buffer.get(reportOffset, report);
+        CRC32 crc = new CRC32();
+        crc.update(report);
+        if ((int) crc.getValue() != buffer.getInt(position + 12)) return null;
+        return inflate(report, buffer.getInt(position + RECORD_HEADER_BYTES + metaLength - Integer.BYTES));
+    }
+
+
+    /**
+     * Finds valuations by company, country and date range, newest first. Company or
+     * country index narrows candidates, date range is mapped to id range by binary search.
+     * @param company company name or null for any company (case insensitive)
+     * @param country country code or null for any country
+     * @param fromMillis start time (inclusive)
+     * @param toMillis end time (exclusive)
+     * @param limit maximum number of records (up to MAX_LIMIT)
+     * @return records without reports
+     */
+    public List<Record> find(String company, String country, long fromMillis, long toMillis, int limit) {
+        limit = Math.max(0, Math.min(limit, MAX_LIMIT));
+        String companyKey = company == null ? null : normalize(company);
+        String countryKey = country == null ? null : normalize(country);
+        List<Record> found = new ArrayList<>();
+        int[] ids;
+        int size;
+        int firstId;
+        int endId;
+        synchronized (this) {
+            firstId = lowerBound(fromMillis);
+            endId = lowerBound(toMillis);
+            IdList companyIds = companyKey == null ? null : byCompany.get(companyKey);
+            IdList countryIds = countryKey == null ? null : byCountry.get(countryKey);
+            if ((companyKey != null && companyIds == null) || (countryKey != null && countryIds == null)) return found;
+            IdList candidates = companyIds;
+            if (candidates == null || (countryIds != null && countryIds.size < candidates.size)) candidates = countryIds;
+            ids = candidates == null ? null : candidates.ids;
+            size = candidates == null ? 0 : candidates.size;
+        }
+
+        if (ids == null) {
+            for (int id = endId - 1; id >= firstId && found.size() < limit; id--) found.add(get(id));
+            return found;
+        }
+        int index = Arrays.binarySearch(ids, 0, size, endId);
+        for (int i = (index < 0 ? -index - 1 : index) - 1; i >= 0 && found.size() < limit; i--) {
+            if (ids[i] < firstId) break;
+            Record record = get(ids[i]);
+            if (companyKey != null && !normalize(record.company).equals(companyKey)) continue;
+            if (countryKey != null && !normalize(record.country).equals(countryKey)) continue;
+            found.add(record);
+        }
+        return found;
+    }
+
+
+    public synchronized int size() {
+        return count;
+    }
+
+
+    /**
+     * Flushes mapped segments to disk
+     */
+    public synchronized void force() {
+        for (MappedByteBuffer segment : segments) segment.force();
+    }
+
+
+    /**
+     * Rebuilds indexes from record headers, stops at end of log or at torn record
+     * @throws IOException if file can't be mapped
+     */
+    private void scan() throws IOException {
+        long fileSize = channel.size();
+        while (tail < fileSize) {
+            int segmentIndex = (int) (tail / SEGMENT_BYTES);
+            int position = (int) (tail % SEGMENT_BYTES);
+            MappedByteBuffer buffer = segment(segmentIndex);
+            int length = SEGMENT_BYTES - position >= RECORD_HEADER_BYTES ? buffer.getInt(position) : SKIP_TO_NEXT_SEGMENT;
+            if (length == SKIP_TO_NEXT_SEGMENT) {
+                tail = (long) (segmentIndex + 1) * SEGMENT_BYTES;
+                continue;
+            }
+            if (length < RECORD_HEADER_BYTES || length > SEGMENT_BYTES - position) break;
+            int metaLength = buffer.getInt(position + 4);
+            if (metaLength <= 0 || metaLength > length - RECORD_HEADER_BYTES) break;
+            byte[] meta = new byte[metaLength];
+            buffer.get(position + RECORD_HEADER_BYTES, meta);
+            CRC32 crc = new CRC32();
+            crc.update(meta);
+            if ((int) crc.getValue() != buffer.getInt(position + 8)) break;
+            Record record = decodeMeta(buffer, position, count);
+            index(tail, record.timestamp, record.company, record.country);
+            tail += length;
+        }
+    }
+
+
+    private int index(long offset, long timestamp, String company, String country) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            timestamps = Arrays.copyOf(timestamps, count * 2);
+        }
+        int id = count++;
+        offsets[id] = offset;
+        timestamps[id] = timestamp;
+        byCompany.computeIfAbsent(normalize(company), k -> new IdList()).add(id);
+        byCountry.computeIfAbsent(normalize(country), k -> new IdList()).add(id);
+        return id;
+    }
+
+
+    /**
+     * Returns first record id with timestamp not earlier than given time
+     */
+    private int lowerBound(long millis) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] < millis) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+
+    private MappedByteBuffer segment(int index) throws IOException {
+        if (index < segments.length) return segments[index];
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, index + 1);
+        for (int i = segments.length; i <= index; i++) {
+            grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * SEGMENT_BYTES, SEGMENT_BYTES);
+        }
+        segments = grown;
+        return grown[index];
+    }
+
+
+    private MappedByteBuffer mappedSegment(long offset) {
+        try {
+            return segment((int) (offset / SEGMENT_BYTES));
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't map valuation history at " + offset, e);
+        }
+    }
+
+
+    private static byte[] encodeMeta(Record record, long timestamp, int reportLength) {
+        byte[] company = utf8(record.company);
+        byte[] country = utf8(record.country);
+        byte[] versions = utf8(record.dataVersions);
+        ByteBuffer meta = ByteBuffer.allocate(Long.BYTES * 2 + Integer.BYTES * 5 + Double.BYTES * VALUE_FIELDS.length
+            + company.length + country.length + versions.length);
+        meta.putLong(timestamp).putLong(record.inputsHash).putInt(record.exitYear);
+        for (double value : record.values) meta.putDouble(value);
+        meta.putInt(company.length).put(company);
+        meta.putInt(country.length).put(country);
+        meta.putInt(versions.length).put(versions);
+        meta.putInt(reportLength);
+        return meta.array();
+    }
+
+
+    private static Record decodeMeta(MappedByteBuffer buffer, int position, int id) {
+        byte[] bytes = new byte[buffer.getInt(position + 4)];
+        buffer.get(position + RECORD_HEADER_BYTES, bytes);
+        ByteBuffer meta = ByteBuffer.wrap(bytes);
+        long timestamp = meta.getLong();
+        long inputsHash = meta.getLong();
+        int exitYear = meta.getInt();
+        double[] values = new double[VALUE_FIELDS.length];
+        for (int i = 0; i < values.length; i++) values[i] = meta.getDouble();
+        String company = readString(meta);
+        String country = readString(meta);
+        String versions = readString(meta);
+        return new Record(id, timestamp, inputsHash, company, country, exitYear, values, versions, null);
+    }
+
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    private static byte[] utf8(String value) {
+        return (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    private static byte[] deflate(byte[] report) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(report);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, report.length / 4));
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) output.write(chunk, 0, deflater.deflate(chunk));
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+
+    private static String inflate(byte[] deflated, int reportLength) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(reportLength + 16);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(chunk);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) return null;
+                output.write(chunk, 0, inflated);
+            }
+            return output.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+
+    private static String normalize(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+
+    /**
+     * Valuation record, report is loaded separately by getReport
+     */
+    public static class Record {
+        public final long id;
+        public final long timestamp;
+        public final long inputsHash;
+        public final String company;
+        public final String country;
+        public final int exitYear;
+        public final double[] values;                                // by VALUE_FIELDS, NaN if not valuated
+        public final String dataVersions;                            // JSON object string
+        public final String report;
+
+        /**
+         * New valuation record
+         * @param inputsHash hash of company data (see hashInputs)
+         * @param company company name
+         * @param country country code
+         * @param exitYear venture exit year
+         * @param values method values, blended exit value and present value by VALUE_FIELDS
+         * @param dataVersions versions of macro and stock data as JSON object string
+         * @param report HTML report
+         */
+        public Record(long inputsHash, String company, String country, int exitYear,
+                      double[] values, String dataVersions, String report) {
+            this(-1, 0, inputsHash, company, country, exitYear, values, dataVersions, report);
+        }
+
+        private Record(long id, long timestamp, long inputsHash, String company, String country, int exitYear,
+                       double[] values, String dataVersions, String report) {
+            if (values.length != VALUE_FIELDS.length) throw new IllegalArgumentException("Expected values " + Arrays.toString(VALUE_FIELDS));
+            this.id = id;
+            this.timestamp = timestamp;
+            this.inputsHash = inputsHash;
+            this.company = company;
+            this.country = country;
+            this.exitYear = exitYear;
+            this.values = values;
+            this.dataVersions = dataVersions;
+            this.report = report;
+        }
+
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject()
+                .put("id", id)
+                .put("time", Instant.ofEpochMilli(timestamp).toString())
+                .put("inputsHash", String.format("%016x", inputsHash))
+                .put("company", company)
+                .put("country", country)
+                .put("exitYear", exitYear);
+            for (int i = 0; i < VALUE_FIELDS.length; i++) {
+                if (!Double.isNaN(values[i])) json.put(VALUE_FIELDS[i], values[i]);
+            }
+            if (!dataVersions.isEmpty()) json.put("dataVersions", new JSONObject(dataVersions));
+            return json;
+        }
+    }
+
+
+    /**
+     * Growable sorted array of record ids
+     */
+    private static class IdList {
+        int[] ids = new int[4];
+        int size = 0;
+
+        void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+
+}
@@ -8,9 +8,20 @@
 package com.axiom.valuator.model;
 
 import com.axiom.valuator.math.FinancialMath;
+import org.json.JSONObject;
 
+import java.time.LocalDate;
 import java.time.Year;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Company Valuation
@@ -23,9 +34,63 @@ public class ValuatorEngine {
     public static final double MAX_MARKET_MULTIPLE = 5.0;
     public static final double COEFFICIENT_TO_MULTIPLE = 10;
 
+    public static final double EBITDA_WEIGHT = 0.4;
+    public static final double MULTIPLES_WEIGHT = 0.3;
+    public static final double DCF_WEIGHT = 0.3;
+
+    public static final int REAL_OPTIONS_STEPS = Integer.getInteger("valuator.realOptions.steps", 5000);
+    public static final double DEFAULT_VOLATILITY = 0.6;          // venture-stage company without market data
+    public static final double MIN_VOLATILITY = 0.1;
+    public static final double MAX_VOLATILITY = 1.5;
+    public static final double EXPANSION_SCALE = 0.5;             // expand option adds 50% of enterprise value
+    public static final double EXPANSION_COST_RATIO = 0.3;        // at cost of 30% of present enterprise value
+    public static final double SALVAGE_RATIO = 0.5;               // abandon option recovers half of invested capital
+
+    public static final long PEERS_FETCH_TIMEOUT_MS = 5000;
+    public static final double PEERS_TRIM_FRACTION = 0.2;
+    public static final int MIN_SECTOR_COMPANIES = 3;
+    public static final String ERROR_NO_PEERS = "No comparable stock data available for ";
+    public static final String ERROR_NO_SNAPSHOTS = "No comparable stock data snapshots on or before ";
+
+    /**
+     * Peer group multiples aggregation method
+     */
+    public enum PeerAggregation {
+        MEDIAN("median", "median"),
+        TRIMMED_MEAN("trimmedMean", "trimmed mean");
+
+        public final String code;
+        private final String label;
+
+        PeerAggregation(String code, String label) {
+            this.code = code;
+            this.label = label;
+        }
+
+        /**
+         * @param code aggregation code (median, trimmedMean)
+         * @return aggregation or null if code is unknown
+         */
+        public static PeerAggregation parse(String code) {
+            for (PeerAggregation aggregation : values()) if (aggregation.code.equals(code)) return aggregation;
+            return null;
+        }
+    }
+
+    private static final ExecutorService peersFetcher = Executors.newFixedThreadPool(
+        CompanyData.MAX_COMPARABLE_STOCKS, runnable -> {
+            Thread thread = new Thread(runnable, "peers-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    private static final SingleFlight<StockData> peerFetches = new SingleFlight<>(peersFetcher);
+
     private final CountryData countryData;
     private final CompanyData company;
     private final int exitYear;
+    private final double multiplesScale;
+    private PeerAggregation peerAggregation = PeerAggregation.MEDIAN;
+    private volatile List<StockData> peers;
 
     public ValuatorEngine(CompanyData companyData) {
         this(companyData, Year.now().getValue());
@@ -34,8 +99,164 @@ public class ValuatorEngine {
 
     public ValuatorEngine(CompanyData companyData, int exitYear) {
         this.company = companyData;
-        this.countryData = new CountryData(company.getCountry());
+        try (Trace.Span span = Trace.span("CountryData")) {
+            span.tag("country", company.getCountry().getCountry());
+            this.countryData = new CountryData(company.getCountry());
+        }
+        this.exitYear = exitYear;
+        this.multiplesScale = 1.0;
+        PeerAggregation aggregation = PeerAggregation.parse(company.getPeerAggregation());
+        if (aggregation != null) this.peerAggregation = aggregation;
+    }
+
+
+    /**
+     * What-if scenario engine sharing pre-fetched data snapshot of base engine
+     * @param base base engine with pre-fetched country and peers data
+     * @param companyData scenario company data
+     * @param countryData scenario country data
+     * @param multiplesScale scale factor applied to comparable multiples
+     */
+    ValuatorEngine(ValuatorEngine base, CompanyData companyData, CountryData countryData, double multiplesScale) {
+        this(base, companyData, countryData, multiplesScale, base.exitYear);
+    }
+
+
+    /**
+     * What-if scenario engine with its own exit year
+     * @param base base engine with pre-fetched country and peers data
+     * @param companyData scenario company data
+     * @param countryData scenario country data
+     * @param multiplesScale scale factor applied to comparable multiples
+     * @param exitYear scenario exit year
+     */
+    ValuatorEngine(ValuatorEngine base, CompanyData companyData, CountryData countryData, double multiplesScale,
+                   int exitYear) {
+        this.company = companyData;
+        this.countryData = countryData;
         this.exitYear = exitYear;
+        this.multiplesScale = multiplesScale;
+        this.peerAggregation = base.peerAggregation;
+        this.peers = base.peers;
+    }
+
+
+    /**
+     * Blends valuation methods results to single exit value, methods without value
+     * (NaN: not finished within deadline or not computable, e.g. DCF with WACC not
+     * above GDP growth) are skipped and weights are rescaled over available methods.
+     * Callers must flag skipped methods, ValuationService lists them in the report
+     * @param ebitda EBITDA multiple valuation or NaN
+     * @param multiples comparable multiples valuation or NaN
+     * @param dcf discounted cash flow valuation or NaN
+     * @return weighted average exit value, NaN if no method is available
+     */
+    public static double getBlendedValue(double ebitda, double multiples, double dcf) {
+        double value = 0;
+        double weights = 0;
+        if (!Double.isNaN(ebitda)) { value += ebitda * EBITDA_WEIGHT; weights += EBITDA_WEIGHT; }
+        if (!Double.isNaN(multiples)) { value += multiples * MULTIPLES_WEIGHT; weights += MULTIPLES_WEIGHT; }
+        if (!Double.isNaN(dcf)) { value += dcf * DCF_WEIGHT; weights += DCF_WEIGHT; }
+        return weights > 0 ? value / weights : Double.NaN;
+    }
+
+
+    /**
+     * Blends valuation methods results to single exit value, for venture-stage company
+     * real options value takes weights of EBITDA multiple and DCF methods
+     * @param ebitda EBITDA multiple valuation or NaN
+     * @param multiples comparable multiples valuation or NaN
+     * @param dcf discounted cash flow valuation or NaN
+     * @param realOptions real options valuation, NaN if not valuated or not finished
+     * @return weighted average exit value, NaN if no method is available
+     */
+    public double getExitValue(double ebitda, double multiples, double dcf, double realOptions) {
+        if (!isVentureStage()) return getBlendedValue(ebitda, multiples, dcf);
+        return getBlendedValue(realOptions, multiples, realOptions);
+    }
+
+
+    /**
+     * Blended exit value of all valuation methods without report
+     * @return weighted average exit value
+     */
+    public double valuateExitValue() {
+        if (isVentureStage()) {
+            double realOptions = valuateRealOptions(null, false);
+            return getBlendedValue(realOptions, valuateComparables(null, false), realOptions);
+        }
+        return getBlendedValue(valuateEBITDA(null, false), valuateComparables(null, false), valuateDCF(null, false));
+    }
+
+
+    /**
+     * Checks if company is at venture stage: EBITDA at exit year is not positive,
+     * so EBITDA multiple and DCF methods are not meaningful
+     * @return true if company is valuated with real options instead of EBITDA multiple and DCF
+     */
+    public boolean isVentureStage() {
+        double[] ebitda = company.getEBITDA();
+        if (ebitda == null || ebitda.length == 0) return true;
+        int yearIndex = Math.max(0, Math.min(ebitda.length - 1, exitYear - company.getDataFirstYear()));
+        return ebitda[yearIndex] <= 0;
+    }
+
+
+    /**
+     * Tornado sensitivity analysis with default input ranges
+     * @param report string builder to write report
+     * @param plainText if true writes plaint text report, otherwise HTML
+     * @return swing bars ranked by swing of blended exit value
+     */
+    public List<SensitivityAnalysis.SwingBar> valuateSensitivity(StringBuilder report, boolean plainText) {
+        return valuateSensitivity(report, plainText, SensitivityAnalysis.getDefaultRanges());
+    }
+
+
+    /**
+     * Tornado sensitivity analysis: flexes each input by its range and evaluates
+     * all perturbations in parallel against one pre-fetched data snapshot
+     * @param report string builder to write report
+     * @param plainText if true writes plaint text report, otherwise HTML
+     * @param ranges input ranges (absolute for rates and growth, relative for share and multiples)
+     * @return swing bars ranked by swing of blended exit value
+     */
+    public List<SensitivityAnalysis.SwingBar> valuateSensitivity(StringBuilder report, boolean plainText,
+                                                                 Map<SensitivityAnalysis.Driver, Double> ranges) {
+        String sector = company.getSector();
+        if (sector == null || sector.isBlank()) getPeers();    // pre-fetch snapshot once
+        SensitivityAnalysis analysis = new SensitivityAnalysis(this, company, countryData, ranges);
+        List<SensitivityAnalysis.SwingBar> bars = analysis.run();
+        if (report != null) analysis.writeReport(bars, report, plainText);
+        return bars;
+    }
+
+
+    /**
+     * Goal seek over pre-fetched data snapshot of this engine
+     * @return goal seek solving inputs for target valuation
+     */
+    public GoalSeek goalSeek() {
+        String sector = company.getSector();
+        if (sector == null || sector.isBlank()) getPeers();    // pre-fetch snapshot once
+        return new GoalSeek(this, company, countryData, exitYear);
+    }
+
+
+    /**
+     * Checks if all data required to valuate company is available locally
+     * @param company company data
+     * @return true if no World Bank or Alpha Vantage requests are required
+     */
+    public static boolean isDataCached(CompanyData company) {
+        if (!CountryData.isAvailableLocally(company.getCountry(), CountryData.DEFAULT_YEARS_OF_HISTORY)) return false;
+        String sector = company.getSector();
+        if (sector != null && !sector.isBlank()) return true;
+        if (company.getMultiplesAsOf() != null) return true;       // snapshots are never fetched
+        for (String ticker : company.getComparableStocks()) {
+            if (!StockData.isCached(ticker)) return false;
+        }
+        return true;
     }
 
 
@@ -44,6 +265,54 @@ public class ValuatorEngine {
     }
 
 
+    /**
+     * Describes versions of data valuation is based on: macro data source and years,
+     * sector index size or latest reported quarter of each fetched peer
+     * @return data versions JSON object
+     */
+    public JSONObject getDataVersions() {
+        JSONObject versions = new JSONObject();
+        String source = countryData.isWorldAverage() ? " fallback world average " : countryData.isFallback() ? " fallback " : " ";
+        versions.put("country", countryData.getCountryCode() + source
+            + countryData.getFirstYear() + "-" + countryData.getLastYear());
+        String sector = company.getSector();
+        if (sector != null && !sector.isBlank()) {
+            SectorMultiplesIndex.Statistics stats = SectorMultiplesIndex.getEVToRevenue(sector, "");
+            versions.put("sector", sector + " n=" + (stats == null ? 0 : stats.count));
+        }
+        List<StockData> fetched = peers;
+        if (fetched != null) {
+            for (StockData peer : fetched) versions.put(peer.getSymbol(), peer.getLatestQuarter());
+        }
+        return versions;
+    }
+
+
+    /**
+     * Marks GDP growth and inflation figures taken from offline fallback snapshot,
+     * world average substituted for country missing in snapshot is named as such
+     * @param plainText if true returns plain text, otherwise HTML
+     * @return fallback note or empty string if figures are from World Bank
+     */
+    private String describeMacroSource(boolean plainText) {
+        if (!countryData.isFallback()) return "";
+        String note = (countryData.isWorldAverage() ? "fallback world average, no data for " + countryData.getCountryCode() + " "
+            : "fallback data ") + countryData.getFirstYear() + "-" + countryData.getLastYear();
+        return plainText ? " [" + note + "]" : " <i class=\"text-warning\">(" + note + ")</i>";
+    }
+
+
+    /**
+     * Sets how comparable multiples of peer group are aggregated
+     * @param aggregation median or trimmed mean
+     * @return this valuator engine
+     */
+    public ValuatorEngine setPeerAggregation(PeerAggregation aggregation) {
+        this.peerAggregation = aggregation;
+        return this;
+    }
+
+
     /**
      * EBITDA multiplier method valuator
      * @param report string builder to write report
@@ -66,9 +335,7 @@ public class ValuatorEngine {
         // Evaluate multiple based on net growth rate and market share
         double inflationRate = countryData.getAverageInflationRate();
         double netGrowthRate = annualGrowthRate - inflationRate;
-        double growthMultiple = Math.min(netGrowthRate * COEFFICIENT_TO_MULTIPLE, MAX_GROWTH_MULTIPLE);
-        double marketShareMultiple = Math.min(marketShare * COEFFICIENT_TO_MULTIPLE, MAX_MARKET_MULTIPLE);
-        double multiple = BASE_EBITDA_MULTIPLE + growthMultiple + marketShareMultiple;
+        double multiple = getEBITDAMultiple(annualGrowthRate);
         double NFP = company.getDebt() - company.getCashAndEquivalents();
         double baseEBITDA = ebitda[0];
 
@@ -96,7 +363,8 @@ public class ValuatorEngine {
                 report.append("EBITDA: ").append(countryData.formatMoney(baseEBITDA)).append("\n");
                 report.append("AAGR (").append(firstYear).append("-").append(lastYear).append("): ")
                     .append(Math.round(annualGrowthRate * 10000.0) / 100.0).append("%\n");
-                report.append("Inflation: ").append(FinancialMath.toPercent(countryData.getAverageInflationRate())).append("\n");
+                report.append("Inflation: ").append(FinancialMath.toPercent(countryData.getAverageInflationRate()))
+                    .append(describeMacroSource(true)).append("\n");
                 report.append("Net Growth Rate: ").append(FinancialMath.toPercent(netGrowthRate)).append("%\n");
                 report.append("Market Share: ").append(FinancialMath.toPercent(marketShare)).append("%<\n");
                 report.append("Multiple: ").append(Math.round(multiple * 100.0) / 100.0).append("x\n");
@@ -109,7 +377,8 @@ public class ValuatorEngine {
                 report.append("Multiple: <b>").append(Math.round(multiple * 100.0) / 100.0).append("x</b><br>");
                 report.append("AAGR (").append(firstYear).append("-").append(lastYear).append("): <b>")
                     .append(Math.round(annualGrowthRate * 10000.0) / 100.0).append("%</b>&nbsp");
-                report.append("Inflation: <b>").append(FinancialMath.toPercent(countryData.getAverageInflationRate())).append("%</b><br>");
+                report.append("Inflation: <b>").append(FinancialMath.toPercent(countryData.getAverageInflationRate())).append("%</b>")
+                    .append(describeMacroSource(false)).append("<br>");
                 report.append("Net Growth Rate: <b>").append(FinancialMath.toPercent(netGrowthRate)).append("%</b>&nbsp");
                 report.append("Market Share: <b>").append(FinancialMath.toPercent(marketShare)).append("%</b><br>");
                 report.append("Net Financial Position: <b>").append(countryData.formatMoney(NFP)).append("</b><br>");
@@ -122,26 +391,61 @@ public class ValuatorEngine {
 
 
     /**
-     * Comparable Multiples method valuator
+     * Evaluates EBITDA multiple based on net growth rate and market share
+     * @param annualGrowthRate EBITDA annual average growth rate
+     * @return EBITDA multiple
+     */
+    private double getEBITDAMultiple(double annualGrowthRate) {
+        double netGrowthRate = annualGrowthRate - countryData.getAverageInflationRate();
+        double growthMultiple = Math.min(netGrowthRate * COEFFICIENT_TO_MULTIPLE, MAX_GROWTH_MULTIPLE);
+        double marketShareMultiple = Math.min(company.getMarketShare() * COEFFICIENT_TO_MULTIPLE, MAX_MARKET_MULTIPLE);
+        return BASE_EBITDA_MULTIPLE + growthMultiple + marketShareMultiple;
+    }
+
+
+    /**
+     * Comparable Multiples method valuator, multiples of peer group are aggregated
+     * with median or trimmed mean, failed, throttled or slow peers are skipped.
+     * Peer multiples are taken as of company multiples date if it is set.
      * @param report string builder to write report
      * @param plainText if true writes plaint text report, otherwise HTML
      * @return company valuation
      */
     public double valuateMultiples(StringBuilder report, boolean plainText) {
+        return valuateMultiples(report, plainText, company.getMultiplesAsOf());
+    }
+
+
+    /**
+     * Comparable Multiples method valuator at point in time: peers are valued by stock data
+     * snapshots of the latest quarters reported on or before date, peers without snapshot
+     * that old are skipped, nothing is requested from Alpha Vantage
+     * @param report string builder to write report
+     * @param plainText if true writes plaint text report, otherwise HTML
+     * @param asOf point in time or null for the latest stock data
+     * @return company valuation
+     */
+    public double valuateMultiples(StringBuilder report, boolean plainText, LocalDate asOf) {
         try {
             boolean logReport = report != null;
-            String listedCompanyTicker = company.getComparableStock();
+            String[] tickers = company.getComparableStocks();
 
-            StockData sds = new StockData(listedCompanyTicker);
-            double EVtoRevenue = sds.getEVToRevenue();
-            double EVtoEBITDA = sds.getEVToEBITDA();
+            List<StockData> peers = getPeers(asOf);
+            if (peers.isEmpty()) {
+                if (asOf != null) throw new IllegalStateException(ERROR_NO_SNAPSHOTS + asOf + ": " + company.getComparableStock());
+                throw new IllegalStateException(ERROR_NO_PEERS + company.getComparableStock());
+            }
+            double[] revenueMultiples = collectMultiples(peers, true);
+            double[] ebitdaMultiples = collectMultiples(peers, false);
+            double EVtoRevenue = aggregateMultiples(revenueMultiples) * multiplesScale;
+            double EVtoEBITDA = aggregateMultiples(ebitdaMultiples) * multiplesScale;
             double[] revenue = company.getRevenue();
             double[] ebitda = company.getEBITDA();
             int yearIndex = exitYear - company.getDataFirstYear();
             if (yearIndex < 0) return 0;
 
             // calculate EV/Revenue and EV/EBITDA valuations if data available
-            boolean revenueAvailable = (revenue != null);
+            boolean revenueAvailable = (revenue != null && revenueMultiples.length > 0);
             boolean ebitdaAvailable = (ebitda != null && ebitda[yearIndex] > 0 && EVtoEBITDA > 0);
             double EVRevenueValuation = revenueAvailable ? revenue[yearIndex] * EVtoRevenue : 0;
             double EVEBITDAValuation = ebitdaAvailable ? ebitda[yearIndex] * EVtoEBITDA : 0;
@@ -150,28 +454,33 @@ public class ValuatorEngine {
             double equityValue = enterpriseValue - NFP;
 
             if (logReport) {
+                String comparable = describePeers(peers, tickers.length, asOf);
+                String aggregation = peers.size() > 1 ? peerAggregation.label + " " : "";
                 if (plainText) {
                     report.append("\n------------------------------------------------------------\n");
                     report.append(company.getName());
                     report.append(" Multiples Valuation\n");
                     report.append("------------------------------------------------------------\n");
-                    report.append("Comparable: ").append(sds.getName()).append("\n");
-                    report.append("EV/Revenue (").append(sds.getEVToRevenue()).append("x): ")
-                        .append(countryData.formatMoney(EVRevenueValuation)).append("\n");
-                    report.append("EV/EBITDA (").append(sds.getEVToEBITDA()).append("x): ")
-                        .append(countryData.formatMoney(EVEBITDAValuation)).append("\n");
+                    report.append("Comparable: ").append(comparable).append("\n");
+                    report.append("EV/Revenue (").append(aggregation).append(roundMultiple(EVtoRevenue)).append("x): ")
+                        .append(countryData.formatMoney(EVRevenueValuation))
+                        .append(describeSpread(revenueMultiples)).append("\n");
+                    report.append("EV/EBITDA (").append(aggregation).append(roundMultiple(EVtoEBITDA)).append("x): ")
+                        .append(countryData.formatMoney(EVEBITDAValuation))
+                        .append(describeSpread(ebitdaMultiples)).append("\n");
                     report.append("EV average: ").append(countryData.formatMoney(enterpriseValue)).append("\n");
                     report.append("Valuation: ").append(countryData.formatMoney(equityValue)).append("\n");
                 } else {
                     report.append("<p>");
                     report.append("<h5>Comparable Multiples - ")
                         .append(countryData.formatMoney(equityValue)).append("</h5>");
-                    report.append("Comparable: <b>")
-                        .append(sds.getName()).append(" (").append(company.getComparableStock()).append(")</b><br>");
-                    report.append("EV/Revenue (<b>").append(sds.getEVToRevenue()).append("x</b>): <b>")
-                        .append(countryData.formatMoney(EVRevenueValuation)).append("</b><br>");
-                    report.append("EV/EBITDA (<b>").append(sds.getEVToEBITDA()).append("x</b>): <b>")
-                        .append(countryData.formatMoney(EVEBITDAValuation)).append("</b><br>");
+                    report.append("Comparable: <b>").append(comparable).append("</b><br>");
+                    report.append("EV/Revenue (<b>").append(aggregation).append(roundMultiple(EVtoRevenue)).append("x</b>): <b>")
+                        .append(countryData.formatMoney(EVRevenueValuation)).append("</b>")
+                        .append(describeSpread(revenueMultiples)).append("<br>");
+                    report.append("EV/EBITDA (<b>").append(aggregation).append(roundMultiple(EVtoEBITDA)).append("x</b>): <b>")
+                        .append(countryData.formatMoney(EVEBITDAValuation)).append("</b>")
+                        .append(describeSpread(ebitdaMultiples)).append("<br>");
                     report.append("Enterprise Value Average: <b>")
                         .append(countryData.formatMoney(enterpriseValue)).append("</b><br>");
                     report.append("Net Financial Position: <b>").append(countryData.formatMoney(NFP)).append("</b><br>");
@@ -179,19 +488,296 @@ public class ValuatorEngine {
                 }
             }
             return equityValue;
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
-            e.printStackTrace();
-            report.append("<p>");
-            report.append("<h5>Comparable Multiples - not available</h5>");
-            report.append("Data for public company stock '")
-                .append(company.getComparableStock())
-                .append("' is not available (Alpha Vantage)<br>");
-            report.append("</p>");
+            RequestLog.error("Comparable multiples are not available for " + company.getComparableStock(), e);
+            if (report != null) {
+                report.append("<p>");
+                report.append("<h5>Comparable Multiples - not available</h5>");
+                report.append("Data for public company stock '")
+                    .append(company.getComparableStock())
+                    .append(asOf == null ? "' is not available (Alpha Vantage)<br>" : "' is not cached as of " + asOf + "<br>");
+                report.append("</p>");
+            }
         }
         return 0;
     }
 
 
+    /**
+     * Comparables valuator: values company against sector multiples index if sector
+     * is specified, otherwise against comparable stocks peer group
+     * @param report string builder to write report
+     * @param plainText if true writes plaint text report, otherwise HTML
+     * @return company valuation
+     */
+    public double valuateComparables(StringBuilder report, boolean plainText) {
+        String sector = company.getSector();
+        if (sector != null && !sector.isBlank()) return valuateSectorMultiples(report, plainText);
+        return valuateMultiples(report, plainText);
+    }
+
+
+    /**
+     * Sector Multiples method valuator, uses median EV/Revenue and EV/EBITDA of cached
+     * stock overviews in company's industry (or sector if industry has too few companies)
+     * without any Alpha Vantage calls
+     * @param report string builder to write report
+     * @param plainText if true writes plaint text report, otherwise HTML
+     * @return company valuation
+     */
+    public double valuateSectorMultiples(StringBuilder report, boolean plainText) {
+        boolean logReport = report != null;
+        CachedData.ensureInitialized();
+
+        String sector = company.getSector();
+        String industry = resolveIndustry();
+        SectorMultiplesIndex.Statistics revenueStats = SectorMultiplesIndex.getEVToRevenue(sector, industry);
+        SectorMultiplesIndex.Statistics ebitdaStats = SectorMultiplesIndex.getEVToEBITDA(sector, industry);
+        String group = industry.isBlank() ? sector : sector + " / " + industry;
+
+        double[] revenue = company.getRevenue();
+        double[] ebitda = company.getEBITDA();
+        int yearIndex = exitYear - company.getDataFirstYear();
+        if (yearIndex < 0) return 0;
+
+        if (revenueStats == null && ebitdaStats == null) {
+            if (logReport) {
+                report.append("<p>");
+                report.append("<h5>Sector Multiples - not available</h5>");
+                report.append("No cached companies in sector '").append(group).append("'<br>");
+                report.append("</p>");
+            }
+            return 0;
+        }
+
+        boolean revenueAvailable = (revenue != null && revenueStats != null);
+        boolean ebitdaAvailable = (ebitda != null && ebitda[yearIndex] > 0 && ebitdaStats != null);
+        double EVRevenueValuation = revenueAvailable ? revenue[yearIndex] * revenueStats.median * multiplesScale : 0;
+        double EVEBITDAValuation = ebitdaAvailable ? ebitda[yearIndex] * ebitdaStats.median * multiplesScale : 0;
+        double enterpriseValue = (EVRevenueValuation + EVEBITDAValuation) / 2.0;
+        double NFP = company.getDebt() - company.getCashAndEquivalents();
+        double equityValue = enterpriseValue - NFP;
+
+        if (logReport) {
+            if (plainText) {
+                report.append("\n------------------------------------------------------------\n");
+                report.append(company.getName());
+                report.append(" Sector Multiples Valuation\n");
+                report.append("------------------------------------------------------------\n");
+                report.append("Sector: ").append(group).append("\n");
+                report.append("EV/Revenue ").append(describeSectorMultiple(revenueStats)).append(": ")
+                    .append(countryData.formatMoney(EVRevenueValuation)).append("\n");
+                report.append("EV/EBITDA ").append(describeSectorMultiple(ebitdaStats)).append(": ")
+                    .append(countryData.formatMoney(EVEBITDAValuation)).append("\n");
+                report.append("EV average: ").append(countryData.formatMoney(enterpriseValue)).append("\n");
+                report.append("Valuation: ").append(countryData.formatMoney(equityValue)).append("\n");
+            } else {
+                report.append("<p>");
+                report.append("<h5>Sector Multiples - ")
+                    .append(countryData.formatMoney(equityValue)).append("</h5>");
+                report.append("Sector: <b>").append(group).append("</b><br>");
+                report.append("EV/Revenue <b>").append(describeSectorMultiple(revenueStats)).append("</b>: <b>")
+                    .append(countryData.formatMoney(EVRevenueValuation)).append("</b><br>");
+                report.append("EV/EBITDA <b>").append(describeSectorMultiple(ebitdaStats)).append("</b>: <b>")
+                    .append(countryData.formatMoney(EVEBITDAValuation)).append("</b><br>");
+                report.append("Enterprise Value Average: <b>")
+                    .append(countryData.formatMoney(enterpriseValue)).append("</b><br>");
+                report.append("Net Financial Position: <b>").append(countryData.formatMoney(NFP)).append("</b><br>");
+                report.append("</p>");
+            }
+        }
+        return equityValue;
+    }
+
+
+    /**
+     * Returns company's industry if it has enough companies in sector index
+     * @return industry name or empty string to use the whole sector
+     */
+    private String resolveIndustry() {
+        String industry = company.getIndustry() == null ? "" : company.getIndustry();
+        if (industry.isBlank()) return "";
+        SectorMultiplesIndex.Statistics stats = SectorMultiplesIndex.getEVToRevenue(company.getSector(), industry);
+        return (stats == null || stats.count < MIN_SECTOR_COMPANIES) ? "" : industry;
+    }
+
+
+    private static String describeSectorMultiple(SectorMultiplesIndex.Statistics stats) {
+        if (stats == null) return "(n/a)";
+        return "(median " + roundMultiple(stats.median) + "x, IQR " + roundMultiple(stats.lowerQuartile)
+            + "x-" + roundMultiple(stats.upperQuartile) + "x, n=" + stats.count + ")";
+    }
+
+
+    /**
+     * Returns peer group stock data fetched once per engine, as of company multiples date if it is set
+     * @return list of fetched peers stock data
+     */
+    private List<StockData> getPeers() {
+        if (peers == null) peers = loadPeers(company.getComparableStocks(), company.getMultiplesAsOf());
+        return peers;
+    }
+
+
+    /**
+     * Returns peer group stock data as of date
+     * @param asOf point in time or null for the latest stock data
+     * @return list of peers stock data
+     */
+    private List<StockData> getPeers(LocalDate asOf) {
+        if (Objects.equals(asOf, company.getMultiplesAsOf())) return getPeers();
+        return loadPeers(company.getComparableStocks(), asOf);
+    }
+
+
+    private static List<StockData> loadPeers(String[] tickers, LocalDate asOf) {
+        return asOf == null ? fetchPeers(tickers) : loadSnapshots(tickers, asOf);
+    }
+
+
+    /**
+     * Loads peer group stock data snapshots, O(log n) lookup of quarter per ticker
+     * @param tickers peer group tickers
+     * @param asOf point in time
+     * @return list of peers having snapshot on or before date in tickers order
+     */
+    private static List<StockData> loadSnapshots(String[] tickers, LocalDate asOf) {
+        List<StockData> peers = new ArrayList<>(tickers.length);
+        try (Trace.Span span = Trace.span("loadSnapshots")) {
+            span.tag("tickers", tickers.length).tag("asOf", asOf.toString());
+            for (String ticker : tickers) {
+                StockData snapshot = StockData.getSnapshot(ticker, asOf);
+                if (snapshot != null) peers.add(snapshot);
+            }
+            span.tag("loaded", peers.size());
+        }
+        return peers;
+    }
+
+
+    /**
+     * Fetches peer group stock data in parallel through the cache, peers that fail,
+     * are throttled or don't respond within PEERS_FETCH_TIMEOUT_MS (or request deadline)
+     * are skipped. Concurrent requests of the same ticker share one fetch.
+     * @param tickers peer group tickers
+     * @return list of fetched peers stock data in tickers order
+     * @throws CancellationException if request is cancelled
+     * @throws Cancellation.DeadlineExceededException if no peer is fetched within request deadline
+     */
+    private static List<StockData> fetchPeers(String[] tickers) {
+        List<StockData> peers = new ArrayList<>(tickers.length);
+        try (Trace.Span span = Trace.span("fetchPeers")) {
+            span.tag("tickers", tickers.length);
+            List<CompletableFuture<StockData>> futures = new ArrayList<>(tickers.length);
+            for (String ticker : tickers) futures.add(joinStockFetch(ticker));
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Cancellation.remainingMillis(PEERS_FETCH_TIMEOUT_MS));
+            for (CompletableFuture<StockData> future : futures) {
+                try {
+                    long remaining = Math.max(0, deadline - System.nanoTime());
+                    peers.add(future.get(remaining, TimeUnit.NANOSECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();         // stop waiting, keep peers fetched so far
+                    break;
+                } catch (Exception e) {
+                    // skip failed, throttled or slow peer, it still fills cache when completes
+                }
+            }
+            span.tag("fetched", peers.size());
+        }
+        Cancellation.check();
+        if (peers.isEmpty() && tickers.length > 0) Cancellation.checkDeadline();
+        return peers;
+    }
+
+
+    /**
+     * Returns stock data of ticker, concurrent requests of the same ticker
+     * (including requests of other nodes to the owning node) share one fetch
+     * @param ticker stock ticker
+     * @return stock data
+     * @throws Exception if stock data can't be fetched within PEERS_FETCH_TIMEOUT_MS or request deadline
+     */
+    public static StockData getStockData(String ticker) throws Exception {
+        return joinStockFetch(ticker).get(Cancellation.remainingMillis(PEERS_FETCH_TIMEOUT_MS), TimeUnit.MILLISECONDS);
+    }
+
+
+    private static CompletableFuture<StockData> joinStockFetch(String ticker) {
+        return peerFetches.join(ticker, Trace.wrap(() -> {
+            try (Trace.Span peerSpan = Trace.span("StockData")) {
+                peerSpan.tag("symbol", ticker);
+                return new StockData(ticker);
+            }
+        }));
+    }
+
+
+    /**
+     * Collects positive EV/Revenue or EV/EBITDA multiples of peers
+     * @param peers peer group stock data
+     * @param revenueMultiple true for EV/Revenue, false for EV/EBITDA
+     * @return array of available multiples
+     */
+    private static double[] collectMultiples(List<StockData> peers, boolean revenueMultiple) {
+        double[] multiples = new double[peers.size()];
+        int count = 0;
+        for (StockData peer : peers) {
+            try {
+                double multiple = revenueMultiple ? peer.getEVToRevenue() : peer.getEVToEBITDA();
+                if (multiple > 0) multiples[count++] = multiple;
+            } catch (Exception e) {
+                // multiple is not reported for this peer
+            }
+        }
+        return Arrays.copyOf(multiples, count);
+    }
+
+
+    private double aggregateMultiples(double[] multiples) {
+        if (multiples.length == 0) return 0;
+        if (peerAggregation == PeerAggregation.TRIMMED_MEAN)
+            return FinancialMath.getTrimmedMean(multiples, PEERS_TRIM_FRACTION);
+        return FinancialMath.getMedian(multiples);
+    }
+
+
+    private static String describePeers(List<StockData> peers, int requested, LocalDate asOf) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < peers.size(); i++) {
+            if (i > 0) sb.append(", ");
+            StockData peer = peers.get(i);
+            if (peers.size() == 1) sb.append(peer.getName()).append(" (").append(peer.getSymbol()).append(")");
+            else sb.append(peer.getSymbol());
+        }
+        if (requested > 1) sb.append(" - ").append(peers.size()).append(" of ").append(requested).append(" peers");
+        if (asOf != null) sb.append(", as of ").append(asOf);
+        return sb.toString();
+    }
+
+
+    /**
+     * Describes how spread out peer multiples are
+     * @param multiples peer multiples
+     * @return range and interquartile range description or empty string if single peer
+     */
+    private static String describeSpread(double[] multiples) {
+        if (multiples.length < 2) return "";
+        double min = FinancialMath.getPercentile(multiples, 0.0);
+        double q1 = FinancialMath.getPercentile(multiples, 0.25);
+        double q3 = FinancialMath.getPercentile(multiples, 0.75);
+        double max = FinancialMath.getPercentile(multiples, 1.0);
+        return " (range " + roundMultiple(min) + "x-" + roundMultiple(max) + "x, IQR "
+            + roundMultiple(q1) + "x-" + roundMultiple(q3) + "x, n=" + multiples.length + ")";
+    }
+
+
+    private static double roundMultiple(double multiple) {
+        return Math.round(multiple * 100.0) / 100.0;
+    }
+
+
     /**
      * Discounted Cash Flow method valuator
      * @param report string builder to write report
@@ -207,20 +793,11 @@ public class ValuatorEngine {
         fcf = Arrays.copyOfRange(fcf, firstIndex, lastIndex);
 
         double cash = company.getCashAndEquivalents();
-        double equity = company.getEquity();
-        double equityRate = company.getEquityRate();
         double debt = company.getDebt();
-        double debtRate = company.getDebtRate();
         double corporateTax = countryData.getCorporateTax();
         double growthRate = countryData.getAverageGDPGrowthRate();
-        double baseRate = countryData.getRiskFreeRate();
-        double marketReturn = countryData.getMarketReturn();
 
-        double WACC = FinancialMath.getWACC(debt, debtRate, equity, equityRate, corporateTax);
-        if (WACC==0.0) { // if neither external investments nor loans, but only own equity
-            // todo calculate beta based on public company data (unlevered beta)
-            WACC = FinancialMath.getCAPM(baseRate, 1, marketReturn);
-        }
+        double WACC = getDiscountRate();
         double DCF = FinancialMath.getDCF(fcf, WACC);
         double TV = FinancialMath.getTerminalValue(fcf[fcf.length-1], WACC, growthRate);
         double NFP = debt - cash;
@@ -233,7 +810,8 @@ public class ValuatorEngine {
                 report.append(" Discounted Cash Flow (FCF) Valuation\n");
                 report.append("------------------------------------------------------------\n");
                 report.append("Economy growth = ").append(FinancialMath.toPercent(growthRate))
-                    .append("%").append(" (").append(countryData.getCountryName()).append(")\n");
+                    .append("%").append(" (").append(countryData.getCountryName()).append(")")
+                    .append(describeMacroSource(true)).append("\n");
                 report.append("Corporate Tax = ").append(FinancialMath.toPercent(corporateTax))
                     .append("%").append(" (").append(countryData.getCountryName()).append(")\n");
                 report.append("WACC = ").append(FinancialMath.toPercent(WACC)).append("%\n");
@@ -255,6 +833,7 @@ public class ValuatorEngine {
                     .append(countryData.formatMoney(TV))
                     .append("</b> (GDP growth: ").append(FinancialMath.toPercent(growthRate)).append("%, ")
                     .append("Tax: ").append(FinancialMath.toPercent(corporateTax)).append("%)")
+                    .append(describeMacroSource(false))
                     .append("<br>");
                 report.append("Net Financial Position: <b>").append(countryData.formatMoney(NFP)).append("</b><br>");
                 report.append("</p>");
@@ -266,4 +845,259 @@ public class ValuatorEngine {
         return equityValue;
     }
 
+
+
+    /**
+     * Real options method valuator for venture-stage companies: enterprise value at exit
+     * year (revenue times comparable EV/Revenue or DCF if not available) is discounted
+     * with venture rate and valued on binomial lattice with expand and abandon options
+     * up to exit year. Volatility is taken from comparable stocks or sector index.
+     * @param report string builder to write report
+     * @param plainText if true writes plaint text report, otherwise HTML
+     * @return company valuation at exit year
+     */
+    public double valuateRealOptions(StringBuilder report, boolean plainText) {
+        boolean logReport = report != null;
+        int yearIndex = exitYear - company.getDataFirstYear();
+        if (yearIndex < 0) return 0;
+
+        // Underlying: enterprise value at exit year
+        double[] revenue = company.getRevenue();
+        double[] multiples = getComparableMultiples();
+        boolean revenueAvailable = revenue != null && yearIndex < revenue.length && revenue[yearIndex] > 0
+            && multiples != null && multiples[0] > 0;
+        double exitEnterpriseValue;
+        String underlying;
+        if (revenueAvailable) {
+            exitEnterpriseValue = revenue[yearIndex] * multiples[0];
+            underlying = "Revenue x EV/Revenue " + roundMultiple(multiples[0]) + "x";
+        } else {
+            double[] fcf = company.getFreeCashFlow();
+            fcf = Arrays.copyOfRange(fcf, Math.min(yearIndex, fcf.length - 1), fcf.length);
+            double WACC = getDiscountRate();
+            exitEnterpriseValue = FinancialMath.getDCF(fcf, WACC)
+                + FinancialMath.getTerminalValue(fcf[fcf.length - 1], WACC, countryData.getAverageGDPGrowthRate());
+            underlying = "DCF + TV";
+        }
+
+        // Lattice runs from now to exit year in present values
+        int years = Math.max(1, exitYear - Year.now().getValue());
+        double ventureFactor = Math.pow(1.0 + company.getVentureRate(), years);
+        double presentValue = exitEnterpriseValue / ventureFactor;
+        double salvageValue = SALVAGE_RATIO * (company.getEquity() + company.getDebt());
+        double expansionCost = EXPANSION_COST_RATIO * Math.max(presentValue, 0);
+        double[] volatility = new double[1];
+        String volatilitySource = getVolatility(volatility);
+
+        double optionsValue = presentValue > 0
+            ? FinancialMath.getRealOptionsValue(presentValue, volatility[0], countryData.getRiskFreeRate(), years,
+                REAL_OPTIONS_STEPS, EXPANSION_SCALE, expansionCost, salvageValue)
+            : salvageValue;
+        double enterpriseValue = optionsValue * ventureFactor;
+        double optionsPremium = enterpriseValue - Math.max(exitEnterpriseValue, 0);
+        double NFP = company.getDebt() - company.getCashAndEquivalents();
+        double equityValue = enterpriseValue - NFP;
+
+        if (logReport) {
+            if (plainText) {
+                report.append("\n------------------------------------------------------------\n");
+                report.append(company.getName());
+                report.append(" Real Options Valuation\n");
+                report.append("------------------------------------------------------------\n");
+                report.append("Underlying EV (").append(underlying).append("): ")
+                    .append(countryData.formatMoney(exitEnterpriseValue)).append("\n");
+                report.append("Volatility: ").append(FinancialMath.toPercent(volatility[0])).append("% (")
+                    .append(volatilitySource).append(")\n");
+                report.append("Options premium (expand, abandon): ").append(countryData.formatMoney(optionsPremium)).append("\n");
+                report.append("Valuation: ").append(countryData.formatMoney(equityValue)).append("\n");
+            } else {
+                report.append("<p>");
+                report.append("<h5>Real Options - ").append(countryData.formatMoney(equityValue)).append("</h5>");
+                report.append("Underlying EV: <b>").append(countryData.formatMoney(exitEnterpriseValue))
+                    .append("</b> (").append(underlying).append(")<br>");
+                report.append("Volatility: <b>").append(FinancialMath.toPercent(volatility[0])).append("%</b> (")
+                    .append(volatilitySource).append(")&nbsp;&nbsp;");
+                report.append("Risk-free rate: <b>").append(FinancialMath.toPercent(countryData.getRiskFreeRate()))
+                    .append("%</b><br>");
+                report.append("Options premium (expand +").append(Math.round(EXPANSION_SCALE * 100))
+                    .append("%, abandon for ").append(countryData.formatMoney(salvageValue)).append("): <b>")
+                    .append(countryData.formatMoney(optionsPremium)).append("</b><br>");
+                report.append("Net Financial Position: <b>").append(countryData.formatMoney(NFP)).append("</b><br>");
+                report.append("<i>EBITDA at exit year is not positive, real options replace EBITDA Multiple and DCF in exit value</i>");
+                report.append("</p>");
+            }
+        }
+        return equityValue;
+    }
+
+
+    /**
+     * Returns annual volatility of company value: median volatility of sector index
+     * or comparable stocks, default venture volatility if not available
+     * @param volatility single element array receiving volatility
+     * @return volatility source description
+     */
+    private String getVolatility(double[] volatility) {
+        double value = Double.NaN;
+        String source = "default";
+        String sector = company.getSector();
+        if (sector != null && !sector.isBlank()) {
+            String industry = resolveIndustry();
+            SectorMultiplesIndex.Statistics stats = SectorMultiplesIndex.getVolatility(sector, industry);
+            if (stats != null) {
+                value = stats.median;
+                source = "median of " + (industry.isBlank() ? sector : sector + " / " + industry) + ", n=" + stats.count;
+            }
+        } else {
+            try {
+                List<StockData> peers = getPeers();
+                double[] values = new double[peers.size()];
+                int count = 0;
+                String symbol = "";
+                for (StockData peer : peers) {
+                    double peerVolatility = peer.getVolatility();
+                    if (Double.isNaN(peerVolatility)) continue;
+                    values[count++] = peerVolatility;
+                    symbol = peer.getSymbol();
+                }
+                if (count > 0) {
+                    value = FinancialMath.getMedian(Arrays.copyOf(values, count));
+                    source = count == 1 ? symbol + " 52 week range" : "median of " + count + " peers";
+                }
+            } catch (CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                // peers are not available, default volatility is used
+            }
+        }
+        volatility[0] = Double.isNaN(value) ? DEFAULT_VOLATILITY : Math.max(MIN_VOLATILITY, Math.min(MAX_VOLATILITY, value));
+        return source;
+    }
+
+
+    /**
+     * Evaluates discount rate: WACC or CAPM if there is neither debt nor equity
+     * @return discount rate
+     */
+    private double getDiscountRate() {
+        double WACC = FinancialMath.getWACC(company.getDebt(), company.getDebtRate(),
+            company.getEquity(), company.getEquityRate(), countryData.getCorporateTax());
+        if (WACC==0.0) { // if neither external investments nor loans, but only own equity
+            // todo calculate beta based on public company data (unlevered beta)
+            WACC = FinancialMath.getCAPM(countryData.getRiskFreeRate(), 1, countryData.getMarketReturn());
+        }
+        return WACC;
+    }
+
+
+    /**
+     * Values company for every candidate exit year of forecast in one pass: DCF tails
+     * are accumulated backwards with shared discount factor, base EBITDA is found by
+     * single backward scan, so cost is linear in forecast length. Exit years with
+     * non-positive EBITDA are venture stage: like getExitValue, real options value
+     * of that exit year replaces EBITDA multiple and DCF in blended value
+     * @return exit and present values by exit years
+     */
+    public ExitYearSweep sweepExitYears() {
+        double[] fcf = company.getFreeCashFlow();
+        double[] revenue = company.getRevenue();
+        double[] ebitda = company.getEBITDA();
+        int firstYear = company.getDataFirstYear();
+        int n = fcf.length;
+        double NFP = company.getDebt() - company.getCashAndEquivalents();
+
+        int[] years = new int[n];
+        double[] ebitdaValues = new double[n];
+        double[] multiplesValues = new double[n];
+        double[] dcfValues = new double[n];
+        double[] realOptionsValues = new double[n];
+        double[] exitValues = new double[n];
+        double[] presentValues = new double[n];
+
+        // EBITDA multiple: base EBITDA is first positive EBITDA at or after exit year
+        if (ebitda != null && ebitda.length > 0) {
+            double multiple = getEBITDAMultiple(FinancialMath.getAAGR(ebitda));
+            double nextPositive = Double.NaN;
+            for (int k = n - 1; k >= 0; k--) {
+                if (k < ebitda.length && ebitda[k] > 0) nextPositive = ebitda[k];
+                double baseEBITDA = Double.isNaN(nextPositive) ? ebitda[0] : nextPositive;
+                ebitdaValues[k] = baseEBITDA * multiple - NFP;
+            }
+        }
+
+        // Comparable multiples
+        double[] multiples = getComparableMultiples();
+        if (multiples != null) {
+            for (int k = 0; k < n; k++) {
+                boolean revenueAvailable = revenue != null && k < revenue.length;
+                boolean ebitdaAvailable = ebitda != null && k < ebitda.length && ebitda[k] > 0 && multiples[1] > 0;
+                double EVRevenueValuation = revenueAvailable ? revenue[k] * multiples[0] : 0;
+                double EVEBITDAValuation = ebitdaAvailable ? ebitda[k] * multiples[1] : 0;
+                multiplesValues[k] = (EVRevenueValuation + EVEBITDAValuation) / 2.0 - NFP;
+            }
+        }
+
+        // DCF: tail sums accumulated backwards, terminal value depends on last FCF only
+        double WACC = getDiscountRate();
+        double discount = 1.0 / (1.0 + WACC);
+        double TV = FinancialMath.getTerminalValue(fcf[n - 1], WACC, countryData.getAverageGDPGrowthRate());
+        double DCF = 0;
+        for (int k = n - 1; k >= 0; k--) {
+            DCF = (fcf[k] + DCF) * discount;
+            dcfValues[k] = DCF + TV - NFP;
+        }
+
+        // Blend and discount to present value with venture rate
+        int currentYear = Year.now().getValue();
+        double ventureGrowth = 1.0 + company.getVentureRate();
+        double ventureFactor = Math.pow(ventureGrowth, firstYear - currentYear);
+        for (int k = 0; k < n; k++) {
+            years[k] = firstYear + k;
+            ValuatorEngine yearEngine = new ValuatorEngine(this, company, countryData, multiplesScale, years[k]);
+            if (yearEngine.isVentureStage()) {
+                realOptionsValues[k] = yearEngine.valuateRealOptions(null, false);
+                exitValues[k] = getBlendedValue(realOptionsValues[k], multiplesValues[k], realOptionsValues[k]);
+            } else {
+                realOptionsValues[k] = Double.NaN;
+                exitValues[k] = getBlendedValue(ebitdaValues[k], multiplesValues[k], dcfValues[k]);
+            }
+            presentValues[k] = (years[k] - currentYear >= 1) ? exitValues[k] / ventureFactor : exitValues[k];
+            ventureFactor *= ventureGrowth;
+        }
+
+        return new ExitYearSweep(years, ebitdaValues, multiplesValues, dcfValues, realOptionsValues,
+            exitValues, presentValues);
+    }
+
+
+    /**
+     * Returns comparable EV/Revenue and EV/EBITDA multiples of sector or peer group
+     * @return array {EV/Revenue, EV/EBITDA} or null if not available
+     */
+    private double[] getComparableMultiples() {
+        String sector = company.getSector();
+        if (sector != null && !sector.isBlank()) {
+            CachedData.ensureInitialized();
+            String industry = resolveIndustry();
+            SectorMultiplesIndex.Statistics revenueStats = SectorMultiplesIndex.getEVToRevenue(sector, industry);
+            SectorMultiplesIndex.Statistics ebitdaStats = SectorMultiplesIndex.getEVToEBITDA(sector, industry);
+            if (revenueStats == null && ebitdaStats == null) return null;
+            return new double[] {
+                revenueStats != null ? revenueStats.median * multiplesScale : 0,
+                ebitdaStats != null ? ebitdaStats.median * multiplesScale : 0 };
+        }
+        try {
+            List<StockData> peers = getPeers();
+            if (peers.isEmpty()) return null;
+            return new double[] {
+                aggregateMultiples(collectMultiples(peers, true)) * multiplesScale,
+                aggregateMultiples(collectMultiples(peers, false)) * multiplesScale };
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            RequestLog.error("Peer multiples are not available for " + company.getComparableStock(), e);
+            return null;
+        }
+    }
+
 }
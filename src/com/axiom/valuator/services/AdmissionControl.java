@@ -0,0 +1,108 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Admission control and load shedding
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.services;
+
+import com.axiom.valuator.model.Cancellation;
+import com.axiom.valuator.model.CompanyData;
+import com.axiom.valuator.model.ValuatorEngine;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control lane: limits number of concurrently executing requests
+ * and number of requests waiting in the queue. Requests that don't fit
+ * the queue or wait longer than allowed (or than request deadline) are shed.
+ */
+public class AdmissionControl {
+
+    // Requests with all data cached locally: compute only, short and cheap
+    public static final AdmissionControl CACHED = new AdmissionControl("cached",
+        Math.max(4, Runtime.getRuntime().availableProcessors() * 2), 64, 1000, 1);
+
+    // Requests that need World Bank or Alpha Vantage fetches: slow and blocking
+    public static final AdmissionControl UPSTREAM = new AdmissionControl("upstream",
+        8, 16, 2000, 5);
+
+    private final String name;
+    private final Semaphore permits;
+    private final int maxQueueLength;
+    private final long maxWaitMillis;
+    private final int retryAfterSeconds;
+    private final AtomicInteger queueLength = new AtomicInteger();
+    private final AtomicInteger shedCount = new AtomicInteger();
+
+
+    /**
+     * Admission control lane constructor
+     * @param name lane name
+     * @param maxConcurrency maximum concurrently executing requests
+     * @param maxQueueLength maximum requests waiting for execution
+     * @param maxWaitMillis maximum time to wait in the queue
+     * @param retryAfterSeconds suggested Retry-After for shed requests
+     */
+    public AdmissionControl(String name, int maxConcurrency, int maxQueueLength,
+                            long maxWaitMillis, int retryAfterSeconds) {
+        this.name = name;
+        this.permits = new Semaphore(maxConcurrency);
+        this.maxQueueLength = maxQueueLength;
+        this.maxWaitMillis = maxWaitMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+
+    /**
+     * Selects admission control lane for company valuation request
+     * @param company company data
+     * @return CACHED lane if all data is available locally, UPSTREAM lane otherwise
+     */
+    public static AdmissionControl select(CompanyData company) {
+        return ValuatorEngine.isDataCached(company) ? CACHED : UPSTREAM;
+    }
+
+
+    /**
+     * Tries to admit request: executes immediately if there are free permits,
+     * waits in bounded queue otherwise
+     * @return true if admitted (caller must call release), false if request is shed
+     */
+    public boolean tryAcquire() {
+        if (permits.tryAcquire()) return true;
+        if (queueLength.incrementAndGet() > maxQueueLength) {
+            queueLength.decrementAndGet();
+            shedCount.incrementAndGet();
+            return false;
+        }
+        try {
+            if (permits.tryAcquire(Cancellation.remainingMillis(maxWaitMillis), TimeUnit.MILLISECONDS)) return true;
+            shedCount.incrementAndGet();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            queueLength.decrementAndGet();
+        }
+    }
+
+
+    /**
+     * Releases permit of admitted request
+     */
+    public void release() {
+        permits.release();
+    }
+
+
+    public String getName() { return name; }
+    public int getRetryAfterSeconds() { return retryAfterSeconds; }
+    public int getQueueLength() { return queueLength.get(); }
+    public int getShedCount() { return shedCount.get(); }
+
+}
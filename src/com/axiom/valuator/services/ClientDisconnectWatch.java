@@ -0,0 +1,88 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Client disconnect detection
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.services;
+
+import com.axiom.valuator.model.Cancellation;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.HttpConnection;
+import spark.Request;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches connection of request being processed and cancels request when client
+ * disconnects or aborts it. Connection is owned by Jetty and may be written by request
+ * thread, so it is never read here: end point state is probed periodically and request
+ * is cancelled once Jetty has closed the connection (failed write, idle timeout).
+ * Streamed responses also cancel request on write failure.
+ */
+class ClientDisconnectWatch implements AutoCloseable {
+
+    public static final long PROBE_PERIOD_MS = 250;
+    public static final int CLIENT_CLOSED_REQUEST = 499;     // status logged for abandoned requests
+    public static final String REASON = "Client disconnected";
+
+    private static final ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "disconnect-watch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final HttpConnection connection;
+    private final Cancellation cancellation;
+    private final ScheduledFuture<?> probe;
+    private boolean closed = false;
+
+
+    /**
+     * Reads request body, starts cancellable request on current thread and watches its connection
+     * @param request request being processed
+     * @return watch, close it on the same thread when request is done
+     */
+    static ClientDisconnectWatch start(Request request) {
+        request.body();    // body must be consumed before connection is probed
+        return new ClientDisconnectWatch(HttpConnection.getCurrentConnection(), Cancellation.begin());
+    }
+
+
+    private ClientDisconnectWatch(HttpConnection connection, Cancellation cancellation) {
+        this.connection = connection;
+        this.cancellation = cancellation;
+        this.probe = connection == null ? null
+            : watcher.scheduleWithFixedDelay(this::probe, PROBE_PERIOD_MS, PROBE_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+
+    private synchronized void probe() {
+        if (closed || cancellation.isCancelled()) return;
+        EndPoint endPoint = connection.getEndPoint();
+        if (!endPoint.isOpen()) cancellation.cancel(REASON);
+    }
+
+
+    public Cancellation getCancellation() {
+        return cancellation;
+    }
+
+
+    /**
+     * Stops watching and ends cancellable request, must be called before response is completed
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (probe != null) probe.cancel(false);
+        }
+        Cancellation.end();
+    }
+
+}
@@ -0,0 +1,183 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Company data CSV reader
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.services;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads company data rows from CSV one by one without loading whole file.
+ * First line is a header with the same field names as CompanyData JSON,
+ * forecast arrays (revenue, ebitda, freeCashFlow) are separated by ';'.
+ * Records longer than MAX_RECORD_LENGTH (e.g. unterminated quoted field) are
+ * reported as malformed and skipped, so memory stays bounded by one record.
+ */
+public class CompanyCSVReader implements Closeable {
+
+    public static final char FIELD_SEPARATOR = ',';
+    public static final char QUOTE = '"';
+    public static final String ARRAY_SEPARATOR = ";";
+    public static final int MAX_RECORD_LENGTH = 16384;          // characters, 4x company JSON size limit
+
+    public static final String ERROR_NO_HEADER = "CSV header is missing";
+    public static final String ERROR_COLUMNS = "Wrong number of columns in CSV row ";
+    public static final String ERROR_RECORD_LENGTH = "Record is too long or has unterminated quote in CSV row ";
+
+    private static final List<String> MALFORMED = List.of();      // marks skipped malformed record
+    private static final Set<String> ARRAY_FIELDS = Set.of("revenue", "ebitda", "freeCashFlow");
+    private static final Set<String> NUMBER_FIELDS = Set.of(
+        "dataFirstYear", "cash", "equity", "equityRate", "debt", "debtRate",
+        "marketShare", "ventureExitYear", "ventureRate");
+
+    private final BufferedReader reader;
+    private final String[] header;
+    private long rowNumber;
+
+
+    /**
+     * Opens CSV source and reads its header
+     * @param source CSV characters source
+     * @throws IOException if source can't be read or header is missing
+     */
+    public CompanyCSVReader(Reader source) throws IOException {
+        this.reader = source instanceof BufferedReader ? (BufferedReader) source : new BufferedReader(source);
+        List<String> columns = readRecord();
+        if (columns == null || columns == MALFORMED) throw new IOException(ERROR_NO_HEADER);
+        header = new String[columns.size()];
+        for (int i = 0; i < header.length; i++) header[i] = columns.get(i).trim();
+        rowNumber = 0;
+    }
+
+
+    /**
+     * Reads next company row
+     * @return company data JSON object or null if end of file reached
+     * @throws IOException if source can't be read
+     * @throws IllegalArgumentException if row is malformed, reading may continue with next row
+     */
+    public JSONObject next() throws IOException {
+        List<String> values;
+        do {
+            values = readRecord();
+            if (values == null) return null;
+            rowNumber++;
+        } while (values.size() == 1 && values.get(0).isBlank());
+
+        if (values == MALFORMED) throw new IllegalArgumentException(ERROR_RECORD_LENGTH + rowNumber);
+        if (values.size() != header.length) throw new IllegalArgumentException(ERROR_COLUMNS + rowNumber);
+
+        JSONObject json = new JSONObject();
+        for (int i = 0; i < header.length; i++) {
+            json.put(header[i], toJSONValue(header[i], values.get(i).trim()));
+        }
+        return json;
+    }
+
+
+    /**
+     * @return number of the last data row read (header is not counted)
+     */
+    public long getRowNumber() { return rowNumber; }
+
+
+    /**
+     * Converts CSV cell to JSON value according to field type,
+     * keeps original string if cell can't be parsed so validation reports it
+     * @param field field name
+     * @param cell cell value
+     * @return JSON value
+     */
+    private static Object toJSONValue(String field, String cell) {
+        try {
+            if (ARRAY_FIELDS.contains(field)) {
+                JSONArray array = new JSONArray();
+                if (cell.isEmpty()) return array;
+                for (String value : cell.split(ARRAY_SEPARATOR)) array.put(Double.parseDouble(value.trim()));
+                return array;
+            }
+            if (NUMBER_FIELDS.contains(field)) {
+                double value = Double.parseDouble(cell);
+                if (value == Math.rint(value) && Math.abs(value) < Integer.MAX_VALUE) return (int) value;
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            return cell;
+        }
+        return cell;
+    }
+
+
+    /**
+     * Reads one CSV record, quoted fields may contain separators, quotes ("") and line
+     * breaks (lines end with LF or CRLF). Record longer than MAX_RECORD_LENGTH is not kept:
+     * reading is rewound to record start and only its first line is skipped, so rows
+     * after unterminated quote are still read
+     * @return list of fields, MALFORMED if record is too long or null if end of file reached
+     * @throws IOException if source can't be read
+     */
+    private List<String> readRecord() throws IOException {
+        reader.mark(MAX_RECORD_LENGTH + 1);
+        int c = reader.read();
+        if (c < 0) return null;
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean closed = false;                     // quote just closed, next quote is escaped one
+        for (int length = 1; c >= 0; c = reader.read(), length++) {
+            if (length > MAX_RECORD_LENGTH) {
+                reader.reset();
+                skipLine();
+                return MALFORMED;
+            }
+            if (c == '\r') continue;
+            if (quoted) {
+                if (c == QUOTE) {
+                    quoted = false;
+                    closed = true;
+                } else field.append((char) c);
+                continue;
+            }
+            if (c == QUOTE) {
+                if (closed) field.append(QUOTE);
+                quoted = true;
+            } else if (c == FIELD_SEPARATOR) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else field.append((char) c);
+            closed = false;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+
+    private void skipLine() throws IOException {
+        int c;
+        do {
+            c = reader.read();
+        } while (c >= 0 && c != '\n');
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
@@ -0,0 +1,68 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Exit year sweep service
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.services;
+
+import com.axiom.valuator.model.Cancellation;
+import com.axiom.valuator.model.CompanyData;
+import com.axiom.valuator.model.Trace;
+import com.axiom.valuator.model.ValuatorEngine;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Returns exit value and present value for every candidate exit year
+ * of company forecast as JSON, so UI can plot value against exit timing
+ */
+public class ExitYearSweepService implements Route {
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        try (Trace.Span trace = Trace.begin("POST /sweep");
+             ClientDisconnectWatch watch = ClientDisconnectWatch.start(request)) {
+            try {
+                return sweep(request, response);
+            } catch (Cancellation.DeadlineExceededException e) {
+                // no partial sweep
+                response.status(504);
+                return e.getMessage();
+            } catch (CancellationException e) {
+                // client has gone, nobody reads the sweep
+                response.status(ClientDisconnectWatch.CLIENT_CLOSED_REQUEST);
+                return "";
+            } finally {
+                boolean gone = watch.getCancellation().isCancelled();
+                trace.tag("status", gone ? ClientDisconnectWatch.CLIENT_CLOSED_REQUEST : response.status());
+            }
+        }
+    }
+
+
+    private Object sweep(Request request, Response response) {
+
+        ValuationService.AdmittedRequest admitted = ValuationService.admit(request, response, null);
+        if (admitted.error != null) return admitted.error;
+        CompanyData company = admitted.company;
+        AdmissionControl lane = admitted.lane;
+
+        String body;
+        try {
+            ValuatorEngine valuatorEngine = new ValuatorEngine(company, company.getVentureExitYear());
+            body = valuatorEngine.sweepExitYears().toJson().toString();
+        } finally {
+            lane.release();
+        }
+
+        response.status(200);
+        response.type("application/json");
+        return body;
+    }
+
+}
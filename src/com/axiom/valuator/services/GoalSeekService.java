@@ -0,0 +1,96 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Goal seek service
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.services;
+
+import com.axiom.valuator.model.Cancellation;
+import com.axiom.valuator.model.CompanyData;
+import com.axiom.valuator.model.GoalSeek;
+import com.axiom.valuator.model.Trace;
+import com.axiom.valuator.model.ValuatorEngine;
+import org.json.JSONObject;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Solves for input that hits target valuation: request is company data JSON with
+ * "goalSeek": {"variable": "growth|debtRate|marketShare|exitYear",
+ * "target": "exitValue|presentValue", "value": number}. Returns solved input
+ * and valuation it gives as JSON instead of manual trial-and-error valuations.
+ */
+public class GoalSeekService implements Route {
+
+    public static final String GOAL_SEEK_FIELD = "goalSeek";
+    public static final String ERROR_GOAL_SEEK = "goalSeek object with variable (growth, debtRate, marketShare, exitYear), "
+        + "target (exitValue, presentValue) and value expected";
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        try (Trace.Span trace = Trace.begin("POST /goalseek");
+             ClientDisconnectWatch watch = ClientDisconnectWatch.start(request)) {
+            try {
+                return solve(request, response);
+            } catch (Cancellation.DeadlineExceededException e) {
+                // no partial answer for goal seek
+                response.status(504);
+                return e.getMessage();
+            } catch (CancellationException e) {
+                // client has gone, nobody reads the answer
+                response.status(ClientDisconnectWatch.CLIENT_CLOSED_REQUEST);
+                return "";
+            } finally {
+                boolean gone = watch.getCancellation().isCancelled();
+                trace.tag("status", gone ? ClientDisconnectWatch.CLIENT_CLOSED_REQUEST : response.status());
+            }
+        }
+    }
+
+
+    private Object solve(Request request, Response response) {
+
+        ValuationService.AdmittedRequest admitted = ValuationService.admit(request, response,
+            companyJSON -> isGoalValid(companyJSON.optJSONObject(GOAL_SEEK_FIELD)) ? null : ERROR_GOAL_SEEK);
+        if (admitted.error != null) return admitted.error;
+        JSONObject goal = admitted.companyJSON.getJSONObject(GOAL_SEEK_FIELD);
+        GoalSeek.Variable variable = GoalSeek.Variable.parse(goal.optString("variable"));
+        GoalSeek.Target target = GoalSeek.Target.parse(goal.optString("target", "exitValue"));
+        double targetValue = goal.optDouble("value", Double.NaN);
+        Trace.tag("variable", variable.code);
+        CompanyData company = admitted.company;
+        AdmissionControl lane = admitted.lane;
+
+        GoalSeek.Result result;
+        try {
+            ValuatorEngine valuatorEngine = new ValuatorEngine(company, company.getVentureExitYear());
+            result = valuatorEngine.goalSeek().solve(variable, target, targetValue);
+        } finally {
+            lane.release();
+        }
+        Trace.tag("evaluations", result.evaluations);
+
+        response.status(200);
+        response.type("application/json");
+        return result.toJson().toString();
+    }
+
+
+    /**
+     * Checks goal seek object: known variable and target and finite target value
+     * @param goal goal seek JSON object or null
+     * @return true if goal is valid
+     */
+    private static boolean isGoalValid(JSONObject goal) {
+        return goal != null
+            && GoalSeek.Variable.parse(goal.optString("variable")) != null
+            && GoalSeek.Target.parse(goal.optString("target", "exitValue")) != null
+            && Double.isFinite(goal.optDouble("value", Double.NaN));
+    }
+
+}
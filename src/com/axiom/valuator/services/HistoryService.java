@@ -0,0 +1,92 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Valuation history service
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.services;
+
+import com.axiom.valuator.model.ValuationHistory;
+import org.json.JSONArray;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Lists past valuations and reopens their reports from valuation history without
+ * recomputation: GET /history?company=&country=&from=yyyy-mm-dd&to=yyyy-mm-dd&limit=
+ * returns JSON array of records (newest first), GET /history/:id returns stored report
+ */
+public class HistoryService implements Route {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final String ERROR_DISABLED = "Valuation history is not available";
+    public static final String ERROR_WRONG_PARAMETER = "Wrong parameter: ";
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        ValuationHistory history = ValuationHistory.getDefault();
+        if (history == null) {
+            response.status(503);
+            return ERROR_DISABLED;
+        }
+
+        String id = request.params(":id");
+        if (id != null) {
+            String report = null;
+            try {
+                report = history.getReport(Long.parseLong(id));
+            } catch (NumberFormatException e) {
+                // not a record id
+            }
+            if (report == null) {
+                response.status(404);
+                return "Valuation " + id + " not found";
+            }
+            response.status(200);
+            response.type("text/html; charset=utf-8");
+            return report;
+        }
+
+        long from;
+        long to;
+        int limit;
+        try {
+            from = parseDate(request.queryParams("from"), 0, Long.MIN_VALUE);
+            to = parseDate(request.queryParams("to"), 1, Long.MAX_VALUE);
+            String limitParameter = request.queryParams("limit");
+            limit = limitParameter == null ? DEFAULT_LIMIT : Integer.parseInt(limitParameter);
+        } catch (DateTimeParseException | NumberFormatException e) {
+            response.status(400);
+            return ERROR_WRONG_PARAMETER + e.getMessage();
+        }
+
+        JSONArray records = new JSONArray();
+        for (ValuationHistory.Record record : history.find(request.queryParams("company"),
+                request.queryParams("country"), from, to, limit)) {
+            records.put(record.toJson());
+        }
+        response.status(200);
+        response.type("application/json");
+        return records.toString(2);
+    }
+
+
+    /**
+     * Parses ISO date to UTC epoch millis
+     * @param date date string or null
+     * @param plusDays days added to date (1 makes end of range inclusive)
+     * @param defaultMillis value used if date is not specified
+     * @return epoch millis
+     */
+    private static long parseDate(String date, int plusDays, long defaultMillis) {
+        if (date == null || date.isBlank()) return defaultMillis;
+        return LocalDate.parse(date).plusDays(plusDays).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+}
@@ -0,0 +1,87 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Peer cache service
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.services;
+
+import com.axiom.valuator.model.CountryData;
+import com.axiom.valuator.model.PeerCache;
+import com.axiom.valuator.model.StockData;
+import com.axiom.valuator.model.Trace;
+import com.axiom.valuator.model.ValuatorEngine;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import java.util.Locale;
+
+/**
+ * Serves keys owned by this node to other nodes: GET /peer/countries/{code:years} and
+ * GET /peer/companies/{ticker} return cache entry JSON, fetched upstream once for all
+ * nodes if it is not cached. Keys this node doesn't own are refused with 421, so nodes
+ * with different peer lists can't forward requests in loops. Fallback country data and
+ * failed fetches are answered with 404, so asking node fetches upstream itself.
+ */
+public class PeerService implements Route {
+
+    public static final int MISDIRECTED_REQUEST = 421;
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        try (Trace.Span trace = Trace.begin("GET /peer");
+             ClientDisconnectWatch watch = ClientDisconnectWatch.start(request)) {
+            String map = request.params(":map");
+            String key = request.params(":key");
+            trace.tag("map", map).tag("key", key);
+            try {
+                if (!PeerCache.isLocal(map, key)) {
+                    response.status(MISDIRECTED_REQUEST);
+                    return "Key " + key + " is not owned by this node";
+                }
+                ValuationService.applyDeadline(request);
+                String value = load(map, key);
+                if (value == null) {
+                    response.status(404);
+                    return "No data for " + map + " " + key;
+                }
+                response.status(200);
+                response.type("application/json");
+                return value;
+            } finally {
+                boolean gone = watch.getCancellation().isCancelled();
+                trace.tag("status", gone ? ClientDisconnectWatch.CLIENT_CLOSED_REQUEST : response.status());
+            }
+        }
+    }
+
+
+    /**
+     * Loads owned key through local cache, concurrent fetches of the key are shared
+     * @param map map name (countries, companies)
+     * @param key country cache key (code:years) or ticker
+     * @return cache entry JSON or null if there is no data
+     */
+    private static String load(String map, String key) {
+        try {
+            if (PeerCache.COUNTRIES.equals(map)) {
+                int separator = key.indexOf(':');
+                if (separator < 0) return null;
+                Locale country = CountryData.getCountryByCode(key.substring(0, separator));
+                if (country == null) return null;
+                CountryData countryData = new CountryData(country, Integer.parseInt(key.substring(separator + 1)));
+                return countryData.isFallback() ? null : countryData.toJSONObject().toString();
+            }
+            if (PeerCache.COMPANIES.equals(map)) {
+                StockData stockData = ValuatorEngine.getStockData(key);
+                return stockData.toJSONObject().toString();
+            }
+        } catch (Exception e) {
+            // upstream failed, throttled or deadline exceeded: asking node fetches itself
+        }
+        return null;
+    }
+
+}
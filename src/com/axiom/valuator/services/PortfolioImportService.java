@@ -0,0 +1,205 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Portfolio CSV import service
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.services;
+
+import com.axiom.valuator.math.FinancialMath;
+import com.axiom.valuator.model.CompanyData;
+import com.axiom.valuator.model.ValuatorEngine;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Year;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Valuates portfolio of companies uploaded as CSV (one company per row).
+ * Rows are parsed incrementally and valuated concurrently, at most MAX_ROWS_IN_FLIGHT
+ * rows are held in memory, each result is streamed back as NDJSON line when ready.
+ */
+public class PortfolioImportService implements Route {
+
+    public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+    public static final int WORKER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int MAX_ROWS_IN_FLIGHT = WORKER_THREADS * 4;
+
+    private static final ExecutorService workers = Executors.newFixedThreadPool(WORKER_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "portfolio-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+
+        String contentType = request.contentType();
+        if (contentType == null || !(contentType.startsWith("text/csv") || contentType.startsWith("application/csv"))) {
+            response.status(400);
+            return "Content-type text/csv expected";
+        }
+
+        response.status(200);
+        response.type(NDJSON_CONTENT_TYPE);
+
+        // Bypass Spark request wrapper which caches whole body in memory
+        ServletRequest source = request.raw();
+        if (source instanceof ServletRequestWrapper) source = ((ServletRequestWrapper) source).getRequest();
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(response.raw().getOutputStream(), StandardCharsets.UTF_8));
+        Semaphore inFlight = new Semaphore(MAX_ROWS_IN_FLIGHT);
+        AtomicBoolean clientGone = new AtomicBoolean(false);
+
+        try (CompanyCSVReader csv = new CompanyCSVReader(
+                new InputStreamReader(source.getInputStream(), StandardCharsets.UTF_8))) {
+            while (!clientGone.get()) {
+                JSONObject row;
+                try {
+                    row = csv.next();
+                } catch (IllegalArgumentException e) {
+                    writeLine(writer, errorLine(csv.getRowNumber(), e.getMessage()), clientGone);
+                    continue;
+                }
+                if (row == null) break;
+                long rowNumber = csv.getRowNumber();
+                inFlight.acquire();    // backpressure: wait until one of the rows is done
+                workers.execute(() -> {
+                    try {
+                        writeLine(writer, valuateRow(rowNumber, row), clientGone);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } catch (IOException e) {
+            writeLine(writer, errorLine(0, e.getMessage()), clientGone);
+        } finally {
+            inFlight.acquireUninterruptibly(MAX_ROWS_IN_FLIGHT);   // wait for rows in flight
+        }
+
+        synchronized (writer) {
+            if (!clientGone.get()) writer.flush();
+        }
+        return "";
+    }
+
+
+    /**
+     * Valuates single company row
+     * @param rowNumber CSV row number
+     * @param companyJSON company data JSON object
+     * @return NDJSON line with valuations or error
+     */
+    private static String valuateRow(long rowNumber, JSONObject companyJSON) {
+        return valuateCompany(rowNumber, companyJSON).toString();
+    }
+
+
+    /**
+     * Valuates company with all methods without report
+     * @param rowNumber row number
+     * @param companyJSON company data JSON object
+     * @return JSON object with numeric valuations or error field
+     */
+    public static JSONObject valuateCompany(long rowNumber, JSONObject companyJSON) {
+        String err = ValuationService.validateCompany(companyJSON);
+        if (err != null) return errorObject(rowNumber, err);
+        try {
+            CompanyData company = new CompanyData(companyJSON);
+            int exitYear = company.getVentureExitYear();
+            ValuatorEngine valuatorEngine = new ValuatorEngine(company, exitYear);
+            double ebitda = valuatorEngine.valuateEBITDA(null, false);
+            double multiples = valuatorEngine.valuateComparables(null, false);
+            double dcf = valuatorEngine.valuateDCF(null, false);
+            boolean ventureStage = valuatorEngine.isVentureStage();
+            double realOptions = ventureStage ? valuatorEngine.valuateRealOptions(null, false) : Double.NaN;
+            double exitValue = valuatorEngine.getExitValue(ebitda, multiples, dcf, realOptions);
+            int yearsToExit = exitYear - Year.now().getValue();
+            double presentValue = yearsToExit >= 1
+                ? FinancialMath.getPresentValue(exitValue, company.getVentureRate(), yearsToExit)
+                : exitValue;
+            JSONObject result = new JSONObject()
+                .put("row", rowNumber)
+                .put("name", company.getName())
+                .put("exitYear", exitYear);
+            // methods without value are listed as unavailable, exit value is blended over the rest;
+            // EBITDA and DCF of venture-stage company are replaced by real options, so never missing
+            JSONArray unavailable = new JSONArray();
+            JSONArray blended = ventureStage ? null : unavailable;
+            putMethod(result, blended, ValuationService.METHOD_EBITDA, ebitda);
+            putMethod(result, unavailable, ValuationService.METHOD_MULTIPLES, multiples);
+            putMethod(result, blended, ValuationService.METHOD_DCF, dcf);
+            if (ventureStage) putMethod(result, unavailable, ValuationService.METHOD_REAL_OPTIONS, realOptions);
+            if (!unavailable.isEmpty()) result.put("unavailable", unavailable);
+            if (Double.isNaN(exitValue)) return errorObject(rowNumber, "No valuation method is computable");
+            result.put("exitValue", exitValue).put("presentValue", presentValue);
+            return result;
+        } catch (Exception e) {
+            return errorObject(rowNumber, e.toString());
+        }
+    }
+
+
+    /**
+     * Puts method value into result or method name into unavailable list if value is NaN
+     * @param result result JSON object
+     * @param unavailable names of methods without value, null if method is not blended
+     * @param name method name
+     * @param value method value or NaN
+     */
+    private static void putMethod(JSONObject result, JSONArray unavailable, String name, double value) {
+        if (Double.isNaN(value)) {
+            if (unavailable != null) unavailable.put(name);
+        }
+        else result.put(name, value);
+    }
+
+
+    private static String errorLine(long rowNumber, String message) {
+        return errorObject(rowNumber, message).toString();
+    }
+
+
+    private static JSONObject errorObject(long rowNumber, String message) {
+        return new JSONObject().put("row", rowNumber).put("error", String.valueOf(message));
+    }
+
+
+    /**
+     * Writes and flushes NDJSON line, marks client as gone if connection is closed
+     * @param writer response writer
+     * @param line JSON line
+     * @param clientGone client disconnection flag
+     */
+    private static void writeLine(Writer writer, String line, AtomicBoolean clientGone) {
+        synchronized (writer) {
+            if (clientGone.get()) return;
+            try {
+                writer.write(line);
+                writer.write('\n');
+                writer.flush();
+            } catch (IOException e) {
+                clientGone.set(true);
+            }
+        }
+    }
+
+}
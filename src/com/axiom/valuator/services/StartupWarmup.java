@@ -0,0 +1,94 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Startup warm-up
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.services;
+
+import com.axiom.valuator.model.CompanyData;
+import com.axiom.valuator.model.RequestLog;
+import com.axiom.valuator.model.UpstreamClient;
+import com.axiom.valuator.model.ValuatorEngine;
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Year;
+
+/**
+ * Synthetic warm-up of valuation path against fixture company before the port is opened:
+ * loads classes (org.json, MapDB, engine, report builders) and lets JIT compile hot methods,
+ * so first user requests run at steady state latency. Upstream clients are switched offline
+ * during warm-up, fixture data is never cached.
+ */
+public class StartupWarmup {
+
+    public static final int DEFAULT_ITERATIONS = 200;
+
+    public static final String FIXTURE_COMPANY = "{"
+        + "\"name\":\"Warm-up Fixture\",\"country\":\"KZ\",\"sector\":\"TECHNOLOGY\",\"industry\":\"SOFTWARE\","
+        + "\"revenue\":[1000000,1500000,2250000,3000000,3750000],"
+        + "\"ebitda\":[100000,225000,400000,600000,800000],"
+        + "\"freeCashFlow\":[50000,150000,300000,450000,600000],"
+        + "\"cash\":100000,\"equity\":500000,\"equityRate\":0.2,\"debt\":250000,\"debtRate\":0.15,"
+        + "\"marketShare\":0.1,\"ventureRate\":0.4}";
+
+
+    /**
+     * Runs valuation service path on fixture company
+     * @param iterations number of valuations
+     * @return number of valuations completed
+     */
+    public static int run(int iterations) {
+        boolean wasOffline = UpstreamClient.isOffline();
+        UpstreamClient.setOffline(true);
+        int completed = 0;
+        try {
+            int currentYear = Year.now().getValue();
+            JSONObject fixture = new JSONObject(FIXTURE_COMPANY)
+                .put("dataFirstYear", currentYear - 1)
+                .put("ventureExitYear", currentYear + 2);
+            String body = fixture.toString();
+            for (int i = 0; i < iterations; i++) {
+                JSONObject companyJSON = new JSONObject(body);
+                if (ValuationService.validateCompany(companyJSON) != null) break;
+                CompanyData company = new CompanyData(companyJSON);
+                StringBuilder report = new StringBuilder();
+                ValuationService.generateReport(company, report, i % 10 == 0, null);
+                new ValuatorEngine(company, company.getVentureExitYear()).sweepExitYears().toJson().toString();
+                completed++;
+            }
+        } catch (Exception e) {
+            RequestLog.error("Start-up warm-up failed", e);
+        } finally {
+            UpstreamClient.setOffline(wasOffline);
+        }
+        return completed;
+    }
+
+
+    /**
+     * Sends requests to running server to load HTTP request handling classes
+     * (used in training run producing class data sharing archive)
+     * @param port server port
+     */
+    public static void requestServer(int port) {
+        HttpClient client = HttpClient.newHttpClient();
+        String baseURL = "http://localhost:" + port;
+        try {
+            client.send(HttpRequest.newBuilder(URI.create(baseURL + "/")).GET().build(),
+                HttpResponse.BodyHandlers.discarding());
+            client.send(HttpRequest.newBuilder(URI.create(baseURL + "/valuate"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{}")).build(),
+                HttpResponse.BodyHandlers.discarding());
+        } catch (Exception e) {
+            RequestLog.error("Warm-up request to server failed", e);
+        }
+    }
+
+}
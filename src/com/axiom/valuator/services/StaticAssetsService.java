@@ -0,0 +1,218 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Precompressed static assets service
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.services;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+import spark.Spark;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves web UI static assets loaded, hashed and gzip compressed once at startup.
+ * Each representation of asset has its own strong ETag (gzip one has -gzip suffix).
+ * Scripts and images are also served from versioned URLs (/assets/{version}/{name})
+ * with long-lived Cache-Control, HTML pages reference them by versioned URLs and
+ * are revalidated with ETag on every load.
+ */
+public class StaticAssetsService implements Route {
+
+    public static final String VERSIONED_PATH = "/assets/";
+    public static final String INDEX_PAGE = "index.html";
+    public static final String[] PAGES = { "index.html", "methodology.html" };
+    public static final String[] RESOURCES = { "formController.js", "favicon.ico" };
+    public static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    public static final String REVALIDATE_CACHE_CONTROL = "no-cache";
+    public static final int COMPRESSION_THRESHOLD_BYTES = 1024;
+    public static final String GZIP_ETAG_SUFFIX = "-gzip";
+
+    public static final String ERROR_NOT_FOUND = "Static asset not found: ";
+
+    private final String name;
+    private final String contentType;
+    private final byte[] content;
+    private final byte[] gzipContent;
+    private final String etag;
+    private final String gzipEtag;
+    private final String version;
+    private final boolean versioned;
+
+
+    private StaticAssetsService(String name, byte[] content, boolean versioned) throws IOException {
+        this.name = name;
+        this.contentType = getContentType(name);
+        this.content = content;
+        this.gzipContent = content.length >= COMPRESSION_THRESHOLD_BYTES ? gzip(content) : null;
+        String hash = sha256(content);
+        this.etag = "\"" + hash.substring(0, 32) + "\"";
+        this.gzipEtag = "\"" + hash.substring(0, 32) + GZIP_ETAG_SUFFIX + "\"";
+        this.version = hash.substring(0, 12);
+        this.versioned = versioned;
+    }
+
+
+    private StaticAssetsService(StaticAssetsService asset, boolean versioned) {
+        this.name = asset.name;
+        this.contentType = asset.contentType;
+        this.content = asset.content;
+        this.gzipContent = asset.gzipContent;
+        this.etag = asset.etag;
+        this.gzipEtag = asset.gzipEtag;
+        this.version = asset.version;
+        this.versioned = versioned;
+    }
+
+
+    /**
+     * Loads assets from classpath folder and registers routes serving them
+     * @param classpathFolder classpath folder with static files
+     * @throws IOException if asset can't be loaded
+     */
+    public static void register(String classpathFolder) throws IOException {
+        List<StaticAssetsService> resources = new ArrayList<>();
+        for (String resource : RESOURCES) {
+            StaticAssetsService asset = new StaticAssetsService(resource, load(classpathFolder, resource), false);
+            resources.add(asset);
+            Spark.get("/" + resource, asset);
+            Spark.get(VERSIONED_PATH + asset.version + "/" + resource, new StaticAssetsService(asset, true));
+        }
+        for (String page : PAGES) {
+            String html = new String(load(classpathFolder, page), StandardCharsets.UTF_8);
+            for (StaticAssetsService resource : resources) {
+                String versionedURL = VERSIONED_PATH + resource.version + "/" + resource.name;
+                html = html.replace("src=\"" + resource.name + "\"", "src=\"" + versionedURL + "\"")
+                           .replace("href=\"" + resource.name + "\"", "href=\"" + versionedURL + "\"");
+            }
+            StaticAssetsService asset = new StaticAssetsService(page, html.getBytes(StandardCharsets.UTF_8), false);
+            Spark.get("/" + page, asset);
+            if (page.equals(INDEX_PAGE)) Spark.get("/", asset);
+        }
+    }
+
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        boolean compressed = gzipContent != null && acceptsGzip(request);
+        String representationEtag = compressed ? gzipEtag : etag;
+        response.header("ETag", representationEtag);
+        response.header("Cache-Control", versioned ? IMMUTABLE_CACHE_CONTROL : REVALIDATE_CACHE_CONTROL);
+        response.header("Vary", "Accept-Encoding");
+
+        if (matchesAny(request.headers("If-None-Match"), representationEtag)) {
+            response.status(304);
+            return "";
+        }
+
+        // Write precompressed bytes directly, so Spark doesn't compress them again
+        byte[] body = compressed ? gzipContent : content;
+        HttpServletResponse raw = response.raw();
+        raw.setStatus(200);
+        raw.setContentType(contentType);
+        if (compressed) raw.setHeader("Content-Encoding", "gzip");
+        raw.setContentLength(body.length);
+        OutputStream out = raw.getOutputStream();
+        out.write(body);
+        out.flush();
+        return "";
+    }
+
+
+    /**
+     * Checks if client accepts gzip content encoding
+     * @param request request
+     * @return true if gzip is accepted
+     */
+    public static boolean acceptsGzip(Request request) {
+        String acceptEncoding = request.headers("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+
+    /**
+     * Checks If-None-Match header against ETag of selected representation
+     * (weak comparison: W/ prefix is ignored, * matches any representation)
+     * @param ifNoneMatch header value: *, or comma separated list of entity tags
+     * @param etag ETag of representation
+     * @return true if client's copy is current
+     */
+    static boolean matchesAny(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) return true;
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Enables on-the-fly gzip compression of response body above threshold size
+     * (Spark compresses response when Content-Encoding gzip header is set)
+     * @param request request
+     * @param response response
+     * @param bodyLength response body length
+     */
+    public static void compressIfWorthIt(Request request, Response response, int bodyLength) {
+        response.header("Vary", "Accept-Encoding");
+        if (bodyLength >= COMPRESSION_THRESHOLD_BYTES && acceptsGzip(request)) {
+            response.header("Content-Encoding", "gzip");
+        }
+    }
+
+
+    private static byte[] load(String classpathFolder, String name) throws IOException {
+        try (InputStream in = StaticAssetsService.class.getResourceAsStream(classpathFolder + "/" + name)) {
+            if (in == null) throw new IOException(ERROR_NOT_FOUND + classpathFolder + "/" + name);
+            return in.readAllBytes();
+        }
+    }
+
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+            gzip.write(content);
+        }
+        return buffer.toByteArray();
+    }
+
+
+    private static String sha256(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static String getContentType(String name) {
+        if (name.endsWith(".html")) return "text/html; charset=utf-8";
+        if (name.endsWith(".js")) return "application/javascript; charset=utf-8";
+        if (name.endsWith(".css")) return "text/css; charset=utf-8";
+        if (name.endsWith(".ico")) return "image/x-icon";
+        return "application/octet-stream";
+    }
+
+}
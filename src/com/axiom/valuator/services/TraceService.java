@@ -0,0 +1,29 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Slow request traces service
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.services;
+
+import com.axiom.valuator.model.Trace;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * Returns span trees of recent slow requests as JSON array, most recent first,
+ * so operators can see which stage (cache, World Bank, Alpha Vantage, valuation
+ * method) made the request slow
+ */
+public class TraceService implements Route {
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        response.status(200);
+        response.type("application/json");
+        return Trace.getSlowTraces().toString(2);
+    }
+
+}
@@ -1,7 +1,11 @@
 package com.axiom.valuator.services;
 
 import com.axiom.valuator.math.FinancialMath;
+import com.axiom.valuator.model.Cancellation;
 import com.axiom.valuator.model.CompanyData;
+import com.axiom.valuator.model.RequestLog;
+import com.axiom.valuator.model.Trace;
+import com.axiom.valuator.model.ValuationHistory;
 import com.axiom.valuator.model.ValuatorEngine;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -11,78 +15,182 @@ import spark.Response;
 import spark.Route;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.Year;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public class ValuationService implements Route {
 
     public static final long MAX_CONTENT_SIZE_BYTES = 4096;
+    public static final String DEADLINE_HEADER = "X-Deadline-Ms";        // request time budget, ms
+    public static final String DEADLINE_PARAMETER = "deadlineMs";        // same as query parameter
+    public static final long DEADLINE_RESERVE_MS = 50;                    // kept for rendering and transfer
+    public static final String PARTIAL_RESULT_HEADER = "X-Partial-Result";
+    public static final String ERROR_DEADLINE = DEADLINE_HEADER + " must be positive number of milliseconds";
+
+    // Report sections, also Server-Sent Event names
+    static final String METHOD_EBITDA = "ebitda";
+    static final String METHOD_MULTIPLES = "multiples";
+    static final String METHOD_DCF = "dcf";
+    static final String METHOD_REAL_OPTIONS = "realOptions";
+    static final String METHOD_SENSITIVITY = "sensitivity";
 
 
     @Override
     public Object handle(Request request, Response response) throws Exception {
-
-        String err = validateRequest(request);
-        if (err != null) {
-            response.status(400);
-            response.body(err);
-            return err;
+        try (Trace.Span trace = Trace.begin("POST /valuate");
+             ClientDisconnectWatch watch = ClientDisconnectWatch.start(request)) {
+            try {
+                return valuate(request, response);
+            } catch (CancellationException e) {
+                // client has gone, nobody reads the report
+                response.status(ClientDisconnectWatch.CLIENT_CLOSED_REQUEST);
+                return "";
+            } finally {
+                boolean gone = watch.getCancellation().isCancelled();
+                trace.tag("status", gone ? ClientDisconnectWatch.CLIENT_CLOSED_REQUEST : response.status());
+            }
         }
+    }
 
-        JSONObject companyJSON = new JSONObject(request.body());
 
-        System.out.println(companyJSON.toString());
+    private Object valuate(Request request, Response response) throws Exception {
 
-        CompanyData company = new CompanyData(companyJSON);
-        StringBuilder report = new StringBuilder();
+        AdmittedRequest admitted = admit(request, response, null);
+        if (admitted.error != null) {
+            response.body(admitted.error);
+            return admitted.error;
+        }
+        JSONObject companyJSON = admitted.companyJSON;
+        CompanyData company = admitted.company;
+        AdmissionControl lane = admitted.lane;
 
-        generateReport(company, report);
+        StringBuilder report = new StringBuilder();
+        List<String> missing;
+        try {
+            missing = generateReport(company, report, companyJSON.optBoolean("sensitivity", false),
+                ValuationHistory.getDefault());
+        } finally {
+            lane.release();
+        }
+        if (!missing.isEmpty()) {
+            response.header(PARTIAL_RESULT_HEADER, String.join(",", missing));
+            Trace.tag("partial", String.join(",", missing));
+        }
 
+        String body = report.toString();
+        StaticAssetsService.compressIfWorthIt(request, response, body.length());
         response.status(200);
-        response.body(report.toString());
-        return report.toString();
+        response.body(body);
+        return body;
+    }
+
+
+    /**
+     * Company valuation request admitted for processing, or error it was rejected with
+     */
+    static final class AdmittedRequest {
+        final JSONObject companyJSON;
+        final CompanyData company;
+        final AdmissionControl lane;        // acquired lane, caller must release it
+        final String error;                 // response status is set if not null
+
+        private AdmittedRequest(JSONObject companyJSON, CompanyData company, AdmissionControl lane, String error) {
+            this.companyJSON = companyJSON;
+            this.company = company;
+            this.lane = lane;
+            this.error = error;
+        }
+
+        private static AdmittedRequest rejected(Response response, int status, String error) {
+            response.status(status);
+            return new AdmittedRequest(null, null, null, error);
+        }
     }
 
 
     /**
-     * Check size and consistency of incoming request
+     * Checks content type and size, applies request deadline, parses and validates company
+     * data and acquires admission lane: excess load is shed fast (503 with Retry-After)
+     * instead of piling up behind upstream calls
      * @param request request data: header and body
-     * @return null if request is validated or error message string
+     * @param response response to set error status and headers
+     * @param validator additional check of company JSON returning error message, null if none
+     * @return admitted request with acquired lane or error message with status set (400, 503)
      */
-    private String validateRequest(Request request) {
-       String contentType = request.contentType();
-       if (!contentType.equals("application/json")) {
-           return "Content-type application/json expected";
-       }
-
-       try {
-           if (request.contentLength() > MAX_CONTENT_SIZE_BYTES) {
-               return "Content exceeds reasonable size";
-           }
-           String body = request.body();
-           JSONObject obj = new JSONObject(body);
-           if (obj.isEmpty()) return "Empty object {}";
-           String FIELD_WRONG = "field missing or has wrong type in JSON:\n " + obj.toString(4);
-           if (isInvalid(obj, "name", "String")) return "name " + FIELD_WRONG;
-           if (isInvalid(obj, "country", "String")) return "country " + FIELD_WRONG;
-           if (isInvalid(obj, "dataFirstYear", "Number")) return "dataFirstYear " + FIELD_WRONG;
-           if (isInvalid(obj, "revenue", "Number[]")) return "revenue " + FIELD_WRONG;
-           if (isInvalid(obj, "ebitda", "Number[]")) return "ebitda " + FIELD_WRONG;
-           if (isInvalid(obj, "freeCashFlow", "Number[]")) return "freeCashFlow " + FIELD_WRONG;
-           if (isInvalid(obj, "cash", "Number")) return "cash " + FIELD_WRONG;
-           if (isInvalid(obj, "equity", "Number")) return "equity " + FIELD_WRONG;
-           if (isInvalid(obj, "equityRate", "Number")) return "equityRate " + FIELD_WRONG;
-           if (isInvalid(obj, "debt", "Number")) return "debt " + FIELD_WRONG;
-           if (isInvalid(obj, "debtRate", "Number")) return "debtRate " + FIELD_WRONG;
-           if (isInvalid(obj, "marketShare", "Number")) return "marketShare " + FIELD_WRONG;
-           if (isInvalid(obj, "comparableStock", "String")) return "comparableStock " + FIELD_WRONG;
+    static AdmittedRequest admit(Request request, Response response, Function<JSONObject, String> validator) {
+        String contentType = request.contentType();
+        if (contentType == null || !contentType.equals("application/json")) {
+            return AdmittedRequest.rejected(response, 400, "Content-type application/json expected");
+        }
+        if (request.contentLength() > MAX_CONTENT_SIZE_BYTES) {
+            return AdmittedRequest.rejected(response, 400, "Content exceeds reasonable size");
+        }
+        if (getDeadlineBudget(request) < 0) {
+            return AdmittedRequest.rejected(response, 400, ERROR_DEADLINE);
+        }
+        applyDeadline(request);
+
+        JSONObject companyJSON;
+        try {
+            companyJSON = new JSONObject(request.body());
         } catch (JSONException e) {
-            return "Failed to parse JSON:\n" + request.body() + "\n" + e.toString();
-       }
-       return null;
+            return AdmittedRequest.rejected(response, 400, "Failed to parse JSON:\n" + request.body() + "\n" + e);
+        }
+        RequestLog.samplePayload(companyJSON);
+        String err = validateCompany(companyJSON);
+        if (err == null && validator != null) err = validator.apply(companyJSON);
+        if (err != null) return AdmittedRequest.rejected(response, 400, err);
+
+        CompanyData company = new CompanyData(companyJSON);
+        AdmissionControl lane = AdmissionControl.select(company);
+        Trace.tag("lane", lane.getName());
+        if (!lane.tryAcquire()) {
+            response.header("Retry-After", Integer.toString(lane.getRetryAfterSeconds()));
+            return AdmittedRequest.rejected(response, 503, "Service overloaded (" + lane.getName() + "), retry later");
+        }
+        return new AdmittedRequest(companyJSON, company, lane, null);
     }
 
 
-    private boolean isInvalid(JSONObject obj, String fieldName, String fieldType) {
+    /**
+     * Check presence and types of company data fields
+     * @param obj company data JSON object
+     * @return null if company data is validated or error message string
+     */
+    public static String validateCompany(JSONObject obj) {
+        if (obj.isEmpty()) return "Empty object {}";
+        String FIELD_WRONG = "field missing or has wrong type in JSON:\n " + obj.toString(4);
+        if (isInvalid(obj, "name", "String")) return "name " + FIELD_WRONG;
+        if (isInvalid(obj, "country", "String")) return "country " + FIELD_WRONG;
+        if (isInvalid(obj, "dataFirstYear", "Number")) return "dataFirstYear " + FIELD_WRONG;
+        if (isInvalid(obj, "revenue", "Number[]")) return "revenue " + FIELD_WRONG;
+        if (isInvalid(obj, "ebitda", "Number[]")) return "ebitda " + FIELD_WRONG;
+        if (isInvalid(obj, "freeCashFlow", "Number[]")) return "freeCashFlow " + FIELD_WRONG;
+        if (isInvalid(obj, "cash", "Number")) return "cash " + FIELD_WRONG;
+        if (isInvalid(obj, "equity", "Number")) return "equity " + FIELD_WRONG;
+        if (isInvalid(obj, "equityRate", "Number")) return "equityRate " + FIELD_WRONG;
+        if (isInvalid(obj, "debt", "Number")) return "debt " + FIELD_WRONG;
+        if (isInvalid(obj, "debtRate", "Number")) return "debtRate " + FIELD_WRONG;
+        if (isInvalid(obj, "marketShare", "Number")) return "marketShare " + FIELD_WRONG;
+        if (isInvalid(obj, "comparableStock", "String") && isInvalid(obj, "sector", "String"))
+            return "comparableStock " + FIELD_WRONG;
+        if (obj.has("multiplesAsOf") && !isDate(obj.opt("multiplesAsOf"))) return "multiplesAsOf (yyyy-mm-dd) " + FIELD_WRONG;
+        if (obj.has("multiplesAsOf") && !obj.optString("sector", "").isBlank())
+            return "multiplesAsOf applies to comparableStock peers only, sector multiples are current, remove one of them";
+        if (obj.has("peerAggregation") && ValuatorEngine.PeerAggregation.parse(obj.optString("peerAggregation", null)) == null)
+            return "peerAggregation (median, trimmedMean) " + FIELD_WRONG;
+        return null;
+    }
+
+
+    private static boolean isInvalid(JSONObject obj, String fieldName, String fieldType) {
         if (!obj.has(fieldName) || obj.isNull(fieldName)) return true;
         Object field = obj.get(fieldName);
         if ((field instanceof Boolean) && fieldType.equals("Boolean")) return false;
@@ -97,7 +205,18 @@ public class ValuationService implements Route {
     }
 
 
-    private boolean isArrayOfNumbers(JSONArray jsonArray) {
+    private static boolean isDate(Object field) {
+        if (!(field instanceof String)) return false;
+        try {
+            LocalDate.parse((String) field);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+
+    private static boolean isArrayOfNumbers(JSONArray jsonArray) {
         for (int i = 0; i < jsonArray.length(); i++) {
             if (!(jsonArray.get(i) instanceof Number)) {
                 return false;
@@ -107,7 +226,51 @@ public class ValuationService implements Route {
     }
 
 
-    private void generateReport(CompanyData company, StringBuilder report) {
+    /**
+     * Reads request time budget from deadline header or query parameter
+     * @param request request
+     * @return budget in milliseconds, 0 if request has no deadline, -1 if deadline is invalid
+     */
+    static long getDeadlineBudget(Request request) {
+        String value = request.headers(DEADLINE_HEADER);
+        if (value == null) value = request.queryParams(DEADLINE_PARAMETER);
+        if (value == null || value.isBlank()) return 0;
+        try {
+            long budget = Long.parseLong(value.trim());
+            return budget > 0 ? budget : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Sets request deadline on current cancellation token, DEADLINE_RESERVE_MS
+     * of the budget is kept for rendering and sending the report
+     * @param request validated request
+     */
+    static void applyDeadline(Request request) {
+        long budget = getDeadlineBudget(request);
+        Cancellation cancellation = Cancellation.current();
+        if (budget <= 0 || cancellation == null) return;
+        cancellation.setDeadline(Math.max(0, budget - DEADLINE_RESERVE_MS));
+        Trace.tag("deadlineMs", budget);
+    }
+
+
+    /**
+     * Builds HTML valuation report. Methods not finished within request deadline or
+     * not computable for given inputs are flagged and blended value is reweighted
+     * over available methods.
+     * @param company company data
+     * @param report string builder to write report
+     * @param sensitivity if true appends tornado sensitivity analysis
+     * @param history valuation history to record complete report, null to skip recording
+     * @return names of methods skipped by request deadline, empty if report is complete
+     * @throws CancellationException if request is cancelled
+     */
+    static List<String> generateReport(CompanyData company, StringBuilder report, boolean sensitivity,
+                                       ValuationHistory history) {
 
         int exitYear = company.getVentureExitYear();
 
@@ -118,26 +281,171 @@ public class ValuationService implements Route {
 
         ValuatorEngine valuatorEngine = new ValuatorEngine(company, exitYear);
 
-        double ebitda = valuatorEngine.valuateEBITDA(report, false);
+        List<String> missing = new ArrayList<>();
+        double ebitda = valuateSection(METHOD_EBITDA, valuatorEngine::valuateEBITDA, report, missing);
+        double multiples = valuateSection(METHOD_MULTIPLES, valuatorEngine::valuateComparables, report, missing);
+        double dcf = valuateSection(METHOD_DCF, valuatorEngine::valuateDCF, report, missing);
+        double realOptions = valuatorEngine.isVentureStage()
+            ? valuateSection(METHOD_REAL_OPTIONS, valuatorEngine::valuateRealOptions, report, missing)
+            : Double.NaN;
+
+        double average = valuatorEngine.getExitValue(ebitda, multiples, dcf, realOptions);
+        dropReplacedMethods(valuatorEngine, missing);
+
+        appendExitValue(report, valuatorEngine, company, average);
+        appendPartialNote(report, missing);
+
+        if (sensitivity) {
+            report.append("<hr class=\"my-3\">");
+            valuateSection(METHOD_SENSITIVITY, (section, plainText) -> {
+                Cancellation.checkDeadline();
+                valuatorEngine.valuateSensitivity(section, plainText);
+                return 0.0;
+            }, report, missing);
+        }
+        if (history != null && missing.isEmpty()) {
+            recordHistory(history, company, valuatorEngine,
+                new double[] { ebitda, multiples, dcf, realOptions, average }, report.toString());
+        }
+        return missing;
+    }
+
+
+    /**
+     * Appends complete valuation to history
+     * @param history valuation history
+     * @param company company data
+     * @param valuatorEngine valuator engine
+     * @param values EBITDA, multiples, DCF, real options and blended exit value
+     * @param report HTML report
+     */
+    static void recordHistory(ValuationHistory history, CompanyData company, ValuatorEngine valuatorEngine,
+                              double[] values, String report) {
+        try (Trace.Span span = Trace.span("ValuationHistory.append")) {
+            double[] recorded = Arrays.copyOf(values, ValuationHistory.VALUE_FIELDS.length);
+            recorded[values.length] = getPresentValue(company, values[values.length - 1]);
+            long id = history.append(new ValuationHistory.Record(ValuationHistory.hashInputs(company.toJson()),
+                company.getName(), company.getCountry().getCountry(), company.getVentureExitYear(),
+                recorded, valuatorEngine.getDataVersions().toString(), report));
+            span.tag("id", id);
+        } catch (RuntimeException e) {
+            RequestLog.error("Valuation history append failed", e);
+        }
+    }
 
-        double multiples = valuatorEngine.valuateMultiples(report, false);
 
-        double dcf = valuatorEngine.valuateDCF(report, false);
+    /**
+     * Runs report section and appends it to report. Section not finished within request
+     * deadline is replaced by notice and its name is added to missing sections, so is
+     * section that finished without value (NaN) after its report.
+     * @param name section name (method)
+     * @param method section method (report, plainText) -> value
+     * @param report string builder to write report
+     * @param missing names of sections skipped by request deadline or not computable
+     * @return section value or NaN if it is skipped by deadline or not computable
+     * @throws CancellationException if request is cancelled
+     */
+    static double valuateSection(String name, BiFunction<StringBuilder, Boolean, Double> method,
+                                 StringBuilder report, List<String> missing) {
+        StringBuilder section = new StringBuilder();
+        try (Trace.Span span = Trace.span(name)) {
+            Cancellation.check();
+            double value = method.apply(section, false);
+            span.tag("value", value);
+            report.append(section);
+            if (Double.isNaN(value)) {
+                // finished but not computable (e.g. WACC not above GDP growth): flag it, don't reweight silently
+                missing.add(name);
+                report.append("<p><i>").append(getSectionTitle(name))
+                    .append(" is not computable for these inputs and is left out of exit value</i></p>");
+            }
+            return value;
+        } catch (Cancellation.DeadlineExceededException e) {
+            missing.add(name);
+            report.append("<p><h5>").append(getSectionTitle(name))
+                .append(" - not finished within request deadline</h5></p>");
+            return Double.NaN;
+        }
+    }
 
-        double average = (ebitda * 0.4) + (multiples * 0.3) + (dcf * 0.3);
 
+    /**
+     * Drops EBITDA multiple and DCF from missing methods of venture-stage company: real
+     * options replace them in blended value, so their absence doesn't make result partial
+     * @param valuatorEngine valuator engine
+     * @param missing names of methods skipped by request deadline or not computable
+     */
+    static void dropReplacedMethods(ValuatorEngine valuatorEngine, List<String> missing) {
+        if (valuatorEngine.isVentureStage()) missing.removeAll(List.of(METHOD_EBITDA, METHOD_DCF));
+    }
+
+
+    /**
+     * Flags methods left out of blended value (skipped by request deadline or not computable)
+     * @param report string builder to write report
+     * @param missing names of methods skipped by request deadline or not computable
+     */
+    static void appendPartialNote(StringBuilder report, List<String> missing) {
+        if (missing.isEmpty()) return;
+        report.append("<p><i>Partial result: ");
+        for (int i = 0; i < missing.size(); i++) {
+            if (i > 0) report.append(", ");
+            report.append(getSectionTitle(missing.get(i)));
+        }
+        report.append(" not available, exit value is blended over available methods</i></p>");
+    }
+
+
+    private static String getSectionTitle(String name) {
+        switch (name) {
+            case METHOD_EBITDA: return "EBITDA Multiple";
+            case METHOD_MULTIPLES: return "Comparable Multiples";
+            case METHOD_DCF: return "Discounted Cash Flow";
+            case METHOD_REAL_OPTIONS: return "Real Options";
+            case METHOD_SENSITIVITY: return "Sensitivity Analysis";
+            default: return name;
+        }
+    }
+
+
+    /**
+     * Writes blended exit value and its present value to report
+     * @param report string builder to write report
+     * @param valuatorEngine valuator engine
+     * @param company company data
+     * @param exitValue blended exit value, NaN if no valuation method is available
+     */
+    static void appendExitValue(StringBuilder report, ValuatorEngine valuatorEngine,
+                                CompanyData company, double exitValue) {
+        int exitYear = company.getVentureExitYear();
+        if (Double.isNaN(exitValue)) {
+            report.append("<h5> Exit Value (").append(exitYear).append("): not available</h5>");
+            return;
+        }
         report.append("<h5> Exit Value (").append(exitYear).append("): ")
-            .append(valuatorEngine.getCountryData().formatMoney(average)).append("</h5>");
+            .append(valuatorEngine.getCountryData().formatMoney(exitValue)).append("</h5>");
 
         int currentYear = Year.now().getValue();
         int yearsToExit = exitYear - currentYear;
 
         if (yearsToExit >= 1) {
-            double presentValue = FinancialMath.getPresentValue(average, company.getVentureRate(), yearsToExit);
+            double presentValue = getPresentValue(company, exitValue);
             report.append("<h5>Present Value (").append(currentYear).append("): ")
                 .append(valuatorEngine.getCountryData().formatMoney(presentValue)).append("</h5>");
         }
     }
 
 
+    /**
+     * Discounts exit value to current year with venture rate
+     * @param company company data
+     * @param exitValue blended exit value
+     * @return present value, exit value if exit is not in future
+     */
+    static double getPresentValue(CompanyData company, double exitValue) {
+        int yearsToExit = company.getVentureExitYear() - Year.now().getValue();
+        return yearsToExit >= 1 ? FinancialMath.getPresentValue(exitValue, company.getVentureRate(), yearsToExit) : exitValue;
+    }
+
+
 }
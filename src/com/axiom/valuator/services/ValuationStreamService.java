@@ -0,0 +1,223 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Progressive valuation report service (Server-Sent Events)
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.services;
+
+import com.axiom.valuator.model.Cancellation;
+import com.axiom.valuator.model.CompanyData;
+import com.axiom.valuator.model.RequestLog;
+import com.axiom.valuator.model.Trace;
+import com.axiom.valuator.model.ValuationHistory;
+import com.axiom.valuator.model.ValuatorEngine;
+import org.json.JSONObject;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+
+/**
+ * Streams valuation report sections as Server-Sent Events: company summary is sent
+ * right away, each valuation method section as soon as it completes (methods run
+ * concurrently, so compute-only sections don't wait for Alpha Vantage), then blended
+ * exit and present value. Event names: summary, ebitda, multiples, dcf, value,
+ * sensitivity, error and done. When client disconnects, remaining sections are cancelled.
+ * Sections not finished within request deadline are flagged and blended value is
+ * reweighted over available methods.
+ */
+public class ValuationStreamService implements Route {
+
+    public static final String SSE_CONTENT_TYPE = "text/event-stream";
+    public static final int SECTION_THREADS = 32;
+
+    private static final ExecutorService sections = Executors.newFixedThreadPool(SECTION_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "report-section");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        try (Trace.Span trace = Trace.begin("POST /valuate/stream");
+             ClientDisconnectWatch watch = ClientDisconnectWatch.start(request)) {
+            try {
+                return valuate(request, response, watch.getCancellation());
+            } finally {
+                boolean gone = watch.getCancellation().isCancelled();
+                trace.tag("status", gone ? ClientDisconnectWatch.CLIENT_CLOSED_REQUEST : response.raw().getStatus());
+            }
+        }
+    }
+
+
+    private Object valuate(Request request, Response response, Cancellation cancellation) throws Exception {
+
+        ValuationService.AdmittedRequest admitted = ValuationService.admit(request, response, null);
+        if (admitted.error != null) return admitted.error;
+        JSONObject companyJSON = admitted.companyJSON;
+        CompanyData company = admitted.company;
+        AdmissionControl lane = admitted.lane;
+
+        // Stream is written directly, so Spark doesn't buffer or compress it
+        response.raw().setStatus(200);
+        response.raw().setContentType(SSE_CONTENT_TYPE + "; charset=utf-8");
+        response.raw().setHeader("Cache-Control", "no-cache");
+        response.raw().setHeader("X-Accel-Buffering", "no");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(response.raw().getOutputStream(), StandardCharsets.UTF_8));
+
+        try {
+            writeEvent(writer, "summary", company.toHTML() + "<hr class=\"my-3\">", cancellation);
+            streamReport(writer, company, companyJSON.optBoolean("sensitivity", false), cancellation);
+        } catch (CancellationException e) {
+            // client has gone, nothing to stream
+        } catch (Exception e) {
+            RequestLog.error("Streamed valuation failed", e);
+            writeEvent(writer, "error", "Valuation failed: " + e, cancellation);
+        } finally {
+            lane.release();
+        }
+        writeEvent(writer, "done", "", cancellation);
+        return "";
+    }
+
+
+    /**
+     * Valuates company with all methods concurrently and streams each section when ready
+     * @param writer response writer
+     * @param company company data
+     * @param sensitivity if true streams tornado sensitivity analysis after blended value
+     * @param cancellation request cancellation, cancelled when client disconnects
+     * @throws CancellationException if client disconnected
+     */
+    private void streamReport(Writer writer, CompanyData company, boolean sensitivity, Cancellation cancellation) {
+        ValuatorEngine valuatorEngine = new ValuatorEngine(company, company.getVentureExitYear());
+
+        List<String> missing = Collections.synchronizedList(new ArrayList<>());
+        Map<String, String> html = new ConcurrentHashMap<>();
+        CompletableFuture<Double> ebitda = section(writer, ValuationService.METHOD_EBITDA,
+            valuatorEngine::valuateEBITDA, missing, html, cancellation);
+        CompletableFuture<Double> multiples = section(writer, ValuationService.METHOD_MULTIPLES,
+            valuatorEngine::valuateComparables, missing, html, cancellation);
+        CompletableFuture<Double> dcf = section(writer, ValuationService.METHOD_DCF,
+            valuatorEngine::valuateDCF, missing, html, cancellation);
+        CompletableFuture<Double> realOptions = valuatorEngine.isVentureStage()
+            ? section(writer, ValuationService.METHOD_REAL_OPTIONS, valuatorEngine::valuateRealOptions, missing, html, cancellation)
+            : CompletableFuture.completedFuture(Double.NaN);
+
+        double[] values = { ebitda.join(), multiples.join(), dcf.join(), realOptions.join(), 0 };
+        double exitValue = valuatorEngine.getExitValue(values[0], values[1], values[2], values[3]);
+        values[4] = exitValue;
+        ValuationService.dropReplacedMethods(valuatorEngine, missing);
+        Cancellation.check();
+        StringBuilder report = new StringBuilder();
+        ValuationService.appendExitValue(report, valuatorEngine, company, exitValue);
+        ValuationService.appendPartialNote(report, missing);
+        if (!missing.isEmpty()) Trace.tag("partial", String.join(",", missing));
+        writeEvent(writer, "value", report.toString(), cancellation);
+
+        if (sensitivity) {
+            StringBuilder section = new StringBuilder("<hr class=\"my-3\">");
+            ValuationService.valuateSection(ValuationService.METHOD_SENSITIVITY, (sectionReport, plainText) -> {
+                Cancellation.checkDeadline();
+                valuatorEngine.valuateSensitivity(sectionReport, plainText);
+                return 0.0;
+            }, section, missing);
+            writeEvent(writer, ValuationService.METHOD_SENSITIVITY, section.toString(), cancellation);
+            html.put(ValuationService.METHOD_SENSITIVITY, section.toString());
+        }
+
+        ValuationHistory history = ValuationHistory.getDefault();
+        if (history != null && missing.isEmpty()) {
+            // stored report has sections in the same order as /valuate report
+            StringBuilder stored = new StringBuilder(company.toHTML()).append("<hr class=\"my-3\">");
+            for (String name : new String[] { ValuationService.METHOD_EBITDA, ValuationService.METHOD_MULTIPLES,
+                                              ValuationService.METHOD_DCF, ValuationService.METHOD_REAL_OPTIONS }) {
+                stored.append(html.getOrDefault(name, ""));
+            }
+            stored.append(report).append(html.getOrDefault(ValuationService.METHOD_SENSITIVITY, ""));
+            ValuationService.recordHistory(history, company, valuatorEngine, values, stored.toString());
+        }
+    }
+
+
+    /**
+     * Runs valuation method asynchronously and streams its report section on completion
+     * @param writer response writer
+     * @param event event name
+     * @param method valuation method (report, plainText) -> value
+     * @param missing names of methods skipped by request deadline, not computable or failed
+     * @param html report sections HTML by event name
+     * @param cancellation request cancellation, cancelled when client disconnects
+     * @return future valuation, NaN if method failed, was cancelled, skipped by deadline or not computable
+     */
+    private static CompletableFuture<Double> section(Writer writer, String event,
+                                                     BiFunction<StringBuilder, Boolean, Double> method,
+                                                     List<String> missing, Map<String, String> html,
+                                                     Cancellation cancellation) {
+        return CompletableFuture.supplyAsync(Cancellation.wrap(Trace.wrap(() -> {
+            StringBuilder report = new StringBuilder();
+            double value = Double.NaN;
+            try {
+                value = ValuationService.valuateSection(event, method, report, missing);
+            } catch (CancellationException e) {
+                return Double.NaN;
+            } catch (Exception e) {
+                // failed method is flagged like skipped one, so it is neither blended nor recorded
+                RequestLog.error("Valuation method " + event + " failed", e);
+                report.append("<p>").append(e).append("</p>");
+                missing.add(event);
+            }
+            html.put(event, report.toString());
+            writeEvent(writer, event, report.toString(), cancellation);
+            return value;
+        })), sections);
+    }
+
+
+    /**
+     * Writes and flushes Server-Sent Event, cancels request if connection is closed
+     * @param writer response writer
+     * @param event event name
+     * @param data event data (multi-line data is split into several data fields)
+     * @param cancellation request cancellation
+     */
+    private static void writeEvent(Writer writer, String event, String data, Cancellation cancellation) {
+        synchronized (writer) {
+            if (cancellation.isCancelled()) return;
+            try {
+                writer.write("event: ");
+                writer.write(event);
+                writer.write('\n');
+                for (String line : data.split("\r\n|\r|\n", -1)) {
+                    writer.write("data: ");
+                    writer.write(line);
+                    writer.write('\n');
+                }
+                writer.write('\n');
+                writer.flush();
+            } catch (IOException e) {
+                cancellation.cancel(ClientDisconnectWatch.REASON);
+            }
+        }
+    }
+
+}
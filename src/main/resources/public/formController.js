@@ -7,6 +7,8 @@
 //=======================================================================================
 
 const VALUATION_SERVICE_URL = "/valuate";
+const VALUATION_STREAM_URL = "/valuate/stream";
+const REPORT_SECTIONS = ["summary", "ebitda", "multiples", "dcf", "realOptions", "value", "sensitivity", "error"];
 const DEFAULT_COMPANY_NAME = "A Company Making Everything (ACME)"
 const DEFAULT_COUNTRY_CODE = "KZ";
 const DEFAULT_YEARS_FORECAST = 3;
@@ -417,29 +419,69 @@ function onSubmit(event) {
 
     let currentURL = window.location.href;
 
-    // Send request 
-    fetch(VALUATION_SERVICE_URL,
+    // Send request and render report sections progressively as they arrive
+    fetch(VALUATION_STREAM_URL,
         {
             method: "POST",
-            headers: {'Content-Type': 'application/json'},
+            headers: {'Content-Type': 'application/json', 'Accept': 'text/event-stream'},
             body: JSON.stringify(companyData)
         }
-    ).then(
-        response => response.text()
-    ).then((reportContent) =>  {
-        console.log("Server reponse:", reportContent);
-        reportField.innerHTML = reportContent;
+    ).then(response => {
+        if (!response.ok || !response.body) {
+            return response.text().then(text => { reportField.innerHTML = text; });
+        }
+        return readReportStream(response.body.getReader(), reportField);
+    }).then(() =>  {
         saveReport();
         submitButton.disabled = false;
     }).catch (error => {
         console.error("Fetch failed: ", error)
-        reportField.innerHTML = "Request to " + currentURL + VALUATION_SERVICE_URL + " failed:<br>" + error;
+        reportField.innerHTML = "Request to " + currentURL + VALUATION_STREAM_URL + " failed:<br>" + error;
         submitButton.disabled = false;
     })
 
 }
 
 
+//------------------------------------------------------------------------------------
+// Reads Server-Sent Events stream and places each report section into its slot
+//------------------------------------------------------------------------------------
+function readReportStream(reader, reportField) {
+    const decoder = new TextDecoder();
+    let buffer = "";
+    reportField.innerHTML = REPORT_SECTIONS
+        .map(section => "<div id=\"report-" + section + "\"></div>")
+        .join("");
+    document.getElementById("report-ebitda").innerHTML = "Loading data...";
+
+    function onEvent(block) {
+        let event = "message";
+        let data = [];
+        for (const line of block.split("\n")) {
+            if (line.startsWith("event: ")) event = line.substring(7);
+            else if (line.startsWith("data: ")) data.push(line.substring(6));
+        }
+        const slot = document.getElementById("report-" + event);
+        if (slot) slot.innerHTML = data.join("\n");
+    }
+
+    function pump() {
+        return reader.read().then(({done, value}) => {
+            if (done) return;
+            buffer += decoder.decode(value, {stream: true});
+            let end;
+            while ((end = buffer.indexOf("\n\n")) >= 0) {
+                onEvent(buffer.substring(0, end));
+                buffer = buffer.substring(end + 2);
+            }
+            return pump();
+        });
+    }
+
+    return pump();
+}
+
+
 //------------------------------------------------------------------------------------
 // Event listener on when Download button is pressed
 //------------------------------------------------------------------------------------
@@ -0,0 +1,93 @@
+//=======================================================================================
+//
+//  PRIVATE COMPANY VALUATOR
+//  Redis cache backend tests
+//
+// (C) 2024 Axiom Capital, Bolat Basheyev
+//=======================================================================================
+package com.axiom.valuator.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs RedisCacheBackend against in-process RedisStandIn server
+ */
+class RedisCacheBackendTest {
+
+    private RedisStandIn server;
+    private RedisCacheBackend backend;
+
+
+    @BeforeEach
+    void start() throws Exception {
+        server = RedisStandIn.start(0);
+        backend = new RedisCacheBackend("redis://127.0.0.1:" + server.getPort());
+    }
+
+
+    @AfterEach
+    void stop() {
+        backend.close();
+        server.close();
+    }
+
+
+    @Test
+    void roundTrip() {
+        assertNull(backend.get("companies", "AAPL"));
+        assertFalse(backend.contains("companies", "AAPL"));
+
+        backend.put("companies", "AAPL", "{\"Symbol\":\"AAPL\"}");
+        assertEquals("{\"Symbol\":\"AAPL\"}", backend.get("companies", "AAPL"));
+        assertTrue(backend.contains("companies", "AAPL"));
+        assertNull(backend.get("countries", "AAPL"));        // maps are separate hashes
+
+        backend.put("companies", "AAPL", "{\"Symbol\":\"AAPL\",\"v\":2}");
+        assertEquals("{\"Symbol\":\"AAPL\",\"v\":2}", backend.get("companies", "AAPL"));
+        assertEquals(UpstreamClient.State.CLOSED, backend.getState());
+    }
+
+
+    @Test
+    void putAllIsOneCommand() {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) entries.put("KZ:" + i, "{\"n\":" + i + "}");
+        long before = server.getCommandCount();
+        backend.putAll("countries", entries);
+        assertEquals(1, server.getCommandCount() - before);
+
+        Map<String, String> read = new HashMap<>();
+        backend.forEach("countries", read::put);
+        assertEquals(entries, read);
+    }
+
+
+    @Test
+    void openBreakerFallsBackToLocalTier() {
+        backend.put("companies", "MSFT", "{\"Symbol\":\"MSFT\"}");
+        server.close();
+
+        for (int i = 0; i < RedisCacheBackend.FAILURE_THRESHOLD; i++) backend.get("companies", "MSFT");
+        assertEquals(UpstreamClient.State.OPEN, backend.getState());
+
+        // while open, commands are not sent and local tier serves reads and writes
+        long startTime = System.nanoTime();
+        backend.put("companies", "NVDA", "{\"Symbol\":\"NVDA\"}");
+        assertEquals("{\"Symbol\":\"NVDA\"}", backend.get("companies", "NVDA"));
+        assertTrue(backend.contains("companies", "NVDA"));
+        assertNull(backend.get("companies", "MSFT"));         // server entries are not in local tier
+        assertTrue(System.nanoTime() - startTime < 1_000_000_000L, "open breaker must fail fast");
+    }
+
+}